@@ -0,0 +1,28 @@
+package com.application.orbit;
+
+/**
+ * An AccelerationField tells the DormandPrinceIntegrator how the bodies it is moving are pulled. The
+ * integrator moves the first "moving" bodies, and the rest only pull. One of the moving bodies is tracked,
+ * and its path is the one being predicted.
+ */
+public interface AccelerationField {
+
+    /**
+     * Calculates the acceleration of the moving bodies when every body is at x, y
+     * @param moving the number of bodies that move. They come first
+     * @param count the number of bodies
+     * @param x body x positions
+     * @param y body y positions
+     * @param ax gets the x acceleration of each moving body
+     * @param ay gets the y acceleration of each moving body
+     */
+    void computeAccelerations(int moving, int count, double[] x, double[] y, double[] ax, double[] ay);
+
+    /**
+     * @param count the number of bodies
+     * @param x body x positions
+     * @param y body y positions
+     * @return true if the tracked body has hit something, which ends its path
+     */
+    boolean hasCrashed(int count, double[] x, double[] y);
+}
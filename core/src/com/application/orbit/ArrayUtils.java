@@ -0,0 +1,115 @@
+package com.application.orbit;
+
+/**
+ * Helpers for the primitive arrays used by the physics code. The arrays are grown by hand instead of
+ * using collections so that the hot loops can work on plain float and int arrays.
+ */
+final class ArrayUtils {
+
+    private ArrayUtils() {
+    }
+
+    /**
+     * @return a new array of the given capacity holding the old array's values
+     */
+    static float[] grow(float[] array, int capacity) {
+        float[] newArray = new float[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, Math.min(array.length, capacity));
+        }
+        return newArray;
+    }
+
+    /**
+     * @return a new array of the given capacity holding the old array's values
+     */
+    static double[] grow(double[] array, int capacity) {
+        double[] newArray = new double[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, Math.min(array.length, capacity));
+        }
+        return newArray;
+    }
+
+    /**
+     * @return a new array of the given capacity holding the old array's values
+     */
+    static int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, Math.min(array.length, capacity));
+        }
+        return newArray;
+    }
+
+    /**
+     * Swaps the values at indexes a and b
+     */
+    static void swap(float[] array, int a, int b) {
+        float temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
+    /**
+     * Swaps the values at indexes a and b
+     */
+    static void swap(double[] array, int a, int b) {
+        double temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
+    /**
+     * Swaps the values at indexes a and b
+     */
+    static void swap(int[] array, int a, int b) {
+        int temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
+    /**
+     * Reorders the first count values so that values[k] ends up holding what was in values[order[k]]
+     * @param scratch space for a copy of the values. Must hold at least count values
+     */
+    static void reorder(float[] values, int[] order, int count, float[] scratch) {
+        System.arraycopy(values, 0, scratch, 0, count);
+        for (int k = 0; k < count; k++) {
+            values[k] = scratch[order[k]];
+        }
+    }
+
+    /**
+     * Reorders the first count values so that values[k] ends up holding what was in values[order[k]]
+     * @param scratch space for a copy of the values. Must hold at least count values
+     */
+    static void reorder(double[] values, int[] order, int count, double[] scratch) {
+        System.arraycopy(values, 0, scratch, 0, count);
+        for (int k = 0; k < count; k++) {
+            values[k] = scratch[order[k]];
+        }
+    }
+
+    /**
+     * Reorders the first count values so that values[k] ends up holding what was in values[order[k]]
+     * @param scratch space for a copy of the values. Must hold at least count values
+     */
+    static void reorder(int[] values, int[] order, int count, int[] scratch) {
+        System.arraycopy(values, 0, scratch, 0, count);
+        for (int k = 0; k < count; k++) {
+            values[k] = scratch[order[k]];
+        }
+    }
+
+    /**
+     * Reorders the first count values so that values[k] ends up holding what was in values[order[k]]
+     * @param scratch space for a copy of the values. Must hold at least count values
+     */
+    static void reorder(Object[] values, int[] order, int count, Object[] scratch) {
+        System.arraycopy(values, 0, scratch, 0, count);
+        for (int k = 0; k < count; k++) {
+            values[k] = scratch[order[k]];
+        }
+    }
+}
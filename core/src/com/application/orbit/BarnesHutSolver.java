@@ -0,0 +1,712 @@
+package com.application.orbit;
+
+/**
+ * This class approximates gravity with the Barnes-Hut algorithm. Every step it builds a quadtree over
+ * the body positions. Each node of the tree stores the total mass and center of mass of all the bodies
+ * inside it. When a node is far enough away from a body (node size / distance < opening angle), the
+ * whole node is treated as one big body instead of looking at every body inside it. This brings the
+ * cost of a step down from O(n^2) to O(n log n).
+ *
+ * The tree is stored in flat arrays that are reused between steps so that building it doesn't create
+ * any garbage. Once the tree is built, every body walks it on its own, so the walks can be split into
+ * ranges of bodies and run on several threads with a TaskRunner.
+ *
+ * Bodies barely move from one step to the next, so the result of each walk is saved as an interaction
+ * list: the nodes the body treats as one big body, and the bodies it pulls directly. The lists are reused
+ * for up to reuseSteps steps. On those steps the tree isn't rebuilt or walked. Only the mass and center
+ * of mass of each node are updated (the bodies stay in the same leaves).
+ *
+ * When the lists are built, a node is only accepted if it would still pass the opening angle test after
+ * the body and every body in the node have moved by a skin distance. The skin is picked from how far
+ * bodies moved per step with the last lists, so the lists stay good for about reuseSteps steps. A body
+ * that moves further than the skin (like one falling into a sun) is taken out of the nodes and pulls
+ * every other body directly, and it walks the tree again instead of using its own list. That way one
+ * fast body doesn't throw out everyone else's list. Once more than a few percent of the bodies are
+ * past the skin, the lists are rebuilt. They are also rebuilt when the number of bodies changes or
+ * invalidateInteractionLists is called (when bodies are added, removed, edited or resized).
+ */
+public class BarnesHutSolver implements GravitySolver {
+
+    final static float DEFAULT_OPENING_ANGLE = 0.5f;
+    final static float MIN_OPENING_ANGLE = 0.1f;
+    final static float MAX_OPENING_ANGLE = 1.5f;
+    final static int MAX_DEPTH = 32; //bodies sitting on top of each other share a leaf once we get this deep
+    final static int DEFAULT_REUSE_STEPS = 8;
+    final static int MAX_REUSE_STEPS = 32;
+    final static float MAX_SKIN_FRACTION = 0.5f; //the skin is never more than this fraction of the average leaf size
+    final static float SKIN_MARGIN = 1f; //the skin covers this many times the average move over the lists' lifetime
+    final static float MAX_ESCAPED_FRACTION = 0.05f; //lists are rebuilt once more bodies than this are past the skin
+
+    float gravityConstant; //G already scaled to world units
+    float openingAngle; //theta. 0 = exact, bigger = faster but less accurate
+
+    //node data. Node 0 is the root. The 4 children of a node are stored next to each other starting at nodeChild
+    int nodeCount;
+    float[] nodeCenterX, nodeCenterY, nodeHalfSize;
+    float[] nodeMass, nodeComX, nodeComY;
+    int[] nodeChild; //index of the first child, -1 if the node is a leaf
+    int[] nodeBody; //first body in a leaf, -1 if the leaf is empty
+    int[] nodeDepth;
+
+    int[] bodyNext; //bodies that share a leaf are chained together through this array
+    int[][] stacks; //one per thread. used to walk the tree without recursion
+
+    //interaction lists. The list of body i is stored in listBuffers[listPart[i]] starting at listStart[i].
+    //Entries >= 0 are nodes, entries < 0 are bodies stored as ~body
+    int reuseSteps; //how many steps a set of lists can be used for
+    boolean listsValid;
+    int listUses; //steps the current lists have been used for
+    int listBodies; //number of bodies when the lists were built
+    float skin; //how far a body can move before it counts as escaped
+    float stepShift = -1; //how far the average body moved per step while the last lists were used
+    float[] listX, listY; //body positions when the lists were built
+    boolean[] escaped; //bodies that have moved further than the skin since the lists were built
+    int[] escapedBodies;
+    int escapedCount;
+    int[] listPart, listStart, listLength;
+    int[][] listBuffers; //one per thread
+    int[] listBufferSize;
+
+    TaskRunner taskRunner;
+    int threadCount;
+    Runnable[] listTasks, evaluateTasks;
+
+    //arguments of the current computeAccelerations call, read by the walk tasks
+    int count;
+    float[] x, y, mass, ax, ay;
+    int[] targets; //null when every body is walked
+    int targetCount;
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     */
+    public BarnesHutSolver(float gravityConstant) {
+        this(gravityConstant, new SequentialTaskRunner());
+    }
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     * @param taskRunner runs the tree walks, possibly on several threads
+     */
+    public BarnesHutSolver(float gravityConstant, TaskRunner taskRunner) {
+        this.gravityConstant = gravityConstant;
+        this.openingAngle = DEFAULT_OPENING_ANGLE;
+        this.taskRunner = taskRunner;
+        reuseSteps = DEFAULT_REUSE_STEPS;
+
+        allocateNodes(64);
+        allocateBodies(16);
+        setThreadCount(1);
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets how many ranges of bodies the tree walks are split into
+     * @param threads the number of threads to use
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        threadCount = threads;
+        stacks = new int[threads][3 * MAX_DEPTH + 4];
+        listBuffers = new int[threads][64];
+        listBufferSize = new int[threads];
+        listTasks = new Runnable[threads];
+        evaluateTasks = new Runnable[threads];
+        for (int t = 0; t < threads; t++) {
+            listTasks[t] = new ListTask(t);
+            evaluateTasks[t] = new EvaluateTask(t);
+        }
+        listsValid = false;
+    }
+
+    public float getOpeningAngle() {
+        return openingAngle;
+    }
+
+    /**
+     * Sets the opening angle (theta) used to decide whether a node is far enough away to be treated as
+     * a single body. Smaller angles are more accurate, bigger angles are faster.
+     * @param openingAngle theta
+     */
+    public void setOpeningAngle(float openingAngle) {
+        if (openingAngle < MIN_OPENING_ANGLE) {
+            openingAngle = MIN_OPENING_ANGLE;
+        } else if (openingAngle > MAX_OPENING_ANGLE) {
+            openingAngle = MAX_OPENING_ANGLE;
+        }
+        this.openingAngle = openingAngle;
+        listsValid = false;
+    }
+
+    public int getReuseSteps() {
+        return reuseSteps;
+    }
+
+    /**
+     * Sets how many steps the interaction lists can be reused for before the tree is rebuilt
+     * @param steps the number of steps. 1 rebuilds the tree every step
+     */
+    public void setReuseSteps(int steps) {
+        if (steps < 1) {
+            steps = 1;
+        } else if (steps > MAX_REUSE_STEPS) {
+            steps = MAX_REUSE_STEPS;
+        }
+        reuseSteps = steps;
+        listsValid = false;
+    }
+
+    /**
+     * Makes the next step rebuild the tree and the interaction lists. Call this when bodies are added,
+     * removed, moved by hand or change mass.
+     */
+    public void invalidateInteractionLists() {
+        listsValid = false;
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        if (count == 0) {
+            return;
+        }
+
+        prepareLists(count, x, y, mass);
+        evaluateAll(x, y, mass, null, count, ax, ay);
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                                     float[] ax, float[] ay) {
+        if (count == 0 || targetCount == 0) {
+            return;
+        }
+
+        //every body pulls on the targets, so the lists cover every body
+        prepareLists(count, x, y, mass);
+        evaluateAll(x, y, mass, targets, targetCount, ax, ay);
+    }
+
+    /**
+     * Makes sure the interaction lists can be used with the current positions. Either the node masses
+     * and reaches are updated for the saved lists, or the tree and the lists are built again.
+     */
+    private void prepareLists(int count, float[] x, float[] y, float[] mass) {
+        if (canReuseLists(count) && findEscapedBodies(count, x, y)) {
+            computeNodeMasses(x, y, mass);
+            listUses++;
+            return;
+        }
+
+        if (listsValid && count == listBodies) {
+            //see how far bodies moved per step with the old lists to pick the next skin
+            float sum = 0;
+            for (int i = 0; i < count; i++) {
+                float dx = x[i] - listX[i];
+                float dy = y[i] - listY[i];
+                sum += (float) Math.sqrt(dx * dx + dy * dy);
+            }
+            stepShift = sum / count / listUses;
+        }
+
+        allocateBodies(count);
+        for (int i = 0; i < count; i++) {
+            listX[i] = x[i];
+            listY[i] = y[i];
+            escaped[i] = false;
+        }
+        escapedCount = 0;
+        buildTree(count, x, y, mass);
+
+        skin = 0;
+        if (reuseSteps > 1) {
+            float maxSkin = averageLeafSize() * MAX_SKIN_FRACTION;
+            skin = stepShift < 0 ? maxSkin : Math.min(maxSkin, stepShift * (reuseSteps - 1) * SKIN_MARGIN);
+        }
+
+        //walk the tree for every body to build the lists
+        this.count = count;
+        this.x = x;
+        this.y = y;
+        if (threadCount == 1) {
+            listTasks[0].run();
+        } else {
+            taskRunner.runAll(listTasks, threadCount);
+        }
+        this.x = this.y = null;
+
+        listsValid = true;
+        listBodies = count;
+        listUses = 1;
+    }
+
+    /**
+     * Finds the bodies that have moved further than the skin since the lists were built
+     * @return false if there are too many of them and the lists should be rebuilt
+     */
+    private boolean findEscapedBodies(int count, float[] x, float[] y) {
+        float skin2 = skin * skin;
+        escapedCount = 0;
+        for (int i = 0; i < count; i++) {
+            float dx = x[i] - listX[i];
+            float dy = y[i] - listY[i];
+            escaped[i] = dx * dx + dy * dy > skin2;
+            if (escaped[i]) {
+                escapedBodies[escapedCount++] = i;
+            }
+        }
+        return escapedCount <= count * MAX_ESCAPED_FRACTION;
+    }
+
+    /**
+     * @return the size of the leaf each body is in, averaged over the bodies. This is about how far apart
+     * neighboring bodies are, and unlike the size of the whole tree it isn't thrown off by one body far
+     * away from the others.
+     */
+    private float averageLeafSize() {
+        float sum = 0;
+        int bodies = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodeChild[node] < 0) {
+                for (int b = nodeBody[node]; b >= 0; b = bodyNext[b]) {
+                    sum += nodeHalfSize[node] * 2;
+                    bodies++;
+                }
+            }
+        }
+        return bodies > 0 ? sum / bodies : 0;
+    }
+
+    /**
+     * @return whether the saved lists are recent enough and were built for the same bodies
+     */
+    private boolean canReuseLists(int count) {
+        return listsValid && count == listBodies && listUses < reuseSteps;
+    }
+
+    /**
+     * Adds up the interaction list of every target (or every body if targets is null), splitting the
+     * work across threads if there is more than one
+     */
+    private void evaluateAll(float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                             float[] ax, float[] ay) {
+        if (threadCount == 1) {
+            for (int t = 0; t < targetCount; t++) {
+                int i = targets == null ? t : targets[t];
+                evaluateList(i, x, y, mass, ax, ay, stacks[0]);
+            }
+        } else {
+            this.x = x;
+            this.y = y;
+            this.mass = mass;
+            this.ax = ax;
+            this.ay = ay;
+            this.targets = targets;
+            this.targetCount = targetCount;
+
+            taskRunner.runAll(evaluateTasks, threadCount);
+
+            //don't hold on to the caller's arrays
+            this.x = this.y = this.mass = this.ax = this.ay = null;
+            this.targets = null;
+        }
+    }
+
+    /**
+     * Walks the tree for one range of the bodies and saves their interaction lists
+     */
+    private class ListTask implements Runnable {
+        final int part;
+
+        ListTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int start = (int) ((long) count * part / threadCount);
+            int end = (int) ((long) count * (part + 1) / threadCount);
+            listBufferSize[part] = 0;
+            for (int i = start; i < end; i++) {
+                walkTree(i, x, y, part);
+            }
+        }
+    }
+
+    /**
+     * Adds up the interaction lists for one range of the targets
+     */
+    private class EvaluateTask implements Runnable {
+        final int part;
+
+        EvaluateTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int start = (int) ((long) targetCount * part / threadCount);
+            int end = (int) ((long) targetCount * (part + 1) / threadCount);
+            for (int t = start; t < end; t++) {
+                int i = targets == null ? t : targets[t];
+                evaluateList(i, x, y, mass, ax, ay, stacks[part]);
+            }
+        }
+    }
+
+    /**
+     * Builds the quadtree for this step and calculates the mass and center of mass of every node
+     */
+    void buildTree(int count, float[] x, float[] y, float[] mass) {
+
+        //find a square that holds every body
+        float minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < count; i++) {
+            if (x[i] < minX) minX = x[i];
+            if (x[i] > maxX) maxX = x[i];
+            if (y[i] < minY) minY = y[i];
+            if (y[i] > maxY) maxY = y[i];
+        }
+        float halfSize = Math.max(maxX - minX, maxY - minY) / 2 * 1.001f + 0.001f;
+
+        nodeCount = 0;
+        int root = createNode((minX + maxX) / 2, (minY + maxY) / 2, halfSize, 0);
+
+        for (int i = 0; i < count; i++) {
+            insertBody(root, i, x, y);
+        }
+
+        computeNodeMasses(x, y, mass);
+    }
+
+    /**
+     * Calculates the mass and center of mass of every node from the bodies in its leaves. Escaped bodies
+     * are left out.
+     */
+    private void computeNodeMasses(float[] x, float[] y, float[] mass) {
+        //children are always created after their parent so walking backwards visits children first
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            float m = 0, mx = 0, my = 0;
+            if (nodeChild[node] < 0) {
+                for (int b = nodeBody[node]; b >= 0; b = bodyNext[b]) {
+                    if (escaped[b]) {
+                        continue;
+                    }
+                    m += mass[b];
+                    mx += mass[b] * x[b];
+                    my += mass[b] * y[b];
+                }
+            } else {
+                for (int c = nodeChild[node]; c < nodeChild[node] + 4; c++) {
+                    m += nodeMass[c];
+                    mx += nodeMass[c] * nodeComX[c];
+                    my += nodeMass[c] * nodeComY[c];
+                }
+            }
+            nodeMass[node] = m;
+            if (m > 0) {
+                nodeComX[node] = mx / m;
+                nodeComY[node] = my / m;
+            } else {
+                nodeComX[node] = nodeCenterX[node];
+                nodeComY[node] = nodeCenterY[node];
+            }
+        }
+    }
+
+    /**
+     * Adds body i to the tree, splitting leaves as needed so that every leaf holds one body
+     */
+    private void insertBody(int node, int i, float[] x, float[] y) {
+        while (true) {
+            if (nodeChild[node] >= 0) { //internal node. move down into the right quadrant
+                node = nodeChild[node] + quadrant(node, x[i], y[i]);
+            } else if (nodeBody[node] < 0) { //empty leaf
+                nodeBody[node] = i;
+                bodyNext[i] = -1;
+                return;
+            } else if (nodeDepth[node] >= MAX_DEPTH) { //too deep to split. chain the body onto the leaf
+                bodyNext[i] = nodeBody[node];
+                nodeBody[node] = i;
+                return;
+            } else { //occupied leaf. split it and push the old body down
+                int old = nodeBody[node];
+                subdivide(node);
+                int child = nodeChild[node] + quadrant(node, x[old], y[old]);
+                nodeBody[child] = old;
+                bodyNext[old] = -1;
+                nodeBody[node] = -1;
+            }
+        }
+    }
+
+    private int quadrant(int node, float px, float py) {
+        int q = 0;
+        if (px >= nodeCenterX[node]) q += 1;
+        if (py >= nodeCenterY[node]) q += 2;
+        return q;
+    }
+
+    private void subdivide(int node) {
+        float h = nodeHalfSize[node] / 2;
+        float cx = nodeCenterX[node];
+        float cy = nodeCenterY[node];
+        int depth = nodeDepth[node] + 1;
+        //the order here has to match quadrant()
+        int first = createNode(cx - h, cy - h, h, depth);
+        createNode(cx + h, cy - h, h, depth);
+        createNode(cx - h, cy + h, h, depth);
+        createNode(cx + h, cy + h, h, depth);
+        nodeChild[node] = first;
+    }
+
+    private int createNode(float cx, float cy, float halfSize, int depth) {
+        if (nodeCount == nodeChild.length) {
+            allocateNodes(nodeChild.length * 2);
+        }
+        int node = nodeCount++;
+        nodeCenterX[node] = cx;
+        nodeCenterY[node] = cy;
+        nodeHalfSize[node] = halfSize;
+        nodeDepth[node] = depth;
+        nodeChild[node] = -1;
+        nodeBody[node] = -1;
+        nodeMass[node] = 0;
+        return node;
+    }
+
+    /**
+     * Makes sure the per body arrays can hold count bodies
+     */
+    private void allocateBodies(int count) {
+        if (bodyNext != null && bodyNext.length >= count) {
+            return;
+        }
+        int capacity = count * 2;
+        bodyNext = new int[capacity];
+        listX = new float[capacity];
+        listY = new float[capacity];
+        escaped = new boolean[capacity];
+        escapedBodies = new int[capacity];
+        listPart = new int[capacity];
+        listStart = new int[capacity];
+        listLength = new int[capacity];
+    }
+
+    /**
+     * Grows the node arrays, keeping the nodes that are already there
+     */
+    private void allocateNodes(int capacity) {
+        nodeCenterX = ArrayUtils.grow(nodeCenterX, capacity);
+        nodeCenterY = ArrayUtils.grow(nodeCenterY, capacity);
+        nodeHalfSize = ArrayUtils.grow(nodeHalfSize, capacity);
+        nodeMass = ArrayUtils.grow(nodeMass, capacity);
+        nodeComX = ArrayUtils.grow(nodeComX, capacity);
+        nodeComY = ArrayUtils.grow(nodeComY, capacity);
+        nodeChild = ArrayUtils.grow(nodeChild, capacity);
+        nodeBody = ArrayUtils.grow(nodeBody, capacity);
+        nodeDepth = ArrayUtils.grow(nodeDepth, capacity);
+    }
+
+    /**
+     * Walks the tree for body i and saves the nodes that are far enough away, and the bodies in the leaves
+     * that are too close to approximate, as the body's interaction list
+     */
+    private void walkTree(int i, float[] x, float[] y, int part) {
+        float px = x[i];
+        float py = y[i];
+        float theta2 = openingAngle * openingAngle;
+        int[] stack = stacks[part];
+
+        listPart[i] = part;
+        listStart[i] = listBufferSize[part];
+
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (nodeMass[node] <= 0) {
+                continue;
+            }
+
+            if (nodeChild[node] < 0) { //leaf. every body in it is pulled directly
+                for (int b = nodeBody[node]; b >= 0; b = bodyNext[b]) {
+                    if (b != i) { //don't apply a body's own gravity to itself
+                        addListEntry(part, ~b);
+                    }
+                }
+                continue;
+            }
+
+            //the node has to pass even after it and the body have moved by the skin
+            float dx = nodeComX[node] - px;
+            float dy = nodeComY[node] - py;
+            float r = (float) Math.sqrt(dx * dx + dy * dy) - 2 * skin;
+            float size = nodeHalfSize[node] * 2 + 2 * skin;
+            if (r > 0 && size * size < theta2 * r * r && !containsPoint(node, px, py, skin)) {
+                //far enough away. treat the whole node as one body at its center of mass
+                addListEntry(part, node);
+            } else {
+                //too close. look at the children instead
+                int first = nodeChild[node];
+                stack[top++] = first;
+                stack[top++] = first + 1;
+                stack[top++] = first + 2;
+                stack[top++] = first + 3;
+            }
+        }
+
+        listLength[i] = listBufferSize[part] - listStart[i];
+    }
+
+    private void addListEntry(int part, int entry) {
+        int[] buffer = listBuffers[part];
+        int size = listBufferSize[part];
+        if (size == buffer.length) {
+            buffer = ArrayUtils.grow(buffer, size * 2);
+            listBuffers[part] = buffer;
+        }
+        buffer[size] = entry;
+        listBufferSize[part] = size + 1;
+    }
+
+    /**
+     * Adds up the pull of everything in body i's interaction list using the current positions, plus the
+     * pull of the escaped bodies. An escaped body walks the tree instead.
+     */
+    private void evaluateList(int i, float[] x, float[] y, float[] mass, float[] ax, float[] ay, int[] stack) {
+        if (escaped[i]) {
+            walkTreeNow(i, x, y, mass, ax, ay, stack);
+            return;
+        }
+
+        float px = x[i];
+        float py = y[i];
+        float sumX = 0, sumY = 0;
+
+        int[] buffer = listBuffers[listPart[i]];
+        int end = listStart[i] + listLength[i];
+        for (int k = listStart[i]; k < end; k++) {
+            int entry = buffer[k];
+            float dx, dy, m;
+            if (entry >= 0) { //a node treated as one body at its center of mass
+                dx = nodeComX[entry] - px;
+                dy = nodeComY[entry] - py;
+                m = nodeMass[entry];
+            } else { //a single body
+                int b = ~entry;
+                if (escaped[b]) {
+                    continue; //added below with the other escaped bodies
+                }
+                dx = x[b] - px;
+                dy = y[b] - py;
+                m = mass[b];
+            }
+            float r2 = dx * dx + dy * dy;
+            if (r2 > 0) {
+                float f = m / (r2 * (float) Math.sqrt(r2));
+                sumX += f * dx;
+                sumY += f * dy;
+            }
+        }
+
+        ax[i] = sumX * gravityConstant;
+        ay[i] = sumY * gravityConstant;
+        addEscapedPull(i, x, y, mass, ax, ay);
+    }
+
+    /**
+     * Walks the tree for body i using the current centers of mass and adds up the acceleration right away
+     * instead of saving a list. Used for escaped bodies, whose saved list can't be trusted anymore. The
+     * bodies left in the nodes have moved by up to the skin, so nodes are treated as that much bigger.
+     */
+    private void walkTreeNow(int i, float[] x, float[] y, float[] mass, float[] ax, float[] ay, int[] stack) {
+        float px = x[i];
+        float py = y[i];
+        float sumX = 0, sumY = 0;
+        float theta2 = openingAngle * openingAngle;
+
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (nodeMass[node] <= 0) {
+                continue;
+            }
+
+            float dx = nodeComX[node] - px;
+            float dy = nodeComY[node] - py;
+            float r2 = dx * dx + dy * dy;
+
+            if (nodeChild[node] < 0) { //leaf. add each body directly
+                for (int b = nodeBody[node]; b >= 0; b = bodyNext[b]) {
+                    if (b == i || escaped[b]) {
+                        continue; //escaped bodies (body i is one of them) are added below
+                    }
+                    float bx = x[b] - px;
+                    float by = y[b] - py;
+                    float br2 = bx * bx + by * by;
+                    if (br2 > 0) {
+                        float f = mass[b] / (br2 * (float) Math.sqrt(br2));
+                        sumX += f * bx;
+                        sumY += f * by;
+                    }
+                }
+                continue;
+            }
+
+            float size = nodeHalfSize[node] * 2 + 2 * skin;
+            if (size * size < theta2 * r2 && !containsPoint(node, px, py, skin)) {
+                //far enough away. treat the whole node as one body at its center of mass
+                float f = nodeMass[node] / (r2 * (float) Math.sqrt(r2));
+                sumX += f * dx;
+                sumY += f * dy;
+            } else {
+                //too close. look at the children instead
+                int first = nodeChild[node];
+                stack[top++] = first;
+                stack[top++] = first + 1;
+                stack[top++] = first + 2;
+                stack[top++] = first + 3;
+            }
+        }
+
+        ax[i] = sumX * gravityConstant;
+        ay[i] = sumY * gravityConstant;
+        addEscapedPull(i, x, y, mass, ax, ay);
+    }
+
+    /**
+     * Adds the pull of every escaped body (other than body i itself) to body i's acceleration
+     */
+    private void addEscapedPull(int i, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        float px = x[i];
+        float py = y[i];
+        float sumX = 0, sumY = 0;
+        for (int k = 0; k < escapedCount; k++) {
+            int b = escapedBodies[k];
+            float dx = x[b] - px;
+            float dy = y[b] - py;
+            float r2 = dx * dx + dy * dy;
+            if (b != i && r2 > 0) {
+                float f = mass[b] / (r2 * (float) Math.sqrt(r2));
+                sumX += f * dx;
+                sumY += f * dy;
+            }
+        }
+        ax[i] += sumX * gravityConstant;
+        ay[i] += sumY * gravityConstant;
+    }
+
+    /**
+     * @return whether the point is inside the node, or within margin of its edges
+     */
+    private boolean containsPoint(int node, float px, float py, float margin) {
+        float h = nodeHalfSize[node] + margin;
+        return Math.abs(px - nodeCenterX[node]) <= h && Math.abs(py - nodeCenterY[node]) <= h;
+    }
+}
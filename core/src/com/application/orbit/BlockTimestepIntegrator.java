@@ -0,0 +1,219 @@
+package com.application.orbit;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * This class advances the simulation using hierarchical (power-of-two) block timesteps. Every body gets
+ * its own step size of baseStep / 2^level. Bodies in a close encounter move to a high level (small steps)
+ * while quiet bodies stay at level 0 and only get their gravity recalculated once per base step.
+ *
+ * Each body still uses the kick-drift-kick leapfrog. A body gets its opening half kick when its block
+ * starts and its closing half kick when its block ends. Everyone drifts together between the points
+ * where some block starts or ends. These small drifts are done on the registry arrays, which is much
+ * cheaper than stepping the Box2D world for every one of them. Box2D still gets one world step per
+ * base step, where each body is given the straight line velocity from its start point to its end
+ * point. That world step handles collisions, and any change it makes to a velocity is added to the
+ * body's real velocity.
+ *
+ * The step size of a body comes from its acceleration a and jerk j (how fast a is changing):
+ *     dt = accuracy * |a| / |j|
+ * The jerk is estimated from the change in acceleration over the body's last block. A body can move to
+ * a smaller step whenever its block ends, but can only move to a bigger step when that bigger block
+ * would line up with the blocks of everyone else. New bodies start on the smallest step, since nothing
+ * is known about their jerk yet.
+ *
+ * Locked bodies don't move, so only the movable slots (0..movableSize()-1) are stepped.
+ */
+public class BlockTimestepIntegrator {
+
+    static final int MAX_LEVEL = 6; //smallest step is baseStep / 64
+    static final float DEFAULT_ACCURACY = 0.02f;
+
+    GameScreen gameScreen;
+    BodyRegistry bodies;
+    float accuracy;
+
+    //slots of the bodies whose block ends at the current tick, and their accelerations at the start of it
+    int[] active;
+    float[] oldAx, oldAy;
+    //where each body was at the start of the base step, and the velocity Box2D is given to get to the end
+    float[] startX, startY, lineVx, lineVy;
+
+    public BlockTimestepIntegrator(GameScreen gameScreen, BodyRegistry bodies) {
+        this.gameScreen = gameScreen;
+        this.bodies = bodies;
+        accuracy = DEFAULT_ACCURACY;
+        active = new int[16];
+        oldAx = new float[16];
+        oldAy = new float[16];
+        startX = new float[16];
+        startY = new float[16];
+        lineVx = new float[16];
+        lineVy = new float[16];
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @param accuracy the factor in dt = accuracy * |a| / |j|. Smaller is more accurate but slower
+     */
+    public void setAccuracy(float accuracy) {
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * This method puts every body on the smallest step. Used when block timesteps are turned on so
+     * levels left over from an earlier run aren't trusted. Bodies that don't need small steps grow
+     * back to the base step within one base step.
+     */
+    public void resetLevels() {
+        for (int i = 0; i < bodies.size(); i++) {
+            bodies.levels[i] = MAX_LEVEL;
+        }
+    }
+
+    /**
+     * This method advances every body by one base step. All bodies start and end the base step in sync.
+     * @param baseStep the biggest step a body can take
+     */
+    public void step(float baseStep) {
+        if (!gameScreen.accelerationsValid) {
+            gameScreen.computeGravity();
+        }
+
+        int count = bodies.movableSize();
+        if (startX.length < count) {
+            startX = ArrayUtils.grow(startX, count * 2);
+            startY = ArrayUtils.grow(startY, count * 2);
+            lineVx = ArrayUtils.grow(lineVx, count * 2);
+            lineVy = ArrayUtils.grow(lineVy, count * 2);
+        }
+        for (int i = 0; i < count; i++) {
+            startX[i] = bodies.x[i];
+            startY[i] = bodies.y[i];
+        }
+
+        //time is counted in ticks of the smallest possible step so that block boundaries are exact
+        final int ticks = 1 << MAX_LEVEL;
+        final float tickTime = baseStep / ticks;
+        int tick = 0;
+
+        while (tick < ticks) {
+            //opening kick for every body whose block starts now
+            int finestLevel = 0;
+            for (int i = 0; i < count; i++) {
+                int level = bodies.levels[i];
+                finestLevel = Math.max(finestLevel, level);
+                if (tick % (ticks >> level) == 0) {
+                    float halfStep = baseStep / (1 << level) / 2;
+                    bodies.vx[i] += bodies.ax[i] * halfStep;
+                    bodies.vy[i] += bodies.ay[i] * halfStep;
+                }
+            }
+
+            //drift everyone to the next point where the finest blocks end
+            int ticksToDrift = ticks >> finestLevel;
+            float drift = ticksToDrift * tickTime;
+            for (int i = 0; i < count; i++) {
+                bodies.x[i] += bodies.vx[i] * drift;
+                bodies.y[i] += bodies.vy[i] * drift;
+            }
+            tick += ticksToDrift;
+
+            //closing kick for every body whose block ends now. Only these bodies get new gravity
+            int activeCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (tick % (ticks >> bodies.levels[i]) == 0) {
+                    if (activeCount == active.length) {
+                        active = ArrayUtils.grow(active, activeCount * 2);
+                        oldAx = ArrayUtils.grow(oldAx, activeCount * 2);
+                        oldAy = ArrayUtils.grow(oldAy, activeCount * 2);
+                    }
+                    active[activeCount] = i;
+                    oldAx[activeCount] = bodies.ax[i];
+                    oldAy[activeCount] = bodies.ay[i];
+                    activeCount++;
+                }
+            }
+
+            gameScreen.computeGravity(active, activeCount);
+
+            for (int k = 0; k < activeCount; k++) {
+                int i = active[k];
+                int level = bodies.levels[i];
+                float blockStep = baseStep / (1 << level);
+
+                bodies.vx[i] += bodies.ax[i] * blockStep / 2;
+                bodies.vy[i] += bodies.ay[i] * blockStep / 2;
+
+                bodies.levels[i] = chooseLevel(i, level, blockStep, baseStep, tick, ticks, oldAx[k], oldAy[k]);
+            }
+        }
+
+        //one Box2D step moves every body in a straight line to where it ended up, checking for collisions
+        for (int i = 0; i < count; i++) {
+            lineVx[i] = (bodies.x[i] - startX[i]) / baseStep;
+            lineVy[i] = (bodies.y[i] - startY[i]) / baseStep;
+            bodies.get(i).setLinearVelocity(lineVx[i], lineVy[i]);
+        }
+
+        gameScreen.world.step(baseStep, 6, 2);
+
+        for (int i = 0; i < count; i++) {
+            //a collision changes the Box2D velocity. Give that same change to the real velocity
+            Vector2 velocity = bodies.get(i).getLinearVelocity();
+            bodies.vx[i] += velocity.x - lineVx[i];
+            bodies.vy[i] += velocity.y - lineVy[i];
+            bodies.get(i).setLinearVelocity(bodies.vx[i], bodies.vy[i]);
+            bodies.pullPosition(i);
+        }
+
+        //bodies absorbed in a collision are removed now that the slots aren't needed anymore
+        gameScreen.deleteScheduledBodies();
+    }
+
+    /**
+     * This method picks the level for a body's next block
+     * @param i the body's slot
+     * @param level the level of the block that just ended
+     * @param blockStep the length of the block that just ended
+     * @param baseStep the length of a level 0 block
+     * @param tick the current tick
+     * @param ticks the number of ticks in a base step
+     * @param oldAx the x acceleration at the start of the block that just ended
+     * @param oldAy the y acceleration at the start of the block that just ended
+     * @return the new level
+     */
+    private int chooseLevel(int i, int level, float blockStep, float baseStep, int tick, int ticks,
+                            float oldAx, float oldAy) {
+        float ax = bodies.ax[i];
+        float ay = bodies.ay[i];
+        float jx = (ax - oldAx) / blockStep;
+        float jy = (ay - oldAy) / blockStep;
+        float a2 = ax * ax + ay * ay;
+        float j2 = jx * jx + jy * jy;
+
+        int wantedLevel = 0;
+        if (j2 > 0) {
+            float wantedStep = accuracy * (float) Math.sqrt(a2 / j2);
+            float step = baseStep;
+            while (step > wantedStep && wantedLevel < MAX_LEVEL) {
+                step /= 2;
+                wantedLevel++;
+            }
+        }
+
+        if (wantedLevel >= level) {
+            //smaller blocks always line up with the current tick
+            return wantedLevel;
+        }
+
+        //only grow by one level at a time, and only if the bigger block would end on a tick it divides
+        if (tick % ((ticks >> level) * 2) == 0) {
+            return level - 1;
+        }
+        return level;
+    }
+}
@@ -38,11 +38,11 @@ public class BodyContactListener implements ContactListener {
 
         Fixture fixtureA = contact.getFixtureA();
         Body bodyA = fixtureA.getBody();
-        float massA = bodyA.getMass();
+        float massA = gameScreen.getBodyMass(bodyA);
 
         Fixture fixtureB = contact.getFixtureB();
         Body bodyB = fixtureB.getBody();
-        float massB = bodyB.getMass();
+        float massB = gameScreen.getBodyMass(bodyB);
 
         if(isBodyFusionActivated()) {
 
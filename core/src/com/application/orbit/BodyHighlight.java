@@ -1,7 +1,6 @@
 package com.application.orbit;
 
 import com.badlogic.gdx.graphics.Texture;
-import com.badlogic.gdx.math.Vector2;
 
 /**
  * Created by Nick on 4/28/2016.
@@ -24,12 +23,10 @@ public class BodyHighlight extends DynamicSprite {
     }
 
     @Override
-    public void update() {
-        Vector2 position = getBody().getWorldCenter();
-        float radius = getShape().getRadius();
+    public void update(float x, float y, float radius, float angle) {
         setSize(radius * 2.5f, radius * 2.5f);
-        setPositionCenter(position.x, position.y);
+        setPositionCenter(x, y);
         setOrigin(getWidth() / 2, getHeight() / 2);
-        setRotation((float)Math.toDegrees(physicsBody.getAngle()));
+        setRotation((float)Math.toDegrees(angle));
     }
 }
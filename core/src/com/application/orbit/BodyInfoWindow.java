@@ -182,9 +182,14 @@ public class BodyInfoWindow extends Window {
     }
 
     public void fillInfo(DynamicSprite selectedDynamicSprite) {
-        Vector2 position = selectedDynamicSprite.getBody().getWorldCenter();
-        Vector2 velocity = selectedDynamicSprite.getBody().getLinearVelocity();
-        float mass = selectedDynamicSprite.getBody().getMass();
+        //read the state from the body registry. Box2D's velocity is half a physics step behind it
+        BodyRegistry bodies = gameScreen.bodies;
+        int slot = bodies.getSlot(bodies.getId(selectedDynamicSprite.getBody()));
+        //the position is shown in scene coordinates, which don't change when the world origin is moved
+        Vector2 position = new Vector2((float) (bodies.preciseX[slot] + gameScreen.originX),
+                (float) (bodies.preciseY[slot] + gameScreen.originY));
+        Vector2 velocity = new Vector2(bodies.vx[slot], bodies.vy[slot]);
+        float mass = bodies.mass[slot];
         String name = selectedDynamicSprite.getName();
 
         float scaleFactor = gameScreen.SIZE_ADJUSTMENT_FACTOR;
@@ -225,8 +230,9 @@ public class BodyInfoWindow extends Window {
 
         float scaleFactor = gameScreen.SIZE_ADJUSTMENT_FACTOR;
 
-        float positionX = Float.valueOf(positionXField.getText()) * scaleFactor;
-        float positionY = Float.valueOf(positionYField.getText()) * scaleFactor;
+        //the fields are in scene coordinates. Box2D works relative to the moving world origin
+        float positionX = (float) (Float.valueOf(positionXField.getText()) * scaleFactor - gameScreen.originX);
+        float positionY = (float) (Float.valueOf(positionYField.getText()) * scaleFactor - gameScreen.originY);
         float velocityX = Float.valueOf(velocityXField.getText()) * scaleFactor;
         float velocityY = Float.valueOf(velocityYField.getText()) * scaleFactor;
         float mass = Float.valueOf(massField.getText());
@@ -242,6 +248,7 @@ public class BodyInfoWindow extends Window {
         selectedBody.setTransform(positionX, positionY, 0);
         selectedBody.setLinearVelocity(velocityX, velocityY);
         gameScreen.setBodyMass(selectedBody, mass);
+        gameScreen.syncEditedBody(selectedBody);
         gameScreen.getDynamicSprite(selectedBody).setName(name);
 
         gameScreen.doLaunchSimulation(new Vector2(velocityX, velocityY));
@@ -0,0 +1,604 @@
+package com.application.orbit;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps track of every body in the simulation. Each body gets an integer ID when it is
+ * added. The ID is stored in the body's user data and never changes while the body exists, so the
+ * body's sprite and other info can be looked up in constant time instead of searching a list.
+ *
+ * Bodies are packed into dense slots 0..size()-1 so that loops over all bodies don't skip over holes.
+ * When a body is removed, the body in the last slot is moved into its place. This means slots can
+ * change, but IDs can't. Anything that needs to remember a body (like the selected body) should hold
+ * on to its ID.
+ *
+ * The registry also stores the physics state of every body (position, velocity, mass, radius and
+ * flags) in plain arrays indexed by slot. The gravity and integration code reads these arrays instead
+ * of calling into Box2D for every body. Box2D only gets synced with the arrays when it moves the
+ * bodies (pullFromWorld) or when a body is edited.
+ *
+ * Movable bodies are always kept in the first slots (0..movableSize()-1) and locked bodies after them.
+ * That way the integration and gravity loops can run over just the movable bodies, and the locked
+ * bodies sit together so their pull can be cached (see LockedGravityField). lockedVersion goes up
+ * whenever a locked body is added, removed, moved or resized, so the cache knows when to rebuild.
+ *
+ * Slots are given out in the order bodies are added, so after a while bodies that are close together in
+ * the world end up far apart in the arrays. sortByPosition puts the movable bodies back in Z-order
+ * (Morton order), so the tree builds and walks in the gravity solvers mostly touch memory that is
+ * already cached. Only slots change, so IDs (and things like the selected body) aren't affected.
+ *
+ * Positions and velocities are also kept in doubles (preciseX and friends) for the double precision mode
+ * (see PreciseIntegrator). In float mode the doubles just follow Box2D. In double precision mode they
+ * are the real state and the floats are rounded copies used for rendering, Box2D and the approximate
+ * gravity solvers.
+ */
+public class BodyRegistry {
+
+    static final int FLAG_MOVABLE = 1; //the body is affected by gravity and collisions and can be launched
+    static final int MORTON_CELLS = 1 << 16; //cells along each side of the grid used for Morton codes
+
+    int count; //number of bodies. These are stored in slots 0..count-1
+    int movableCount; //number of movable bodies. These are stored in slots 0..movableCount-1
+    int lockedVersion; //changes whenever the set of locked bodies or their positions or masses change
+
+    //slot data
+    Body[] bodies;
+    DynamicSprite[] sprites;
+    int[] slotIds; //the ID of the body in each slot
+
+    //physics state for each slot
+    float[] x, y; //world center
+    float[] vx, vy; //linear velocity
+    float[] ax, ay; //acceleration from gravity
+    float[] angle;
+    float[] mass, radius;
+    int[] flags;
+    int[] levels; //block timestep level. The body steps by baseStep / 2^level (see BlockTimestepIntegrator)
+    double[] preciseX, preciseY, preciseVx, preciseVy; //double precision copy of the position and velocity
+
+    //ID data
+    int[] idSlots; //the slot of the body with each ID. -1 if the ID isn't in use
+    int[] freeIds; //IDs of removed bodies that can be given out again
+    int freeIdCount;
+    int nextId;
+
+    //scratch space for sortByPosition
+    long[] sortKeys;
+    int[] sortOrder;
+    float[] sortFloats;
+    double[] sortDoubles;
+    int[] sortInts;
+    Object[] sortObjects;
+
+    public BodyRegistry() {
+        int capacity = 16;
+        bodies = new Body[capacity];
+        sprites = new DynamicSprite[capacity];
+        slotIds = new int[capacity];
+        allocateState(capacity);
+        idSlots = new int[capacity];
+        freeIds = new int[capacity];
+    }
+
+    /**
+     * Adds a body and its sprite to the registry and stores the body's new ID in its user data
+     * @param body the body to add
+     * @param sprite the sprite drawn for the body
+     * @return the body's ID
+     */
+    public int add(Body body, DynamicSprite sprite) {
+        if (count == bodies.length) {
+            growSlots(count * 2);
+        }
+
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            if (nextId == idSlots.length) {
+                growIds(nextId * 2);
+            }
+            id = nextId++;
+        }
+
+        int slot = count++;
+        bodies[slot] = body;
+        sprites[slot] = sprite;
+        slotIds[slot] = id;
+        idSlots[id] = slot;
+
+        body.setUserData(id);
+
+        mass[slot] = body.getMass();
+        radius[slot] = body.getFixtureList().get(0).getShape().getRadius();
+        flags[slot] = FLAG_MOVABLE;
+        levels[slot] = BlockTimestepIntegrator.MAX_LEVEL; //start small until the body's jerk is known
+        ax[slot] = 0;
+        ay[slot] = 0;
+
+        //new bodies are movable, so move the body in front of the locked bodies
+        if (slot != movableCount) {
+            swapSlots(slot, movableCount);
+            slot = movableCount;
+        }
+        movableCount++;
+        pull(slot);
+
+        return id;
+    }
+
+    /**
+     * Removes the body with the given ID. The body is swapped to the end of its group (movable or
+     * locked) and then to the last slot, so the movable bodies stay in front.
+     * @param id the ID of the body to remove
+     */
+    public void remove(int id) {
+        int slot = idSlots[id];
+        int last = count - 1;
+
+        if (slot < movableCount) {
+            movableCount--;
+            swapSlots(slot, movableCount);
+            slot = movableCount;
+        } else {
+            lockedVersion++;
+        }
+        swapSlots(slot, last);
+
+        bodies[last] = null;
+        sprites[last] = null;
+        count--;
+
+        idSlots[id] = -1;
+        if (freeIdCount == freeIds.length) {
+            freeIds = ArrayUtils.grow(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeIdCount++] = id;
+    }
+
+    /**
+     * Swaps everything stored for the bodies in slots a and b and points their IDs at their new slots
+     */
+    void swapSlots(int a, int b) {
+        if (a == b) {
+            return;
+        }
+        Body body = bodies[a];
+        bodies[a] = bodies[b];
+        bodies[b] = body;
+        DynamicSprite sprite = sprites[a];
+        sprites[a] = sprites[b];
+        sprites[b] = sprite;
+        int id = slotIds[a];
+        slotIds[a] = slotIds[b];
+        slotIds[b] = id;
+        idSlots[slotIds[a]] = a;
+        idSlots[slotIds[b]] = b;
+
+        ArrayUtils.swap(x, a, b);
+        ArrayUtils.swap(y, a, b);
+        ArrayUtils.swap(vx, a, b);
+        ArrayUtils.swap(vy, a, b);
+        ArrayUtils.swap(ax, a, b);
+        ArrayUtils.swap(ay, a, b);
+        ArrayUtils.swap(angle, a, b);
+        ArrayUtils.swap(mass, a, b);
+        ArrayUtils.swap(radius, a, b);
+        ArrayUtils.swap(flags, a, b);
+        ArrayUtils.swap(levels, a, b);
+        ArrayUtils.swap(preciseX, a, b);
+        ArrayUtils.swap(preciseY, a, b);
+        ArrayUtils.swap(preciseVx, a, b);
+        ArrayUtils.swap(preciseVy, a, b);
+    }
+
+    /**
+     * Sorts the movable bodies along a Z-order (Morton) curve through their positions so that bodies that
+     * are close together in the world are also close together in the slot arrays. Every slot array is
+     * moved along with the bodies, and the IDs are pointed at the new slots. Locked bodies keep their
+     * slots. Anything that stores data by slot (like the Barnes-Hut interaction lists) has to be thrown
+     * out after calling this.
+     */
+    public void sortByPosition() {
+        int n = movableCount;
+        if (n < 2) {
+            return;
+        }
+        if (sortKeys == null || sortKeys.length < n) {
+            int capacity = bodies.length;
+            sortKeys = new long[capacity];
+            sortOrder = new int[capacity];
+            sortFloats = new float[capacity];
+            sortDoubles = new double[capacity];
+            sortInts = new int[capacity];
+            sortObjects = new Object[capacity];
+        }
+
+        //fit a square grid over the movable bodies
+        float minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        float size = Math.max(maxX - minX, maxY - minY);
+        float scale = size > 0 ? (MORTON_CELLS - 1) / size : 0;
+
+        //sort by Morton code. The slot goes in the low bits so it comes back out with the key
+        for (int i = 0; i < n; i++) {
+            int cellX = (int) ((x[i] - minX) * scale);
+            int cellY = (int) ((y[i] - minY) * scale);
+            long code = (spreadBits(cellX) | (spreadBits(cellY) << 1)) & 0xffffffffL;
+            sortKeys[i] = code << 32 | i;
+        }
+        Arrays.sort(sortKeys, 0, n);
+        for (int k = 0; k < n; k++) {
+            sortOrder[k] = (int) sortKeys[k];
+        }
+
+        ArrayUtils.reorder(bodies, sortOrder, n, sortObjects);
+        ArrayUtils.reorder(sprites, sortOrder, n, sortObjects);
+        ArrayUtils.reorder(slotIds, sortOrder, n, sortInts);
+        ArrayUtils.reorder(x, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(y, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(vx, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(vy, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(ax, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(ay, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(angle, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(mass, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(radius, sortOrder, n, sortFloats);
+        ArrayUtils.reorder(flags, sortOrder, n, sortInts);
+        ArrayUtils.reorder(levels, sortOrder, n, sortInts);
+        ArrayUtils.reorder(preciseX, sortOrder, n, sortDoubles);
+        ArrayUtils.reorder(preciseY, sortOrder, n, sortDoubles);
+        ArrayUtils.reorder(preciseVx, sortOrder, n, sortDoubles);
+        ArrayUtils.reorder(preciseVy, sortOrder, n, sortDoubles);
+        Arrays.fill(sortObjects, 0, n, null); //don't keep removed bodies alive
+
+        for (int slot = 0; slot < n; slot++) {
+            idSlots[slotIds[slot]] = slot;
+        }
+    }
+
+    /**
+     * Spreads the low 16 bits of v out so there is a zero bit between each of them. Interleaving the
+     * spread x and y cells gives the Morton code.
+     */
+    private static int spreadBits(int v) {
+        v &= 0xffff;
+        v = (v | (v << 8)) & 0x00ff00ff;
+        v = (v | (v << 4)) & 0x0f0f0f0f;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    /**
+     * Copies the position, velocity and angle of the body in the given slot out of Box2D
+     * @param slot the body's slot
+     */
+    public void pull(int slot) {
+        if (slot >= movableCount) {
+            lockedVersion++; //a locked body was moved
+        }
+        Body body = bodies[slot];
+        Vector2 center = body.getWorldCenter();
+        x[slot] = center.x;
+        y[slot] = center.y;
+        Vector2 velocity = body.getLinearVelocity();
+        vx[slot] = velocity.x;
+        vy[slot] = velocity.y;
+        angle[slot] = body.getAngle();
+        preciseX[slot] = x[slot];
+        preciseY[slot] = y[slot];
+        preciseVx[slot] = vx[slot];
+        preciseVy[slot] = vy[slot];
+    }
+
+    /**
+     * Copies only the position and angle of the body in the given slot out of Box2D. The velocity in
+     * the registry is left alone.
+     * @param slot the body's slot
+     */
+    public void pullPosition(int slot) {
+        Body body = bodies[slot];
+        Vector2 center = body.getWorldCenter();
+        x[slot] = center.x;
+        y[slot] = center.y;
+        angle[slot] = body.getAngle();
+        preciseX[slot] = x[slot];
+        preciseY[slot] = y[slot];
+    }
+
+    /**
+     * Copies the state of a body out of Box2D. Call this after editing a body directly.
+     * @param body the body that was edited
+     */
+    public void pull(Body body) {
+        pull(idSlots[getId(body)]);
+    }
+
+    /**
+     * Copies the position, velocity and angle of every movable body out of Box2D. This is called once
+     * after Box2D has stepped the world. Locked bodies are static in Box2D so they can't have moved.
+     */
+    public void pullFromWorld() {
+        for (int i = 0; i < movableCount; i++) {
+            pull(i);
+        }
+    }
+
+    /**
+     * Changes the velocity of every movable body by its acceleration times dt. This is the "kick" part
+     * of the leapfrog integrator. Only the registry is changed. Call pushVelocities to hand the new
+     * velocities to Box2D.
+     * @param dt the amount of time to kick by
+     */
+    public void kick(float dt) {
+        for (int i = 0; i < movableCount; i++) {
+            vx[i] += ax[i] * dt;
+            vy[i] += ay[i] * dt;
+        }
+    }
+
+    /**
+     * Copies the velocity of every movable body into Box2D so that the next world step moves the bodies
+     * with it
+     */
+    public void pushVelocities() {
+        for (int i = 0; i < movableCount; i++) {
+            bodies[i].setLinearVelocity(vx[i], vy[i]);
+        }
+    }
+
+    /**
+     * Moves every body by (-shiftX, -shiftY) in both Box2D and the registry. Used to move the world
+     * origin (see GameScreen.shiftOrigin). Velocities don't change, and the double positions are shifted
+     * exactly so double precision mode doesn't lose anything.
+     * @param shiftX how far to move the origin along x
+     * @param shiftY how far to move the origin along y
+     */
+    public void shiftOrigin(float shiftX, float shiftY) {
+        for (int i = 0; i < count; i++) {
+            preciseX[i] -= shiftX;
+            preciseY[i] -= shiftY;
+            x[i] = (float) preciseX[i];
+            y[i] = (float) preciseY[i];
+            Body body = bodies[i];
+            Vector2 position = body.getPosition();
+            body.setTransform(position.x - shiftX, position.y - shiftY, body.getAngle());
+        }
+        lockedVersion++; //the locked bodies moved too
+    }
+
+    /**
+     * Copies the float position and velocity of every body into the double precision arrays. Called when
+     * double precision mode is turned on, since float mode only keeps the doubles loosely in sync.
+     */
+    public void copyToPrecise() {
+        for (int i = 0; i < count; i++) {
+            preciseX[i] = x[i];
+            preciseY[i] = y[i];
+            preciseVx[i] = vx[i];
+            preciseVy[i] = vy[i];
+        }
+    }
+
+    /**
+     * Copies the double position and velocity of every movable body into the floats and into Box2D. Used
+     * when bodies are moved without a world step (see OnRailsPropagator).
+     */
+    public void pushPrecise() {
+        for (int i = 0; i < movableCount; i++) {
+            x[i] = (float) preciseX[i];
+            y[i] = (float) preciseY[i];
+            vx[i] = (float) preciseVx[i];
+            vy[i] = (float) preciseVy[i];
+            Body body = bodies[i];
+            //setTransform places the body's origin, which can be off from its center
+            Vector2 position = body.getPosition();
+            float offsetX = position.x, offsetY = position.y;
+            Vector2 center = body.getWorldCenter();
+            offsetX -= center.x;
+            offsetY -= center.y;
+            body.setTransform(x[i] + offsetX, y[i] + offsetY, body.getAngle());
+            body.setLinearVelocity(vx[i], vy[i]);
+        }
+    }
+
+    /**
+     * Double precision version of kick. The velocity change is added to the double velocity and the
+     * float velocity is rounded from it.
+     * @param dt the amount of time to kick by
+     */
+    public void kickPrecise(double dt) {
+        for (int i = 0; i < movableCount; i++) {
+            preciseVx[i] += ax[i] * dt;
+            preciseVy[i] += ay[i] * dt;
+            vx[i] = (float) preciseVx[i];
+            vy[i] = (float) preciseVy[i];
+        }
+    }
+
+    /**
+     * Moves every movable body by its double velocity times dt (the leapfrog drift) without going through
+     * Box2D. The float position is rounded from the double one.
+     * @param dt the amount of time to drift by
+     */
+    public void driftPrecise(double dt) {
+        for (int i = 0; i < movableCount; i++) {
+            preciseX[i] += preciseVx[i] * dt;
+            preciseY[i] += preciseVy[i] * dt;
+            x[i] = (float) preciseX[i];
+            y[i] = (float) preciseY[i];
+        }
+    }
+
+    /**
+     * Updates the stored mass and radius of a body after it has been resized
+     * @param id the body's ID
+     * @param newMass the body's new mass
+     * @param newRadius the body's new radius
+     */
+    public void setMass(int id, float newMass, float newRadius) {
+        int slot = idSlots[id];
+        mass[slot] = newMass;
+        radius[slot] = newRadius;
+        if (slot >= movableCount) {
+            lockedVersion++;
+        }
+    }
+
+    /**
+     * Locks or unlocks a body. The body is swapped across the border between the movable and locked
+     * slots. A locked body's velocity and acceleration are zeroed since it doesn't move.
+     * @param id the body's ID
+     * @param movable false to lock the body in place
+     */
+    public void setMovable(int id, boolean movable) {
+        int slot = idSlots[id];
+        if (movable == isMovableAt(slot)) {
+            return;
+        }
+        if (movable) {
+            swapSlots(slot, movableCount);
+            slot = movableCount++;
+            flags[slot] |= FLAG_MOVABLE;
+        } else {
+            movableCount--;
+            swapSlots(slot, movableCount);
+            slot = movableCount;
+            flags[slot] &= ~FLAG_MOVABLE;
+            vx[slot] = 0;
+            vy[slot] = 0;
+            ax[slot] = 0;
+            ay[slot] = 0;
+        }
+        lockedVersion++;
+    }
+
+    public boolean isMovable(int id) {
+        return isMovableAt(idSlots[id]);
+    }
+
+    public boolean isMovableAt(int slot) {
+        return (flags[slot] & FLAG_MOVABLE) != 0;
+    }
+
+    /**
+     * @return the number of bodies
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of movable bodies. These are in slots 0..movableSize()-1
+     */
+    public int movableSize() {
+        return movableCount;
+    }
+
+    /**
+     * @param slot a slot between 0 and size()-1
+     * @return the body stored in that slot
+     */
+    public Body get(int slot) {
+        return bodies[slot];
+    }
+
+    /**
+     * @param slot a slot between 0 and size()-1
+     * @return the sprite stored in that slot
+     */
+    public DynamicSprite getSpriteAt(int slot) {
+        return sprites[slot];
+    }
+
+    /**
+     * @param slot a slot between 0 and size()-1
+     * @return the ID of the body stored in that slot
+     */
+    public int getIdAt(int slot) {
+        return slotIds[slot];
+    }
+
+    /**
+     * @param body a body in the registry
+     * @return the body's ID (read from its user data)
+     */
+    public int getId(Body body) {
+        return (Integer) body.getUserData();
+    }
+
+    /**
+     * @param id a body ID
+     * @return the slot the body is currently stored in, or -1 if there isn't a body with that ID
+     */
+    public int getSlot(int id) {
+        if (id < 0 || id >= nextId) {
+            return -1;
+        }
+        return idSlots[id];
+    }
+
+    /**
+     * @param id a body ID
+     * @return whether a body with that ID exists
+     */
+    public boolean contains(int id) {
+        return getSlot(id) >= 0;
+    }
+
+    public Body getBody(int id) {
+        return bodies[idSlots[id]];
+    }
+
+    public DynamicSprite getSprite(int id) {
+        return sprites[idSlots[id]];
+    }
+
+    public DynamicSprite getSprite(Body body) {
+        return getSprite(getId(body));
+    }
+
+    private void growSlots(int capacity) {
+        Body[] newBodies = new Body[capacity];
+        System.arraycopy(bodies, 0, newBodies, 0, count);
+        bodies = newBodies;
+
+        DynamicSprite[] newSprites = new DynamicSprite[capacity];
+        System.arraycopy(sprites, 0, newSprites, 0, count);
+        sprites = newSprites;
+
+        slotIds = ArrayUtils.grow(slotIds, capacity);
+        allocateState(capacity);
+    }
+
+    private void allocateState(int capacity) {
+        x = ArrayUtils.grow(x, capacity);
+        y = ArrayUtils.grow(y, capacity);
+        vx = ArrayUtils.grow(vx, capacity);
+        vy = ArrayUtils.grow(vy, capacity);
+        ax = ArrayUtils.grow(ax, capacity);
+        ay = ArrayUtils.grow(ay, capacity);
+        angle = ArrayUtils.grow(angle, capacity);
+        mass = ArrayUtils.grow(mass, capacity);
+        radius = ArrayUtils.grow(radius, capacity);
+        flags = ArrayUtils.grow(flags, capacity);
+        levels = ArrayUtils.grow(levels, capacity);
+        preciseX = ArrayUtils.grow(preciseX, capacity);
+        preciseY = ArrayUtils.grow(preciseY, capacity);
+        preciseVx = ArrayUtils.grow(preciseVx, capacity);
+        preciseVy = ArrayUtils.grow(preciseVy, capacity);
+    }
+
+    private void growIds(int capacity) {
+        idSlots = ArrayUtils.grow(idSlots, capacity);
+    }
+}
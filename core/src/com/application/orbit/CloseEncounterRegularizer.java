@@ -0,0 +1,394 @@
+package com.application.orbit;
+
+import java.util.Arrays;
+
+/**
+ * This class handles pairs of bodies in a close encounter, like a tight binary or a planet skimming past
+ * a sun. The pull between two close bodies is huge and changes direction quickly, so with a fixed step
+ * leapfrog overshoots and the pair gets flung apart (or everything has to run with a tiny step).
+ *
+ * Instead, the pull between the two bodies is split out of the step and solved exactly (operator
+ * splitting). Inside the leapfrog step the pair drifts along its two body orbit (see KeplerDrift) while
+ * their centre of mass drifts in a straight line, and the kicks only carry the pull of everything else.
+ * KeplerDrift jumps along the orbit by the whole step, so the 1/r^2 spike never has to be stepped
+ * through and the pair stays accurate at any step size. There is no change of time variable and no
+ * regularized (Kustaanheimo-Stiefel) state being integrated, only this split. A locked partner doesn't
+ * move, so the movable body just follows its orbit around it.
+ *
+ * The kicks use the gravity mode's accelerations and then take out the exact pull between the pair's
+ * bodies (kickPairs). That only leaves the pull of everything else if the gravity mode put the exact pull
+ * in to begin with. The approximate modes don't: particle-mesh smooths out the pull between bodies closer
+ * than a couple of cells, and the trees and expansions get it slightly wrong, so taking out the exact pull
+ * would leave a kick pushing the pair apart. The pairs are only used with exact gravity for that reason
+ * (see GameScreen.findEncounterPairs).
+ *
+ * Pairs are picked at the start of every step. Two bodies are a pair when the time scale of their orbit
+ * around each other, sqrt(r^3 / (G (m1 + m2))), is shorter than ENCOUNTER_STEPS steps and each is the
+ * other's closest partner by that time scale. A body is in at most one pair, but a locked body can be
+ * the partner of several movable bodies. Candidates are found by sorting the bodies along x and only
+ * looking at bodies within the largest possible pair distance, so this isn't O(n^2) for spread out
+ * scenes. The pair stays regularized only as long as the condition holds, so the bodies drop back to the
+ * normal step as soon as they separate.
+ *
+ * Used by the leapfrog step in GameScreen and by the PreciseIntegrator. Block timesteps already shrink
+ * the step of bodies in an encounter, so they don't use it. The Wisdom-Holman integrator solves the
+ * orbits around its star exactly, but its kick would step straight through the pull between two close
+ * planets, so it isn't picked while there is a pair that doesn't include the star (see hasPairWithout).
+ */
+public class CloseEncounterRegularizer {
+
+    static final float ENCOUNTER_STEPS = 20; //a pair whose orbit time scale is shorter than this many steps is regularized
+
+    double gravityConstant; //G already scaled to world units
+    boolean enabled;
+
+    //the pairs for the current step. a is always movable, b can be locked
+    int pairCount;
+    int[] pairA, pairB;
+    int[] pairIdA, pairIdB; //IDs, so the pairs can be found again if slots change during the step
+    double[] targetX, targetY, targetVx, targetVy; //where the drift takes each pair body. a at 2p, b at 2p+1
+    float[] lineVx, lineVy; //the velocity Box2D is given to get each pair body to its target
+
+    boolean precise; //whether this step works on the registry's doubles or its floats
+    double[] state; //x, y, vx, vy handed to KeplerDrift
+
+    //scratch space for finding pairs
+    long[] sortKeys;
+    int[] partner;
+    double[] partnerScore;
+
+    public CloseEncounterRegularizer(float gravityConstant) {
+        this.gravityConstant = gravityConstant;
+        enabled = true;
+        allocatePairs(8);
+        sortKeys = new long[16];
+        partner = new int[16];
+        partnerScore = new double[16];
+        state = new double[4];
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        pairCount = 0;
+    }
+
+    /**
+     * This method picks the pairs that are regularized during the next step
+     * @param bodies the bodies in the scene
+     * @param step the length of the step
+     * @param precise true to work on the registry's doubles (double precision mode)
+     * @return the number of pairs found
+     */
+    public int findPairs(BodyRegistry bodies, float step, boolean precise) {
+        this.precise = precise;
+        pairCount = 0;
+        int count = bodies.size();
+        int movable = bodies.movableSize();
+        if (!enabled || movable == 0 || count < 2) {
+            return 0;
+        }
+        if (sortKeys.length < count) {
+            sortKeys = new long[count * 2];
+            partner = new int[count * 2];
+            partnerScore = new double[count * 2];
+        }
+        float[] mass = bodies.mass;
+
+        //a pair is close enough when r^3 / (m1 + m2) is below this
+        double encounterTime = ENCOUNTER_STEPS * step;
+        double limit = gravityConstant * encounterTime * encounterTime;
+        float maxMass = 0, maxMovableMass = 0;
+        for (int i = 0; i < count; i++) {
+            maxMass = Math.max(maxMass, mass[i]);
+            if (i < movable) {
+                maxMovableMass = Math.max(maxMovableMass, mass[i]);
+            }
+        }
+        double maxDistance = Math.pow(limit * (maxMass + maxMovableMass), 1 / 3.0);
+
+        //sort along x. the key is the float's bits flipped so that they order like the float, then the slot
+        for (int i = 0; i < count; i++) {
+            int bits = Float.floatToIntBits((float) getX(bodies, i));
+            bits ^= (bits >> 31) & 0x7fffffff;
+            sortKeys[i] = ((long) bits << 32) | i;
+            partner[i] = -1;
+            partnerScore[i] = limit;
+        }
+        Arrays.sort(sortKeys, 0, count);
+
+        //every body's closest partner by orbit time scale
+        for (int k = 0; k < count; k++) {
+            int i = (int) sortKeys[k];
+            double xi = getX(bodies, i), yi = getY(bodies, i);
+            for (int n = k + 1; n < count; n++) {
+                int j = (int) sortKeys[n];
+                double dx = getX(bodies, j) - xi;
+                if (dx > maxDistance) {
+                    break;
+                }
+                if (i >= movable && j >= movable) {
+                    continue; //locked bodies don't move, so they never need regularizing
+                }
+                double dy = getY(bodies, j) - yi;
+                double r2 = dx * dx + dy * dy;
+                double score = r2 * Math.sqrt(r2) / (mass[i] + mass[j]);
+                if (score < partnerScore[i]) {
+                    partnerScore[i] = score;
+                    partner[i] = j;
+                }
+                if (score < partnerScore[j]) {
+                    partnerScore[j] = score;
+                    partner[j] = i;
+                }
+            }
+        }
+
+        //movable bodies pair up when they are each other's closest. a locked partner can be shared
+        for (int a = 0; a < movable; a++) {
+            int b = partner[a];
+            if (b < 0 || (b < movable && (partner[b] != a || b < a))) {
+                continue;
+            }
+            if (pairCount == pairA.length) {
+                allocatePairs(pairCount * 2);
+            }
+            pairA[pairCount] = a;
+            pairB[pairCount] = b;
+            pairIdA[pairCount] = bodies.getIdAt(a);
+            pairIdB[pairCount] = bodies.getIdAt(b);
+            pairCount++;
+        }
+        return pairCount;
+    }
+
+    /**
+     * @param slot the body to leave out, like the star of the Wisdom-Holman integrator
+     * @return true if findPairs found a pair that doesn't include the given body
+     */
+    public boolean hasPairWithout(int slot) {
+        for (int p = 0; p < pairCount; p++) {
+            if (pairA[p] != slot && pairB[p] != slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method forgets the pairs, so the next step treats every body normally
+     */
+    public void clearPairs() {
+        pairCount = 0;
+    }
+
+    /**
+     * This method finds the slots of the pair bodies again after bodies were removed. Pairs that lost a
+     * body (it was absorbed in a collision) are dropped.
+     */
+    public void updateSlots(BodyRegistry bodies) {
+        int kept = 0;
+        for (int p = 0; p < pairCount; p++) {
+            if (!bodies.contains(pairIdA[p]) || !bodies.contains(pairIdB[p])) {
+                continue;
+            }
+            pairA[kept] = bodies.getSlot(pairIdA[p]);
+            pairB[kept] = bodies.getSlot(pairIdB[p]);
+            pairIdA[kept] = pairIdA[p];
+            pairIdB[kept] = pairIdB[p];
+            kept++;
+        }
+        pairCount = kept;
+    }
+
+    /**
+     * This method adds the pull between the bodies of every pair times dt to their velocities. The
+     * leapfrog kicks include that pull, so calling this with -dt right after a kick leaves only the pull
+     * of everything else.
+     * @param dt the amount of time to kick by
+     */
+    public void kickPairs(BodyRegistry bodies, double dt) {
+        float[] mass = bodies.mass;
+        int movable = bodies.movableSize();
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairA[p], b = pairB[p];
+            double dx = getX(bodies, b) - getX(bodies, a);
+            double dy = getY(bodies, b) - getY(bodies, a);
+            double r2 = dx * dx + dy * dy;
+            if (r2 <= 0) {
+                continue;
+            }
+            double scale = gravityConstant * dt / (r2 * Math.sqrt(r2));
+            addVelocity(bodies, a, mass[b] * scale * dx, mass[b] * scale * dy);
+            if (b < movable) {
+                addVelocity(bodies, b, -mass[a] * scale * dx, -mass[a] * scale * dy);
+            }
+        }
+    }
+
+    /**
+     * This method works out where the drift takes the bodies of every pair: the centre of mass moves in a
+     * straight line and the bodies move around it along their two body orbit. The results are kept until
+     * applyDrift or setLineVelocities.
+     * @param dt the amount of time to drift by
+     */
+    public void computeDrift(BodyRegistry bodies, double dt) {
+        float[] mass = bodies.mass;
+        int movable = bodies.movableSize();
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairA[p], b = pairB[p];
+            double ax = getX(bodies, a), ay = getY(bodies, a), avx = getVx(bodies, a), avy = getVy(bodies, a);
+            double bx = getX(bodies, b), by = getY(bodies, b);
+            boolean lockedPartner = b >= movable;
+            double bvx = lockedPartner ? 0 : getVx(bodies, b), bvy = lockedPartner ? 0 : getVy(bodies, b);
+            double ma = mass[a], mb = mass[b];
+            double total = lockedPartner ? mb : ma + mb;
+
+            state[0] = ax - bx;
+            state[1] = ay - by;
+            state[2] = avx - bvx;
+            state[3] = avy - bvy;
+            if (!KeplerDrift.drift(gravityConstant * total, dt, state)) {
+                //only happens when the bodies sit exactly on top of each other. drift in a straight line
+                state[0] = ax - bx + (avx - bvx) * dt;
+                state[1] = ay - by + (avy - bvy) * dt;
+                state[2] = avx - bvx;
+                state[3] = avy - bvy;
+            }
+
+            if (lockedPartner) {
+                targetX[2 * p] = bx + state[0];
+                targetY[2 * p] = by + state[1];
+                targetVx[2 * p] = state[2];
+                targetVy[2 * p] = state[3];
+                targetX[2 * p + 1] = bx;
+                targetY[2 * p + 1] = by;
+                targetVx[2 * p + 1] = 0;
+                targetVy[2 * p + 1] = 0;
+            } else {
+                double centreX = (ma * ax + mb * bx) / total + (ma * avx + mb * bvx) / total * dt;
+                double centreY = (ma * ay + mb * by) / total + (ma * avy + mb * bvy) / total * dt;
+                double centreVx = (ma * avx + mb * bvx) / total;
+                double centreVy = (ma * avy + mb * bvy) / total;
+                double shareA = mb / total, shareB = ma / total;
+                targetX[2 * p] = centreX + shareA * state[0];
+                targetY[2 * p] = centreY + shareA * state[1];
+                targetVx[2 * p] = centreVx + shareA * state[2];
+                targetVy[2 * p] = centreVy + shareA * state[3];
+                targetX[2 * p + 1] = centreX - shareB * state[0];
+                targetY[2 * p + 1] = centreY - shareB * state[1];
+                targetVx[2 * p + 1] = centreVx - shareB * state[2];
+                targetVy[2 * p + 1] = centreVy - shareB * state[3];
+            }
+        }
+    }
+
+    /**
+     * This method moves the pair bodies to where computeDrift put them. Used in double precision mode,
+     * after the other bodies have drifted and before Box2D is synced (see PreciseIntegrator.moveBodies).
+     */
+    public void applyDrift(BodyRegistry bodies) {
+        int movable = bodies.movableSize();
+        for (int k = 0; k < pairCount * 2; k++) {
+            int slot = (k & 1) == 0 ? pairA[k >> 1] : pairB[k >> 1];
+            if (slot >= movable) {
+                continue;
+            }
+            bodies.preciseX[slot] = targetX[k];
+            bodies.preciseY[slot] = targetY[k];
+            bodies.preciseVx[slot] = targetVx[k];
+            bodies.preciseVy[slot] = targetVy[k];
+            bodies.x[slot] = (float) targetX[k];
+            bodies.y[slot] = (float) targetY[k];
+            bodies.vx[slot] = (float) targetVx[k];
+            bodies.vy[slot] = (float) targetVy[k];
+        }
+    }
+
+    /**
+     * This method gives every pair body the straight line velocity to where computeDrift put it, so that
+     * the world step moves it there. Used by the float leapfrog step before pushing the velocities to
+     * Box2D.
+     * @param step the length of the world step
+     */
+    public void setLineVelocities(BodyRegistry bodies, float step) {
+        int movable = bodies.movableSize();
+        for (int k = 0; k < pairCount * 2; k++) {
+            int slot = (k & 1) == 0 ? pairA[k >> 1] : pairB[k >> 1];
+            if (slot >= movable) {
+                continue;
+            }
+            lineVx[k] = (float) ((targetX[k] - bodies.x[slot]) / step);
+            lineVy[k] = (float) ((targetY[k] - bodies.y[slot]) / step);
+            bodies.vx[slot] = lineVx[k];
+            bodies.vy[slot] = lineVy[k];
+        }
+    }
+
+    /**
+     * This method gives every pair body its real velocity back after the world step. A body whose line
+     * velocity was changed by Box2D hit something, so it keeps what Box2D gave it.
+     */
+    public void finishLineDrift(BodyRegistry bodies) {
+        int movable = bodies.movableSize();
+        for (int k = 0; k < pairCount * 2; k++) {
+            int slot = (k & 1) == 0 ? pairA[k >> 1] : pairB[k >> 1];
+            if (slot >= movable || bodies.vx[slot] != lineVx[k] || bodies.vy[slot] != lineVy[k]) {
+                continue;
+            }
+            bodies.vx[slot] = (float) targetVx[k];
+            bodies.vy[slot] = (float) targetVy[k];
+            bodies.preciseVx[slot] = bodies.vx[slot];
+            bodies.preciseVy[slot] = bodies.vy[slot];
+            bodies.get(slot).setLinearVelocity(bodies.vx[slot], bodies.vy[slot]);
+        }
+    }
+
+    private double getX(BodyRegistry bodies, int slot) {
+        return precise ? bodies.preciseX[slot] : bodies.x[slot];
+    }
+
+    private double getY(BodyRegistry bodies, int slot) {
+        return precise ? bodies.preciseY[slot] : bodies.y[slot];
+    }
+
+    private double getVx(BodyRegistry bodies, int slot) {
+        return precise ? bodies.preciseVx[slot] : bodies.vx[slot];
+    }
+
+    private double getVy(BodyRegistry bodies, int slot) {
+        return precise ? bodies.preciseVy[slot] : bodies.vy[slot];
+    }
+
+    private void addVelocity(BodyRegistry bodies, int slot, double dvx, double dvy) {
+        if (precise) {
+            bodies.preciseVx[slot] += dvx;
+            bodies.preciseVy[slot] += dvy;
+            bodies.vx[slot] = (float) bodies.preciseVx[slot];
+            bodies.vy[slot] = (float) bodies.preciseVy[slot];
+        } else {
+            bodies.vx[slot] += dvx;
+            bodies.vy[slot] += dvy;
+        }
+    }
+
+    /**
+     * Grows the pair arrays. The targets and line velocities only hold data during a step, so they are
+     * just replaced.
+     */
+    private void allocatePairs(int capacity) {
+        pairA = ArrayUtils.grow(pairA, capacity);
+        pairB = ArrayUtils.grow(pairB, capacity);
+        pairIdA = ArrayUtils.grow(pairIdA, capacity);
+        pairIdB = ArrayUtils.grow(pairIdB, capacity);
+        targetX = new double[capacity * 2];
+        targetY = new double[capacity * 2];
+        targetVx = new double[capacity * 2];
+        targetVy = new double[capacity * 2];
+        lineVx = new float[capacity * 2];
+        lineVy = new float[capacity * 2];
+    }
+}
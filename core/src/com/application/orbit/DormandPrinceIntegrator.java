@@ -0,0 +1,262 @@
+package com.application.orbit;
+
+/**
+ * This class predicts long paths with the Dormand-Prince method, an adaptive Runge Kutta method. Each
+ * step works out a 5th order and a 4th order result from the same seven acceleration calculations, and
+ * the difference between them is an estimate of the step's error. A step with too much error is thrown
+ * away and tried again shorter. After every step the next step size is picked from the error, so steps
+ * get long out in empty space and short close to heavy bodies, where the path bends the most. Fixed steps
+ * would need to be short everywhere to get the close passes right, so this gets much further on the same
+ * amount of work. The last acceleration of a step is the first one of the next, so a step costs six.
+ *
+ * The path is sampled every "interval" of time, no matter how long the steps are. Samples that fall
+ * inside a step are filled in with a cubic curve through the position and velocity at both ends.
+ *
+ * A prediction can be spread over many calls to advance, each doing a limited number of acceleration
+ * calculations, so a long path can be worked out a bit at a time without holding up a frame.
+ * Everything is in doubles, since the error estimates of a step are far below float precision.
+ */
+public class DormandPrinceIntegrator {
+
+    static final double POSITION_TOLERANCE = 1e-5; //the error allowed per step, in world units
+    static final double VELOCITY_TOLERANCE = 1e-5; //the error allowed per step, in world units per second
+    static final double MIN_STEP_FRACTION = 1e-7; //steps shorter than this times interval are always accepted
+    static final int STAGES = 7;
+
+    //the Dormand-Prince table. Row s has the weights of the earlier stages used to find stage s. The last
+    //row is also the 5th order result, and ERROR has the 5th order minus the 4th order weights
+    static final double[][] WEIGHTS = {
+            {},
+            {1 / 5.0},
+            {3 / 40.0, 9 / 40.0},
+            {44 / 45.0, -56 / 15.0, 32 / 9.0},
+            {19372 / 6561.0, -25360 / 2187.0, 64448 / 6561.0, -212 / 729.0},
+            {9017 / 3168.0, -355 / 33.0, 46732 / 5247.0, 49 / 176.0, -5103 / 18656.0},
+            {35 / 384.0, 0, 500 / 1113.0, 125 / 192.0, -2187 / 6784.0, 11 / 84.0}};
+    static final double[] ERROR = {71 / 57600.0, 0, -71 / 16695.0, 71 / 1920.0, -17253 / 339200.0,
+            22 / 525.0, -1 / 40.0};
+
+    int moving, count, tracked;
+    double[] x, y, vx, vy; //the state at the end of the last accepted step
+    double[] stageX, stageY; //the positions a stage's acceleration is worked out at
+    double[][] kx, ky; //the velocity at each stage
+    double[][] ax, ay; //the acceleration at each stage
+    boolean firstStageValid; //false until the acceleration at the starting state has been worked out
+
+    double time; //how far the accepted steps have got
+    double step; //the length of the next step to try
+    double interval; //the time between samples
+    int samples, samplesDone;
+    boolean finished;
+    int evaluations; //acceleration calculations since start
+
+    public DormandPrinceIntegrator() {
+        allocate(16);
+    }
+
+    /**
+     * This method sets up a new prediction. Nothing is worked out until advance is called.
+     * @param moving the number of bodies that move. They come first
+     * @param count the number of bodies. The rest only pull
+     * @param x body x positions. Copied
+     * @param y body y positions. Copied
+     * @param vx velocities of the moving bodies. Copied
+     * @param vy velocities of the moving bodies. Copied
+     * @param tracked the moving body whose path is sampled
+     * @param interval the time between samples
+     * @param samples the number of samples, including the start
+     */
+    public void start(int moving, int count, double[] x, double[] y, double[] vx, double[] vy, int tracked,
+                      double interval, int samples) {
+        if (this.x.length < count) {
+            allocate(count * 2);
+        }
+        this.moving = moving;
+        this.count = count;
+        this.tracked = tracked;
+        this.interval = interval;
+        this.samples = samples;
+        System.arraycopy(x, 0, this.x, 0, count);
+        System.arraycopy(y, 0, this.y, 0, count);
+        System.arraycopy(vx, 0, this.vx, 0, moving);
+        System.arraycopy(vy, 0, this.vy, 0, moving);
+        //the bodies that don't move sit in every stage at the same place
+        System.arraycopy(x, moving, stageX, moving, count - moving);
+        System.arraycopy(y, moving, stageY, moving, count - moving);
+        time = 0;
+        step = interval;
+        samplesDone = 0;
+        evaluations = 0;
+        firstStageValid = false;
+        finished = samples <= 1;
+    }
+
+    /**
+     * This method takes steps until the path is done or until the next step would go over maxEvaluations
+     * acceleration calculations. The samples worked out are added to pathX and pathY.
+     * @param field the pull on the bodies
+     * @param maxEvaluations the most acceleration calculations to do in this call. At least 7 are needed
+     *                       to get anywhere
+     * @param pathX gets the x position of the tracked body at each sample
+     * @param pathY gets the y position of the tracked body at each sample
+     * @return the number of samples done so far
+     */
+    public int advance(AccelerationField field, int maxEvaluations, float[] pathX, float[] pathY) {
+        int used = 0;
+        if (samplesDone == 0 && samples > 0) {
+            pathX[0] = (float) x[tracked];
+            pathY[0] = (float) y[tracked];
+            samplesDone = 1;
+        }
+        if (!finished && !firstStageValid && maxEvaluations > 0) {
+            System.arraycopy(x, 0, stageX, 0, moving);
+            System.arraycopy(y, 0, stageY, 0, moving);
+            System.arraycopy(vx, 0, kx[0], 0, moving);
+            System.arraycopy(vy, 0, ky[0], 0, moving);
+            field.computeAccelerations(moving, count, stageX, stageY, ax[0], ay[0]);
+            used++;
+            firstStageValid = true;
+        }
+
+        double end = (samples - 1) * interval;
+        double minStep = interval * MIN_STEP_FRACTION;
+        while (!finished && used + STAGES - 1 <= maxEvaluations) {
+            double h = Math.min(step, end - time);
+            if (h < minStep) {
+                //only rounding is left. the last samples are where the body is now
+                while (samplesDone < samples) {
+                    pathX[samplesDone] = (float) x[tracked];
+                    pathY[samplesDone] = (float) y[tracked];
+                    samplesDone++;
+                }
+                finished = true;
+                break;
+            }
+
+            for (int s = 1; s < STAGES; s++) {
+                computeStage(field, s, h);
+            }
+            used += STAGES - 1;
+
+            double error = 0;
+            double[] weights = ERROR;
+            for (int i = 0; i < moving; i++) {
+                double ex = 0, ey = 0, evx = 0, evy = 0;
+                for (int s = 0; s < STAGES; s++) {
+                    double w = weights[s];
+                    if (w != 0) {
+                        ex += w * kx[s][i];
+                        ey += w * ky[s][i];
+                        evx += w * ax[s][i];
+                        evy += w * ay[s][i];
+                    }
+                }
+                error = Math.max(error, Math.max(Math.abs(ex), Math.abs(ey)) * h / POSITION_TOLERANCE);
+                error = Math.max(error, Math.max(Math.abs(evx), Math.abs(evy)) * h / VELOCITY_TOLERANCE);
+            }
+
+            if (error <= 1 || h <= minStep) {
+                acceptStep(h, pathX, pathY);
+                if (samplesDone >= samples || field.hasCrashed(count, x, y)) {
+                    finished = true;
+                }
+            }
+
+            //the error of a 5th order step goes with h^5
+            double scale = error > 0 ? 0.9 * Math.pow(error, -0.2) : 5;
+            step = h * Math.max(0.2, Math.min(5, scale));
+        }
+        evaluations += used;
+        return samplesDone;
+    }
+
+    /**
+     * This method works out the state and acceleration of stage s from the stages before it
+     */
+    private void computeStage(AccelerationField field, int s, double h) {
+        double[] weights = WEIGHTS[s];
+        double[] velocityX = kx[s], velocityY = ky[s];
+        for (int i = 0; i < moving; i++) {
+            double sx = 0, sy = 0, svx = 0, svy = 0;
+            for (int j = 0; j < s; j++) {
+                double w = weights[j];
+                if (w != 0) {
+                    sx += w * kx[j][i];
+                    sy += w * ky[j][i];
+                    svx += w * ax[j][i];
+                    svy += w * ay[j][i];
+                }
+            }
+            stageX[i] = x[i] + h * sx;
+            stageY[i] = y[i] + h * sy;
+            velocityX[i] = vx[i] + h * svx;
+            velocityY[i] = vy[i] + h * svy;
+        }
+        field.computeAccelerations(moving, count, stageX, stageY, ax[s], ay[s]);
+    }
+
+    /**
+     * This method fills in the samples that fall inside the step, then moves the state to the end of the
+     * step. The last stage is the 5th order result, so it is the new state.
+     */
+    private void acceptStep(double h, float[] pathX, float[] pathY) {
+        int last = STAGES - 1;
+        double x0 = x[tracked], y0 = y[tracked], vx0 = vx[tracked], vy0 = vy[tracked];
+        double x1 = stageX[tracked], y1 = stageY[tracked], vx1 = kx[last][tracked], vy1 = ky[last][tracked];
+        double stepEnd = time + h * (1 + 1e-9);
+        while (samplesDone < samples && samplesDone * interval <= stepEnd) {
+            //cubic Hermite curve through both ends of the step
+            double t = (samplesDone * interval - time) / h;
+            double t2 = t * t, t3 = t2 * t;
+            double h00 = 2 * t3 - 3 * t2 + 1, h10 = t3 - 2 * t2 + t, h01 = 3 * t2 - 2 * t3, h11 = t3 - t2;
+            pathX[samplesDone] = (float) (h00 * x0 + h10 * h * vx0 + h01 * x1 + h11 * h * vx1);
+            pathY[samplesDone] = (float) (h00 * y0 + h10 * h * vy0 + h01 * y1 + h11 * h * vy1);
+            samplesDone++;
+        }
+
+        System.arraycopy(stageX, 0, x, 0, moving);
+        System.arraycopy(stageY, 0, y, 0, moving);
+        System.arraycopy(kx[last], 0, vx, 0, moving);
+        System.arraycopy(ky[last], 0, vy, 0, moving);
+        time += h;
+
+        //the last stage of this step is the first stage of the next one
+        swapFirstAndLast(kx);
+        swapFirstAndLast(ky);
+        swapFirstAndLast(ax);
+        swapFirstAndLast(ay);
+    }
+
+    private static void swapFirstAndLast(double[][] stages) {
+        double[] first = stages[0];
+        stages[0] = stages[STAGES - 1];
+        stages[STAGES - 1] = first;
+    }
+
+    /**
+     * @return true once every sample is done or the tracked body has crashed
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the number of acceleration calculations since start
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    private void allocate(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        stageX = new double[capacity];
+        stageY = new double[capacity];
+        kx = new double[STAGES][capacity];
+        ky = new double[STAGES][capacity];
+        ax = new double[STAGES][capacity];
+        ay = new double[STAGES][capacity];
+    }
+}
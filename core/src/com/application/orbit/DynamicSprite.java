@@ -3,7 +3,6 @@ package com.application.orbit;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.Shape;
@@ -17,7 +16,6 @@ public class DynamicSprite extends Sprite {
     BodyHighlight highlight;
     public enum Type {BODY, HIGHLIGHT}
     Type type;
-    boolean movable;
     String name;
 
     public static int bodyNum = 0;
@@ -31,8 +29,6 @@ public class DynamicSprite extends Sprite {
 
         this.type = Type.BODY;
 
-        setMovable(true);
-
     }
 
 
@@ -52,29 +48,6 @@ public class DynamicSprite extends Sprite {
 
         this.type = Type.BODY;
 
-        setMovable(true);
-
-    }
-
-
-    public boolean isMovable() {
-        return movable;
-    }
-
-    /**
-     * sets whether the body will be affected by gravity, if it will move from collisions, and whether
-     * it can be launched
-     * @param bool
-     */
-    public void setMovable(boolean bool) {
-        movable = bool;
-        if(physicsBody != null) {
-            if (bool) {
-                physicsBody.setLinearDamping(0);
-            } else {
-                physicsBody.setLinearDamping(10000000);
-            }
-        }
     }
 
     public void setName(String name) {
@@ -137,19 +110,22 @@ public class DynamicSprite extends Sprite {
 
     /**
      * This update method must be called in the render loop in the running screen class. It updates the sprite
-     * to match the properties of the body
+     * to match the properties of the body. The values come from the body registry so the sprite doesn't
+     * have to ask Box2D for them.
+     * @param x the body's center x
+     * @param y the body's center y
+     * @param radius the body's radius
+     * @param angle the body's angle in radians
      */
-    public void update() {
-        Vector2 position = getBody().getWorldCenter();
-        float radius = getShape().getRadius();
+    public void update(float x, float y, float radius, float angle) {
         setSize(radius * 2, radius * 2);
-        setPositionCenter(position.x, position.y);
+        setPositionCenter(x, y);
         setOrigin(getWidth() / 2, getHeight() / 2);
-        setRotation((float)Math.toDegrees(physicsBody.getAngle()));
+        setRotation((float)Math.toDegrees(angle));
 
         if (selected) {
             highlight.showHighlight(true);
-            highlight.update();
+            highlight.update(x, y, radius, angle);
         } else {
             highlight.showHighlight(false);
         }
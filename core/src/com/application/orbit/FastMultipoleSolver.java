@@ -0,0 +1,595 @@
+package com.application.orbit;
+
+/**
+ * This class approximates gravity with the fast multipole method (FMM). Like Barnes-Hut it builds a
+ * quadtree over the bodies, but instead of every body walking the tree, whole cells interact with
+ * whole cells. Each cell gets a multipole expansion (a description of the gravity of the bodies inside
+ * it, as seen from far away) and a local expansion (the gravity from far away bodies, as felt inside
+ * the cell). Two cells that are far enough apart turn one's multipole expansion into the other's local
+ * expansion, and the local expansions are then passed down the tree to the bodies. The number of cell
+ * interactions grows linearly with the number of bodies, so the cost of a step is O(n).
+ *
+ * Our gravity falls off like 1/r^2 (the potential is 1/r) even though the world is flat, so the usual
+ * complex number expansions for 2D don't apply. Instead the potential is expanded as a Taylor series
+ * in x and y around the center of each cell. The order sets how many terms are kept: higher orders are
+ * more accurate but every cell interaction costs more.
+ *
+ * The expansions are stored as doubles. The terms get very big or very small at high orders, which
+ * floats can't hold.
+ */
+public class FastMultipoleSolver implements GravitySolver {
+
+    static final int DEFAULT_ORDER = 4;
+    static final int MIN_ORDER = 1;
+    static final int MAX_ORDER = 8;
+    static final int LEAF_SIZE = 16; //a cell with more bodies than this is split
+    static final int MAX_DEPTH = 32; //bodies sitting on top of each other share a leaf once we get this deep
+    static final float SEPARATION = 0.5f; //two cells use expansions if (radius1 + radius2) < SEPARATION * distance
+
+    float gravityConstant; //G already scaled to world units
+    int order;
+
+    //every term of an expansion is x^tx * y^ty for some pair of exponents with tx + ty <= order
+    int terms;
+    int[][] termIndex; //[tx][ty] -> index of the term
+    int[] termX, termY;
+
+    //coefficients used when moving an expansion to a new center (M2M and L2L). For every pair of terms
+    //big >= small (in both exponents) the coefficient is C(big, small) and the monomial is big - small
+    int shiftCount;
+    int[] shiftBig, shiftSmall, shiftDiff;
+    double[] shiftCoefficient;
+
+    //coefficients used when turning a multipole into a local expansion (M2L). For every local term l and
+    //multipole term j with |l| + |j| <= order the coefficient is C(j + l, j) on derivative term j + l
+    int convertCount;
+    int[] convertLocal, convertMultipole, convertDerivative;
+    double[] convertCoefficient;
+    boolean[] convertOdd; //whether the derivative term is odd, which flips its sign when R is reversed
+
+    //node data. Node 0 is the root. The children of a node are stored next to each other
+    int nodeCount;
+    float[] nodeCenterX, nodeCenterY, nodeHalfSize, nodeRadius;
+    int[] nodeChild, nodeChildCount; //first child and number of children. 0 children means a leaf
+    int[] nodeStart, nodeSize; //range of sortedBodies that is inside the node
+    int[] nodeDepth;
+    double[] multipoles, locals; //terms values for each node
+
+    int[] sortedBodies, sortTemp; //body indices ordered so that every node's bodies are next to each other
+    int[] quadrantSize, quadrantStart, quadrantFill; //used while splitting a cell
+    int[] pairStack; //pairs of nodes still to be looked at
+
+    //scratch space
+    double[] derivatives, monomials, powX, powY;
+    float[] allAx, allAy;
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     */
+    public FastMultipoleSolver(float gravityConstant) {
+        this.gravityConstant = gravityConstant;
+        allocateNodes(64);
+        sortedBodies = new int[16];
+        sortTemp = new int[16];
+        quadrantSize = new int[4];
+        quadrantStart = new int[4];
+        quadrantFill = new int[4];
+        pairStack = new int[256];
+        allAx = new float[16];
+        allAy = new float[16];
+        setOrder(DEFAULT_ORDER);
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Sets how many terms the expansions keep. Each order makes the error roughly SEPARATION times
+     * smaller or better (MultipoleOrderCheck tests this) but makes cell interactions more expensive.
+     * @param order the expansion order, between MIN_ORDER and MAX_ORDER
+     */
+    public void setOrder(int order) {
+        order = Math.max(MIN_ORDER, Math.min(order, MAX_ORDER));
+        this.order = order;
+
+        terms = (order + 1) * (order + 2) / 2;
+        termIndex = new int[order + 1][order + 1];
+        termX = new int[terms];
+        termY = new int[terms];
+        int t = 0;
+        for (int n = 0; n <= order; n++) {
+            for (int tx = n; tx >= 0; tx--) {
+                int ty = n - tx;
+                termIndex[tx][ty] = t;
+                termX[t] = tx;
+                termY[t] = ty;
+                t++;
+            }
+        }
+
+        double[][] binomial = new double[2 * order + 1][2 * order + 1];
+        for (int n = 0; n <= 2 * order; n++) {
+            binomial[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                binomial[n][k] = binomial[n - 1][k - 1] + (k <= n - 1 ? binomial[n - 1][k] : 0);
+            }
+        }
+
+        shiftCount = 0;
+        for (int big = 0; big < terms; big++) {
+            for (int small = 0; small < terms; small++) {
+                if (termX[small] <= termX[big] && termY[small] <= termY[big]) {
+                    shiftCount++;
+                }
+            }
+        }
+        shiftBig = new int[shiftCount];
+        shiftSmall = new int[shiftCount];
+        shiftDiff = new int[shiftCount];
+        shiftCoefficient = new double[shiftCount];
+        int s = 0;
+        for (int big = 0; big < terms; big++) {
+            for (int small = 0; small < terms; small++) {
+                int dx = termX[big] - termX[small];
+                int dy = termY[big] - termY[small];
+                if (dx >= 0 && dy >= 0) {
+                    shiftBig[s] = big;
+                    shiftSmall[s] = small;
+                    shiftDiff[s] = termIndex[dx][dy];
+                    shiftCoefficient[s] = binomial[termX[big]][termX[small]] * binomial[termY[big]][termY[small]];
+                    s++;
+                }
+            }
+        }
+
+        convertCount = 0;
+        for (int l = 0; l < terms; l++) {
+            for (int j = 0; j < terms; j++) {
+                if (termX[l] + termY[l] + termX[j] + termY[j] <= order) {
+                    convertCount++;
+                }
+            }
+        }
+        convertLocal = new int[convertCount];
+        convertMultipole = new int[convertCount];
+        convertDerivative = new int[convertCount];
+        convertCoefficient = new double[convertCount];
+        convertOdd = new boolean[convertCount];
+        int c = 0;
+        for (int l = 0; l < terms; l++) {
+            for (int j = 0; j < terms; j++) {
+                int kx = termX[l] + termX[j];
+                int ky = termY[l] + termY[j];
+                if (kx + ky <= order) {
+                    convertLocal[c] = l;
+                    convertMultipole[c] = j;
+                    convertDerivative[c] = termIndex[kx][ky];
+                    convertCoefficient[c] = binomial[kx][termX[j]] * binomial[ky][termY[j]];
+                    convertOdd[c] = (kx + ky) % 2 == 1;
+                    c++;
+                }
+            }
+        }
+
+        derivatives = new double[terms];
+        monomials = new double[terms];
+        powX = new double[order + 1];
+        powY = new double[order + 1];
+        multipoles = new double[nodeCenterX.length * terms];
+        locals = new double[nodeCenterX.length * terms];
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        for (int i = 0; i < count; i++) {
+            ax[i] = 0;
+            ay[i] = 0;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        buildTree(count, x, y);
+        upwardPass(x, y, mass);
+        interactCells(x, y, mass, ax, ay);
+        downwardPass(x, y, ax, ay);
+
+        for (int i = 0; i < count; i++) {
+            ax[i] *= gravityConstant;
+            ay[i] *= gravityConstant;
+        }
+    }
+
+    /**
+     * The FMM gets its speed from cells sharing work, so there is no cheaper way to get only some of the
+     * bodies. Everyone is calculated and only the targets are copied out.
+     */
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                                     float[] ax, float[] ay) {
+        if (allAx.length < count) {
+            allAx = new float[count * 2];
+            allAy = new float[count * 2];
+        }
+        computeAccelerations(count, x, y, mass, allAx, allAy);
+        for (int t = 0; t < targetCount; t++) {
+            int i = targets[t];
+            ax[i] = allAx[i];
+            ay[i] = allAy[i];
+        }
+    }
+
+    /**
+     * Builds the quadtree. Cells with more than LEAF_SIZE bodies are split into their non-empty
+     * quadrants. The bodies of each cell are kept next to each other in sortedBodies.
+     */
+    void buildTree(int count, float[] x, float[] y) {
+        if (sortedBodies.length < count) {
+            sortedBodies = new int[count * 2];
+            sortTemp = new int[count * 2];
+        }
+
+        //find a square that holds every body
+        float minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 0; i < count; i++) {
+            sortedBodies[i] = i;
+            if (x[i] < minX) minX = x[i];
+            if (x[i] > maxX) maxX = x[i];
+            if (y[i] < minY) minY = y[i];
+            if (y[i] > maxY) maxY = y[i];
+        }
+        float halfSize = Math.max(maxX - minX, maxY - minY) / 2 * 1.001f + 0.001f;
+
+        nodeCount = 0;
+        createNode((minX + maxX) / 2, (minY + maxY) / 2, halfSize, 0, count, 0);
+
+        //children are always added after every node that already exists, so this visits every node
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodeSize[node] > LEAF_SIZE && nodeDepth[node] < MAX_DEPTH) {
+                split(node, x, y);
+            }
+        }
+    }
+
+    /**
+     * Sorts the bodies of a cell into its four quadrants and creates a child for every quadrant that
+     * isn't empty
+     */
+    private void split(int node, float[] x, float[] y) {
+        int start = nodeStart[node];
+        int size = nodeSize[node];
+        float cx = nodeCenterX[node];
+        float cy = nodeCenterY[node];
+
+        for (int q = 0; q < 4; q++) {
+            quadrantSize[q] = 0;
+        }
+        for (int k = start; k < start + size; k++) {
+            int b = sortedBodies[k];
+            quadrantSize[quadrant(cx, cy, x[b], y[b])]++;
+        }
+
+        int next = start;
+        for (int q = 0; q < 4; q++) {
+            quadrantStart[q] = next;
+            quadrantFill[q] = next;
+            next += quadrantSize[q];
+        }
+
+        for (int k = start; k < start + size; k++) {
+            int b = sortedBodies[k];
+            sortTemp[quadrantFill[quadrant(cx, cy, x[b], y[b])]++] = b;
+        }
+        System.arraycopy(sortTemp, start, sortedBodies, start, size);
+
+        float h = nodeHalfSize[node] / 2;
+        int depth = nodeDepth[node] + 1;
+        int first = nodeCount;
+        for (int q = 0; q < 4; q++) {
+            if (quadrantSize[q] > 0) {
+                //the order here has to match quadrant()
+                float childX = (q & 1) == 0 ? cx - h : cx + h;
+                float childY = (q & 2) == 0 ? cy - h : cy + h;
+                createNode(childX, childY, h, quadrantStart[q], quadrantSize[q], depth);
+            }
+        }
+        nodeChild[node] = first;
+        nodeChildCount[node] = nodeCount - first;
+    }
+
+    private int quadrant(float cx, float cy, float px, float py) {
+        int q = 0;
+        if (px >= cx) q += 1;
+        if (py >= cy) q += 2;
+        return q;
+    }
+
+    private int createNode(float cx, float cy, float halfSize, int start, int size, int depth) {
+        if (nodeCount == nodeChild.length) {
+            allocateNodes(nodeChild.length * 2);
+        }
+        int node = nodeCount++;
+        nodeCenterX[node] = cx;
+        nodeCenterY[node] = cy;
+        nodeHalfSize[node] = halfSize;
+        nodeStart[node] = start;
+        nodeSize[node] = size;
+        nodeDepth[node] = depth;
+        nodeChild[node] = -1;
+        nodeChildCount[node] = 0;
+        return node;
+    }
+
+    /**
+     * Grows the node arrays, keeping the nodes that are already there
+     */
+    private void allocateNodes(int capacity) {
+        nodeCenterX = ArrayUtils.grow(nodeCenterX, capacity);
+        nodeCenterY = ArrayUtils.grow(nodeCenterY, capacity);
+        nodeHalfSize = ArrayUtils.grow(nodeHalfSize, capacity);
+        nodeRadius = ArrayUtils.grow(nodeRadius, capacity);
+        nodeChild = ArrayUtils.grow(nodeChild, capacity);
+        nodeChildCount = ArrayUtils.grow(nodeChildCount, capacity);
+        nodeStart = ArrayUtils.grow(nodeStart, capacity);
+        nodeSize = ArrayUtils.grow(nodeSize, capacity);
+        nodeDepth = ArrayUtils.grow(nodeDepth, capacity);
+        if (terms > 0) {
+            multipoles = new double[capacity * terms];
+            locals = new double[capacity * terms];
+        }
+    }
+
+    /**
+     * Calculates the multipole expansion and radius of every cell, children before parents.
+     * Leaves add up their bodies (P2M), other cells shift their children's expansions to their own
+     * center (M2M).
+     */
+    private void upwardPass(float[] x, float[] y, float[] mass) {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int base = node * terms;
+            for (int t = 0; t < terms; t++) {
+                multipoles[base + t] = 0;
+                locals[base + t] = 0;
+            }
+            float cx = nodeCenterX[node];
+            float cy = nodeCenterY[node];
+            float radius = 0;
+
+            if (nodeChildCount[node] == 0) {
+                for (int k = nodeStart[node]; k < nodeStart[node] + nodeSize[node]; k++) {
+                    int b = sortedBodies[k];
+                    float dx = x[b] - cx;
+                    float dy = y[b] - cy;
+                    radius = Math.max(radius, (float) Math.sqrt(dx * dx + dy * dy));
+
+                    //M_j += m (-d)^j
+                    fillMonomials(-dx, -dy);
+                    for (int t = 0; t < terms; t++) {
+                        multipoles[base + t] += mass[b] * monomials[t];
+                    }
+                }
+            } else {
+                for (int c = nodeChild[node]; c < nodeChild[node] + nodeChildCount[node]; c++) {
+                    float dx = nodeCenterX[c] - cx;
+                    float dy = nodeCenterY[c] - cy;
+                    radius = Math.max(radius, (float) Math.sqrt(dx * dx + dy * dy) + nodeRadius[c]);
+
+                    //M_big += C(big, small) M'_small (-d)^(big - small)
+                    fillMonomials(-dx, -dy);
+                    int childBase = c * terms;
+                    for (int s = 0; s < shiftCount; s++) {
+                        multipoles[base + shiftBig[s]] += shiftCoefficient[s] * multipoles[childBase + shiftSmall[s]]
+                                * monomials[shiftDiff[s]];
+                    }
+                }
+            }
+            nodeRadius[node] = radius;
+        }
+    }
+
+    /**
+     * Walks pairs of cells starting from (root, root). Cells that are far enough apart exchange
+     * expansions (M2L). Leaves that are too close add up their bodies directly (P2P). Otherwise the
+     * bigger cell is split and its children are paired up with the other cell.
+     */
+    private void interactCells(float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        int top = 0;
+        pairStack[top++] = 0;
+        pairStack[top++] = 0;
+
+        while (top > 0) {
+            int b = pairStack[--top];
+            int a = pairStack[--top];
+
+            if (a == b) {
+                if (nodeChildCount[a] == 0) {
+                    directSelf(a, x, y, mass, ax, ay);
+                } else {
+                    int first = nodeChild[a];
+                    int last = first + nodeChildCount[a];
+                    for (int c1 = first; c1 < last; c1++) {
+                        for (int c2 = c1; c2 < last; c2++) {
+                            top = pushPair(top, c1, c2);
+                        }
+                    }
+                }
+                continue;
+            }
+
+            float dx = nodeCenterX[a] - nodeCenterX[b];
+            float dy = nodeCenterY[a] - nodeCenterY[b];
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            boolean aLeaf = nodeChildCount[a] == 0;
+            boolean bLeaf = nodeChildCount[b] == 0;
+
+            if (aLeaf && bLeaf && nodeSize[a] * nodeSize[b] <= terms * terms) {
+                //a few bodies are cheaper to add up than to convert expansions
+                directPair(a, b, x, y, mass, ax, ay);
+            } else if (nodeRadius[a] + nodeRadius[b] < SEPARATION * distance) {
+                convertMutual(a, b, dx, dy);
+            } else if (aLeaf && bLeaf) {
+                directPair(a, b, x, y, mass, ax, ay);
+            } else {
+                //split whichever cell is bigger (or the one that can be split)
+                int split = a, other = b;
+                if (aLeaf || (!bLeaf && nodeRadius[b] > nodeRadius[a])) {
+                    split = b;
+                    other = a;
+                }
+                for (int c = nodeChild[split]; c < nodeChild[split] + nodeChildCount[split]; c++) {
+                    top = pushPair(top, c, other);
+                }
+            }
+        }
+    }
+
+    private int pushPair(int top, int a, int b) {
+        if (top + 2 > pairStack.length) {
+            pairStack = ArrayUtils.grow(pairStack, pairStack.length * 2);
+        }
+        pairStack[top++] = a;
+        pairStack[top++] = b;
+        return top;
+    }
+
+    /**
+     * Turns the multipole expansion of b into part of the local expansion of a and the other way
+     * around (M2L). R = (dx, dy) points from the center of b to the center of a.
+     */
+    private void convertMutual(int a, int b, float dx, float dy) {
+        fillDerivatives(dx, dy);
+        int baseA = a * terms;
+        int baseB = b * terms;
+        for (int c = 0; c < convertCount; c++) {
+            double d = convertCoefficient[c] * derivatives[convertDerivative[c]];
+            locals[baseA + convertLocal[c]] += d * multipoles[baseB + convertMultipole[c]];
+            //reversing R flips the sign of the odd derivatives
+            if (convertOdd[c]) {
+                d = -d;
+            }
+            locals[baseB + convertLocal[c]] += d * multipoles[baseA + convertMultipole[c]];
+        }
+    }
+
+    /**
+     * Passes every local expansion down to the children (L2L), then adds the gradient of each leaf's
+     * local expansion to its bodies (L2P)
+     */
+    private void downwardPass(float[] x, float[] y, float[] ax, float[] ay) {
+        //parents are always before their children
+        for (int node = 0; node < nodeCount; node++) {
+            int base = node * terms;
+            float cx = nodeCenterX[node];
+            float cy = nodeCenterY[node];
+
+            if (nodeChildCount[node] > 0) {
+                for (int c = nodeChild[node]; c < nodeChild[node] + nodeChildCount[node]; c++) {
+                    //L'_small += C(big, small) L_big e^(big - small)
+                    fillMonomials(nodeCenterX[c] - cx, nodeCenterY[c] - cy);
+                    int childBase = c * terms;
+                    for (int s = 0; s < shiftCount; s++) {
+                        locals[childBase + shiftSmall[s]] += shiftCoefficient[s] * locals[base + shiftBig[s]]
+                                * monomials[shiftDiff[s]];
+                    }
+                }
+            } else {
+                for (int k = nodeStart[node]; k < nodeStart[node] + nodeSize[node]; k++) {
+                    int b = sortedBodies[k];
+                    fillMonomials(x[b] - cx, y[b] - cy);
+
+                    //the potential is sum L_l u^l, so the gradient is sum L_l (lx u^(l - x), ly u^(l - y))
+                    double gx = 0, gy = 0;
+                    for (int t = 0; t < terms; t++) {
+                        int tx = termX[t];
+                        int ty = termY[t];
+                        if (tx + ty == order) {
+                            continue;
+                        }
+                        gx += (tx + 1) * locals[base + termIndex[tx + 1][ty]] * monomials[t];
+                        gy += (ty + 1) * locals[base + termIndex[tx][ty + 1]] * monomials[t];
+                    }
+                    ax[b] += (float) gx;
+                    ay[b] += (float) gy;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the pull between every pair of bodies inside one leaf
+     */
+    private void directSelf(int node, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        int start = nodeStart[node];
+        int end = start + nodeSize[node];
+        for (int k1 = start; k1 < end; k1++) {
+            int i = sortedBodies[k1];
+            for (int k2 = k1 + 1; k2 < end; k2++) {
+                addPair(i, sortedBodies[k2], x, y, mass, ax, ay);
+            }
+        }
+    }
+
+    /**
+     * Adds the pull between every body in leaf a and every body in leaf b
+     */
+    private void directPair(int a, int b, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        for (int k1 = nodeStart[a]; k1 < nodeStart[a] + nodeSize[a]; k1++) {
+            int i = sortedBodies[k1];
+            for (int k2 = nodeStart[b]; k2 < nodeStart[b] + nodeSize[b]; k2++) {
+                addPair(i, sortedBodies[k2], x, y, mass, ax, ay);
+            }
+        }
+    }
+
+    private void addPair(int i, int j, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        float dx = x[j] - x[i];
+        float dy = y[j] - y[i];
+        float r2 = dx * dx + dy * dy;
+        if (r2 <= 0) {
+            return; //bodies on top of each other. there is no direction to pull in
+        }
+        float invR3 = 1 / (r2 * (float) Math.sqrt(r2));
+        ax[i] += mass[j] * invR3 * dx;
+        ay[i] += mass[j] * invR3 * dy;
+        ax[j] -= mass[i] * invR3 * dx;
+        ay[j] -= mass[i] * invR3 * dy;
+    }
+
+    /**
+     * Fills monomials[t] with dx^tx * dy^ty for every term
+     */
+    private void fillMonomials(double dx, double dy) {
+        powX[0] = 1;
+        powY[0] = 1;
+        for (int n = 1; n <= order; n++) {
+            powX[n] = powX[n - 1] * dx;
+            powY[n] = powY[n - 1] * dy;
+        }
+        for (int t = 0; t < terms; t++) {
+            monomials[t] = powX[termX[t]] * powY[termY[t]];
+        }
+    }
+
+    /**
+     * Fills derivatives[k] with the Taylor coefficients of 1/|R| (the k-th derivative divided by k!).
+     * These follow the recurrence
+     *     n |R|^2 b_k + (2n - 1) (Rx b_(k-x) + Ry b_(k-y)) + (n - 1) (b_(k-2x) + b_(k-2y)) = 0
+     * where n = kx + ky, starting from b_0 = 1/|R|.
+     */
+    private void fillDerivatives(double rx, double ry) {
+        double r2 = rx * rx + ry * ry;
+        derivatives[0] = 1 / Math.sqrt(r2);
+        for (int t = 1; t < terms; t++) {
+            int kx = termX[t];
+            int ky = termY[t];
+            int n = kx + ky;
+            double sum = 0;
+            if (kx >= 1) sum += (2 * n - 1) * rx * derivatives[termIndex[kx - 1][ky]];
+            if (ky >= 1) sum += (2 * n - 1) * ry * derivatives[termIndex[kx][ky - 1]];
+            if (kx >= 2) sum += (n - 1) * derivatives[termIndex[kx - 2][ky]];
+            if (ky >= 2) sum += (n - 1) * derivatives[termIndex[kx][ky - 2]];
+            derivatives[t] = -sum / (n * r2);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.application.orbit;
+
+/**
+ * A radix-2 fast Fourier transform for one fixed power-of-two size. The sine/cosine and bit reversal
+ * tables are built once in the constructor so a transform doesn't create any garbage. One Fft can be
+ * used from several threads at once since transform only reads the tables.
+ */
+final class Fft {
+
+    final int size;
+    final int[] bitReverse;
+    final float[] cos, sin; //cos(2 pi k / size) and sin(2 pi k / size) for k < size / 2
+
+    /**
+     * @param size the number of points. Must be a power of two
+     */
+    Fft(int size) {
+        this.size = size;
+
+        int bits = 0;
+        while ((1 << bits) < size) {
+            bits++;
+        }
+        bitReverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            int r = 0;
+            for (int b = 0; b < bits; b++) {
+                if ((i & (1 << b)) != 0) {
+                    r |= 1 << (bits - 1 - b);
+                }
+            }
+            bitReverse[i] = r;
+        }
+
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = 2 * Math.PI * k / size;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+    }
+
+    /**
+     * Transforms re + i im in place. The inverse transform isn't divided by size, so a forward and
+     * inverse transform multiply the data by size.
+     * @param re the real parts. Only the first size entries are used
+     * @param im the imaginary parts. Only the first size entries are used
+     * @param inverse true for the inverse transform
+     */
+    void transform(float[] re, float[] im, boolean inverse) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+
+        float sign = inverse ? 1 : -1;
+        for (int half = 1; half < size; half *= 2) {
+            int tableStep = size / (half * 2);
+            for (int start = 0; start < size; start += half * 2) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * tableStep];
+                    float wi = sign * sin[k * tableStep];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = wr * re[b] - wi * im[b];
+                    float ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
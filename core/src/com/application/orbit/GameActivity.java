@@ -7,6 +7,18 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 public class GameActivity extends Game {
 	public SpriteBatch batch;
 	public BitmapFont font;
+	TaskRunner taskRunner; //used to spread the physics across threads on platforms that allow it
+
+	public GameActivity() {
+		this(new SequentialTaskRunner());
+	}
+
+	/**
+	 * @param taskRunner a multi-threaded TaskRunner supplied by the platform launcher
+	 */
+	public GameActivity(TaskRunner taskRunner) {
+		this.taskRunner = taskRunner;
+	}
 	
 	@Override
 	public void create () {
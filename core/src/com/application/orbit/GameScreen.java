@@ -35,6 +35,11 @@ import java.util.ArrayList;
 public class GameScreen implements Screen, GestureDetector.GestureListener, InputProcessor {
     final GameActivity game;
     final float TIMESTEP = 1/60f;
+    static final int DEFAULT_PHYSICS_SUBSTEPS = 1;
+    static final int MAX_PHYSICS_SUBSTEPS = 8;
+    final float MAX_FRAME_TIME = 0.25f;
+    static final int MAX_TIME_WARP = 1000;
+    static final int MAX_WARP_STEPS = 240; //most physics steps taken in one frame while warping with bodies off rails
     final float STANDARD_MASS = 1000;
     final float STANDARD_DENSITY = 1f;
     final float FRICTION = 0;
@@ -49,27 +54,37 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
     final float WORLD_HEIGHT = 90;
     final float MAX_ZOOM = 10;
     final float MIN_ZOOM = 0.1f;
+    static final int DEFAULT_BELT_PARTICLES = 20000;
+    final float BELT_INNER_RADIUS = 2.5f; //asteroid belt edges, in radii of the body the belt goes around
+    final float BELT_OUTER_RADIUS = 5;
+    final float PARTICLE_SIZE = 0.3f; //width of a drawn test particle in world units at zoom 1
+    final float ORIGIN_SHIFT_DISTANCE = 1000; //the world is re-centred on the camera once it gets this far from the origin
     final String PLANET_SKIN_FILE = "gfx/planet_skins/planet_skins.pack";
 
     float screenWidth, screenHeight, worldWidth, worldHeight, hudHeight, hudWidth;
 
-    float timeStep;
+    float physicsStep; //the fixed amount of time the simulation advances by in one step
+    int physicsSubsteps; //how many physics steps fit in one TIMESTEP
+    int timeWarp; //how many times faster than real time the simulation runs
 
     OrthographicCamera camera;
     World world;
+    double originX, originY; //where the world's origin is in scene coordinates. Moves with the floating origin
     Box2DDebugRenderer debugRenderer;
     Body sun, planet;
-    ArrayList<Body> bodies, bodiesToDelete;
+    BodyRegistry bodies; //every body in the world, looked up by ID or by slot
+    TestParticles testParticles; //massless asteroids that feel gravity but don't have Box2D bodies
+    int beltParticles; //how many particles a new asteroid belt gets
+    ArrayList<Body> bodiesToDelete;
 
     boolean running, launching, pickingOrbit, chaseCamOn, addingBody, addingBodyMatrix;
     ArrayList<CircleShape> circles;
-    int selectedBody;
+    int selectedBody; //ID of the selected body in the bodies registry
     HUD hud;
     ExtendViewport hudViewport;
 
     SpriteBatch batch;
     Texture earth, bodyHighlight;
-    ArrayList<DynamicSprite> sprites;
 
     LaunchSimulation launchSimulation;
 
@@ -81,6 +96,33 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
     Preferences preferences;
 
+    public enum GravityMode {PAIRWISE, BARNES_HUT, FAST_MULTIPOLE, PARTICLE_MESH}
+    static final int MAX_GRAVITY_CHECK_BODIES = 5000; //bigger scenes aren't checked because exact gravity is O(n^2)
+    static final int SORT_INTERVAL = 120; //steps between sorting the bodies by position (see BodyRegistry.sortByPosition)
+    GravityMode gravityMode;
+    PairwiseGravitySolver pairwiseSolver;
+    ParallelPairwiseSolver parallelPairwiseSolver;
+    BarnesHutSolver barnesHutSolver;
+    FastMultipoleSolver fastMultipoleSolver;
+    ParticleMeshSolver particleMeshSolver;
+    LockedGravityField lockedField; //pull of the locked bodies, added on top of the solver
+    float[] exactAx, exactAy; //exact accelerations used to check the approximate solvers
+    int physicsThreads; //how many threads the gravity solvers are allowed to use
+    boolean accelerationsValid; //false when the accelerations in the registry are out of date
+    int sceneVersion; //goes up whenever bodies are added, removed or edited, so cached results can tell they are stale
+    int motionVersion; //goes up whenever the bodies move on their own (physics steps and jumps along their orbits)
+    BlockTimestepIntegrator blockIntegrator;
+    boolean blockTimesteps; //when true each body gets its own step size instead of everyone using physicsStep
+    PreciseIntegrator preciseIntegrator;
+    PrecisePairwiseSolver precisePairwiseSolver;
+    boolean doublePrecision; //when true the simulation runs on the registry's doubles instead of Box2D's floats
+    boolean preciseStateCurrent; //false when the last step only updated the floats, so the doubles are stale
+    WisdomHolmanIntegrator wisdomHolman;
+    boolean wisdomHolmanOn; //when true scenes dominated by one star are stepped with the Wisdom-Holman map
+    OnRailsPropagator onRails; //moves clean star systems forward analytically during time warp
+    CloseEncounterRegularizer encounters; //solves close pairs exactly inside the leapfrog steps
+    int stepsSinceSort;
+
 
     public GameScreen(final GameActivity game) {
         this.game = game;
@@ -103,26 +145,48 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         planetSkins = new TextureAtlas(PLANET_SKIN_FILE);
 
-        //create box2d world. Assign gravity 0 vector
-        world = new World(new Vector2(0, 0), true);
-        //define array lists for bodies and circles. Bodies holds all of the planets, suns, and asteroids.
-        bodies = new ArrayList<Body>();
+        //create box2d world. Assign gravity 0 vector. Sleeping is off, since Box2D would stop any body slower
+        //than its sleep speed (like a heavy sun drifting with the centre of mass)
+        world = new World(new Vector2(0, 0), false);
+
+        //exact pairwise gravity by default. Barnes-Hut can be turned on in settings for big scenes
+        gravityMode = GravityMode.PAIRWISE;
+        pairwiseSolver = new PairwiseGravitySolver(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR);
+        parallelPairwiseSolver = new ParallelPairwiseSolver(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR, game.taskRunner);
+        barnesHutSolver = new BarnesHutSolver(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR, game.taskRunner);
+        fastMultipoleSolver = new FastMultipoleSolver(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR);
+        particleMeshSolver = new ParticleMeshSolver(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR, game.taskRunner);
+        lockedField = new LockedGravityField(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR, game.taskRunner);
+        exactAx = new float[16];
+        exactAy = new float[16];
+        testParticles = new TestParticles(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR, game.taskRunner);
+        beltParticles = DEFAULT_BELT_PARTICLES;
+        setPhysicsThreads(1);
+        //define the body registry and the circles array list. Bodies holds all of the planets, suns, and asteroids.
+        bodies = new BodyRegistry();
+        blockIntegrator = new BlockTimestepIntegrator(this, bodies);
+        preciseIntegrator = new PreciseIntegrator(this, bodies);
+        precisePairwiseSolver = new PrecisePairwiseSolver(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR);
+        wisdomHolman = new WisdomHolmanIntegrator(this, bodies, GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR);
+        wisdomHolmanOn = true;
+        onRails = new OnRailsPropagator(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR);
+        encounters = new CloseEncounterRegularizer(GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR);
+        timeWarp = 1;
         //circles holds all of the circle shape objects we create that will later need to be disposed of
         circles = new ArrayList<CircleShape>();
 
         //holds all of the bodies scheduled for deletion in a given timestep
         bodiesToDelete = new ArrayList<Body>();
 
-        batch = new SpriteBatch();
+        batch = new SpriteBatch(8191); //the biggest batch allowed, so asteroid belts need fewer draw calls
         // We need a sprite since it's going to move
         earth = new Texture("gfx/earth-cartoon-md.png");
         bodyHighlight = new Texture("gfx/body_highlight.png");
-        sprites = new ArrayList<DynamicSprite>();
 
         //create initial bodies
         sun = createBody(100 * STANDARD_MASS, worldWidth / 2, worldHeight / 2);
 
-        getDynamicSprite(sun).setMovable(false);
+        setBodyMovable(sun, false);
 
         planet = createBody(STANDARD_MASS, sun.getWorldCenter().x + 100, worldHeight / 2);
 
@@ -160,7 +224,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         Gdx.input.setInputProcessor(im);
 
-        timeStep = TIMESTEP;
+        setPhysicsSubsteps(DEFAULT_PHYSICS_SUBSTEPS);
         //no body is currently selected. This is used for lots of functionality. e.g. launching and scaling
         setSelectedBody(-1);
 
@@ -178,19 +242,17 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
     }
 
     /**
-     * This method pauses the game by setting timestep = 0
+     * This method pauses the game. No physics steps are taken while running is false
      */
     public void pauseGame() {
         running = false;
-        timeStep = 0;
     }
 
     /**
-     * This method unpauses the game by changing the timestep back to TIMESTEP
+     * This method unpauses the game so physics steps are taken again
      */
     public void unpauseGame() {
         running = true;
-        timeStep = TIMESTEP;
     }
 
     /**
@@ -257,10 +319,10 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
     }
 
     /**
-     * This method centers the camera at 0,0
+     * This method centers the camera where it started, wherever the world origin has been moved to
      */
     public void centerCamera() {
-        centerCamera(camera.viewportWidth / 2, camera.viewportHeight / 2);
+        centerCamera((float) (camera.viewportWidth / 2 - originX), (float) (camera.viewportHeight / 2 - originY));
     }
 
     /**
@@ -281,6 +343,46 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
         camera.position.y = y;
     }
 
+    /**
+     * This method re-centres the world on the camera once the camera has moved ORIGIN_SHIFT_DISTANCE
+     * away from the origin. Floats have fewer digits left after the decimal point the bigger a number
+     * gets, so far from the origin Box2D positions and the camera transform get rounded enough to make
+     * sprites visibly jitter. Keeping the camera (and so everything on screen) near the origin avoids
+     * that.
+     */
+    private void updateFloatingOrigin() {
+        float shiftX = camera.position.x;
+        float shiftY = camera.position.y;
+        if (Math.abs(shiftX) < ORIGIN_SHIFT_DISTANCE && Math.abs(shiftY) < ORIGIN_SHIFT_DISTANCE) {
+            return;
+        }
+        shiftOrigin(shiftX, shiftY);
+    }
+
+    /**
+     * This method moves the world origin to (shiftX, shiftY). Every body, test particle and the camera
+     * are moved by (-shiftX, -shiftY) in one pass, so nothing moves relative to anything else. originX
+     * and originY keep track of the total shift so positions can be shown in scene coordinates.
+     * @param shiftX the x position of the new origin in the current world coordinates
+     * @param shiftY the y position of the new origin in the current world coordinates
+     */
+    public void shiftOrigin(float shiftX, float shiftY) {
+        originX += shiftX;
+        originY += shiftY;
+        bodies.shiftOrigin(shiftX, shiftY);
+        testParticles.shiftOrigin(shiftX, shiftY);
+        camera.position.x -= shiftX;
+        camera.position.y -= shiftY;
+        Vector2 releaseLocation = launchSimulation.getReleaseLocation();
+        if (releaseLocation != null) {
+            releaseLocation.sub(shiftX, shiftY);
+        }
+        launchSimulation.updateSimulation(); //the path is in world coordinates too
+
+        //the interaction lists compare positions with where bodies were when the lists were built
+        barnesHutSolver.invalidateInteractionLists();
+    }
+
     /**
      * This method resets the camera back to the original position and zoom (centered on the main sun with zoom = 1)
      */
@@ -333,7 +435,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
     }
 
     /**
-     * this method creates a new body and adds it to the bodies arraylist
+     * this method creates a new body and adds it to the bodies registry
      * @param mass
      * @param x x position
      * @param y y position
@@ -350,35 +452,29 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         sprite.createHighlight(bodyHighlight); //create the selection highlight
         sprite.setPosition(body.getPosition().x, body.getPosition().y);
-        sprites.add(sprite);
-
-        //attach the sprite to the body so it can be identified later
-        body.setUserData(sprite);
 
-        bodies.add(body);
+        //register the body. This stores the body's ID in its user data so it can be identified later
+        bodies.add(body, sprite);
+        invalidateAccelerations();
 
         return body;
     }
 
     /**
-     * This method deletes all of the bodies that are in queue for deletion. This method is called at
-     * the end of every frame. This is set up so that deleting bodies doesn't interfere with the
-     * physics of the simulation.
+     * This method deletes all of the bodies that are in queue for deletion. This method is called after
+     * every physics step and at the end of every frame. This is set up so that deleting bodies doesn't
+     * interfere with the physics of the simulation.
      */
     public void deleteScheduledBodies() {
         for(int i = bodiesToDelete.size() - 1; i >= 0; i--) {
             Body body = bodiesToDelete.get(i);
-            int bodyIndex = bodies.indexOf(body);
-            bodies.remove(body);
+            int bodyId = bodies.getId(body);
+            bodies.getSprite(bodyId).setAlpha(0);
+            bodies.remove(bodyId); //the selected body is stored by ID so it doesn't need to be shifted
             world.destroyBody(body);
-            sprites.get(bodyIndex).setAlpha(0);
-            sprites.remove(bodyIndex);
+            invalidateAccelerations();
 
             bodiesToDelete.remove(i);
-
-            if (isBodySelected() && bodyIndex < selectedBody) { //shift selected body index
-                selectedBody -= 1;
-            }
         }
     }
 
@@ -387,13 +483,13 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      * @param body The body to destroy
      */
     public void deleteBody(Body body) {
-        int bodyIndex = bodies.indexOf(body);
+        int bodyId = bodies.getId(body);
 
         //add the body to the queue for deletion (happens at the end of the frame/step)
         if(!bodiesToDelete.contains(body))  //don't add to the list if the body is already there
             bodiesToDelete.add(body);
 
-        if(bodyIndex == selectedBody) {
+        if(bodyId == selectedBody) {
             setSelectedBody(-1);
         }
 
@@ -404,11 +500,11 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
     }
 
     /**
-     * This method deletes a body given its index
-     * @param bodyIndex The index of the body to delete
+     * This method deletes a body given its ID
+     * @param bodyId The ID of the body to delete
      */
-    public void deleteBody(int bodyIndex) {
-        deleteBody(bodies.get(bodyIndex));
+    public void deleteBody(int bodyId) {
+        deleteBody(bodies.getBody(bodyId));
     }
 
     /**
@@ -426,12 +522,55 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      */
     public void deleteAllBodies() {
         for(int i = bodies.size() - 1; i >= 0; i--) {
-            deleteBody(i);
+            deleteBody(bodies.get(i));
         }
+        testParticles.clear();
         DynamicSprite.bodyNum = 0; //reset count for names
         setSelectedBody(-1);
     }
 
+    /**
+     * This method surrounds the selected body (or the first body if none is selected) with a ring of
+     * test particles. Every particle gets the speed for a circular orbit around that body, plus the
+     * body's own velocity.
+     */
+    public void createAsteroidBelt() {
+        int slot = isBodySelected() ? bodies.getSlot(selectedBody) : 0;
+        if (slot < 0 || slot >= bodies.size()) {
+            return;
+        }
+
+        float centerX = bodies.x[slot];
+        float centerY = bodies.y[slot];
+        float inner = bodies.radius[slot] * BELT_INNER_RADIUS;
+        float outer = bodies.radius[slot] * BELT_OUTER_RADIUS;
+        float gm = GRAVITY_CONSTANT * SIZE_ADJUSTMENT_FACTOR * bodies.mass[slot];
+
+        for (int i = 0; i < beltParticles; i++) {
+            //pick the radius so that particles are spread evenly over the area of the ring
+            float r = (float) Math.sqrt(inner * inner + Math.random() * (outer * outer - inner * inner));
+            float angle = (float) (Math.random() * 2 * Math.PI);
+            float cos = (float) Math.cos(angle);
+            float sin = (float) Math.sin(angle);
+            float speed = (float) Math.sqrt(gm / r);
+            if (!testParticles.add(centerX + r * cos, centerY + r * sin,
+                    bodies.vx[slot] - speed * sin, bodies.vy[slot] + speed * cos)) {
+                hud.messageOverlay.showTip("Too many asteroids");
+                break;
+            }
+        }
+
+        invalidateAccelerations();
+    }
+
+    public int getBeltParticles() {
+        return beltParticles;
+    }
+
+    public void setBeltParticles(int particles) {
+        beltParticles = particles;
+    }
+
     /**
      * This method creates an nxn matrix of bodies. All have mass "mass". The top-leftmost is located at (x,y)
      * @param mass
@@ -464,20 +603,26 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      * @param sun
      */
     private void orbit(Body planet, Body sun) {
-        float sun_mass = sun.getMass();
-        float distance = sun.getWorldCenter().dst(planet.getWorldCenter()) / SIZE_ADJUSTMENT_FACTOR;
+        //this is done in doubles using the registry's double positions so that the velocity is still
+        //accurate far from the origin (in double precision mode)
+        int planetSlot = bodies.getSlot(bodies.getId(planet));
+        int sunSlot = bodies.getSlot(bodies.getId(sun));
+        double sun_mass = getBodyMass(sun);
+        double rx = bodies.preciseX[sunSlot] - bodies.preciseX[planetSlot];
+        double ry = bodies.preciseY[sunSlot] - bodies.preciseY[planetSlot];
+        double r = Math.sqrt(rx * rx + ry * ry);
+        double distance = r / SIZE_ADJUSTMENT_FACTOR;
         //mv^2/r = G(m1)(m2)/r^2
-        float velocity_magnitude = (float)Math.sqrt(GRAVITY_CONSTANT * sun_mass / distance);
-
-        Vector2 r = sun.getWorldCenter().sub(planet.getWorldCenter());
-
-        Vector2 r_hat = r.nor();
+        double velocity_magnitude = Math.sqrt(GRAVITY_CONSTANT * sun_mass / distance);
 
-        Vector2 v_hat = r_hat.rotate90(-1);
+        //the velocity is r_hat rotated 90 degrees clockwise
+        double vx = ry / r * velocity_magnitude;
+        double vy = -rx / r * velocity_magnitude;
 
-        Vector2 velocity = v_hat.scl(velocity_magnitude);
-
-        planet.setLinearVelocity(velocity);
+        planet.setLinearVelocity((float) vx, (float) vy);
+        syncEditedBody(planet);
+        bodies.preciseVx[planetSlot] = vx;
+        bodies.preciseVy[planetSlot] = vy;
 
     }
 
@@ -529,8 +674,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      * @return
      */
     public DynamicSprite getDynamicSprite(Body body) {
-        int bodyIndex = bodies.indexOf(body);
-        return sprites.get(bodyIndex);
+        return bodies.getSprite(body); //constant time lookup using the ID stored in the body's user data
     }
 
 
@@ -547,12 +691,30 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
     /**
      * This method is used to set a body movable or not. If a body is movable, it can be
-     * launched and is affected by gravity and collisions. If not, it's the opposite.
+     * launched and is affected by gravity and collisions. If not, it's the opposite. Locked bodies
+     * are made static in Box2D so the world step doesn't integrate them at all, and their gravity
+     * is added by the locked field instead of the gravity solver.
      * @param bool true = movable
      * @param body the body to adjust movable property
      */
     public void setBodyMovable(Body body, boolean bool) {
-        getDynamicSprite(body).setMovable(bool);
+        bodies.setMovable(bodies.getId(body), bool);
+        if (bool) {
+            body.setType(BodyDef.BodyType.DynamicBody);
+        } else {
+            body.setType(BodyDef.BodyType.StaticBody);
+        }
+        syncEditedBody(body);
+    }
+
+    /**
+     * Returns the mass of a body. This should be used instead of Body.getMass() since Box2D says locked
+     * (static) bodies have no mass.
+     * @param body the body
+     * @return the body's mass
+     */
+    public float getBodyMass(Body body) {
+        return bodies.mass[bodies.getSlot(bodies.getId(body))];
     }
 
     /**
@@ -561,7 +723,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      * @return movable = true
      */
     public boolean isBodyMovable(Body body) {
-        return getDynamicSprite(body).isMovable();
+        return bodies.isMovable(bodies.getId(body));
     }
 
     /**
@@ -591,23 +753,31 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
         launchSimulation.doSimulation(getSelectedBody(), launchVector);
     }
 
+    /**
+     * This method shows where the selected body would go if it were released at releaseLocation. It is
+     * called every frame while the user drags, so it returns straight away if nothing the launch
+     * simulation depends on has changed since the last frame (see LaunchSimulation.isUpToDate).
+     * @param releaseLocation where the user's finger is, in world coordinates
+     */
     public void dragForLaunchSimulation(Vector2 releaseLocation) {
 
         Body body = getSelectedBody();
 
+        if (launchSimulation.isUpToDate(body, releaseLocation, sceneVersion, motionVersion)) {
+            return;
+        }
+
         launchSimulation.setReleaseLocation(new Vector2(releaseLocation.x, releaseLocation.y));
 
         Vector2 bodyLocation = body.getWorldCenter();
 
         Vector2 launchVector = new Vector2(releaseLocation).sub(bodyLocation); //create launch vector
 
-        Gdx.app.log("GameScreen", "launchVector = (" + launchVector.x + "," + launchVector.y + ")");
-
         launchVector.scl(-1); //invert it so that the body launches away from the direction pulled. It's like pulling back a slingshot
 
-        if(body.getMass() > STANDARD_MASS) {
+        if(getBodyMass(body) > STANDARD_MASS) {
             // scale the acceleration so that bigger bodies have lower accelerations for the same pull
-            float scaleFactor = (float)(Math.pow(STANDARD_MASS/body.getMass(), 1/7.0));
+            float scaleFactor = (float)(Math.pow(STANDARD_MASS/getBodyMass(body), 1/7.0));
             launchVector.scl(scaleFactor);
         }
 
@@ -639,7 +809,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      */
     public void changeBodyMass(Body body, float deltaMass) {
 
-        float mass = body.getMass();
+        float mass = getBodyMass(body);
 
         mass = mass + deltaMass; //adjust mass
 
@@ -674,43 +844,315 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         //reset mass data of the body so that changes can take effect
         body.resetMassData();
+        bodies.setMass(bodies.getId(body), mass, (float) radius);
+        invalidateAccelerations();
+    }
+
+    /**
+     * This method must be called after a body's position or velocity has been changed directly in Box2D
+     * (e.g. by a launch or the body properties window). It copies the new state into the body registry.
+     * @param body the edited body
+     */
+    public void syncEditedBody(Body body) {
+        bodies.pull(body);
+        invalidateAccelerations();
+    }
+
+    /**
+     * Marks the gravity accelerations as out of date so that they are recalculated before the next step.
+     * This is called whenever bodies are added, removed, edited or resized, so the Barnes-Hut interaction
+     * lists are thrown out as well, and the scene version goes up.
+     */
+    public void invalidateAccelerations() {
+        accelerationsValid = false;
+        sceneVersion++;
+        barnesHutSolver.invalidateInteractionLists();
     }
 
 
     private float accumulator = 0;
 
     /**
-     * This method advances the world by TIMESTEP. It adjusts for lag.
+     * This method advances the simulation by however many fixed physics steps fit in the elapsed time.
+     * Left over time is carried to the next frame, so the simulation runs at the same speed no matter
+     * how fast frames are drawn.
+     *
+     * With time warp on, the elapsed time is multiplied by timeWarp. If every body is on a clean orbit
+     * around one star, the whole scene is moved along its orbits in one jump (see OnRailsPropagator), so
+     * warping costs about the same as running at normal speed. Otherwise the steps are taken as usual, but
+     * no more than MAX_WARP_STEPS per frame, so the warp slows down instead of freezing the game.
+     *
+     * When the Wisdom-Holman integrator is used, up to WisdomHolmanIntegrator.STEP_MULTIPLE of the
+     * waiting steps are taken as one longer step, since its step size isn't limited by the orbits around
+     * the star. Test particles are stepped with leapfrog, so this is only done when there are none.
      * @param deltaTime time elapsed since last call
      */
     private void doPhysicsStep(float deltaTime) {
         // fixed time step
         // max frame time to avoid spiral of death (on slow devices)
-        float frameTime = Math.min(deltaTime, 0.25f);
-        accumulator += frameTime;
-        while (accumulator >= TIMESTEP) {
-            world.step(TIMESTEP, 6, 2);
-            accumulator -= TIMESTEP;
+        float frameTime = Math.min(deltaTime, MAX_FRAME_TIME);
+        if (timeWarp > 1 && propagateOnRails(frameTime * timeWarp)) {
+            return;
+        }
+        accumulator += frameTime * timeWarp;
+        if (timeWarp > 1) {
+            accumulator = Math.min(accumulator, MAX_WARP_STEPS * physicsStep);
         }
+        while (accumulator >= physicsStep) {
+            int steps = 1;
+            if (wisdomHolmanOn && testParticles.size() == 0) {
+                steps = Math.max(1, Math.min((int) (accumulator / physicsStep), WisdomHolmanIntegrator.STEP_MULTIPLE));
+            }
+            int star = wisdomHolmanOn ? wisdomHolman.findStar(physicsStep * steps, preciseStateCurrent) : -1;
+            if (star < 0) {
+                steps = 1;
+            }
+            stepSimulation(physicsStep * steps, star);
+            accumulator -= physicsStep * steps;
+        }
+    }
+
+    /**
+     * This method moves the whole scene along its Kepler orbits if every body and test particle is on
+     * rails around a dominant body
+     * @param time the amount of time to move by
+     * @return false if something is off rails. Nothing is moved in that case
+     */
+    private boolean propagateOnRails(float time) {
+        int star = wisdomHolman.findDominantBody();
+        if (star < 0) {
+            return false;
+        }
+        if (!preciseStateCurrent) {
+            bodies.copyToPrecise();
+            preciseStateCurrent = true;
+        }
+        if (!onRails.canPropagate(bodies, testParticles, star)
+                || !onRails.propagate(bodies, testParticles, star, time)) {
+            return false;
+        }
+        accumulator = 0;
+        //the bodies moved, but nothing about them was edited, so the scene version stays
+        accelerationsValid = false;
+        barnesHutSolver.invalidateInteractionLists();
+        motionVersion++;
+        return true;
+    }
+
+    /**
+     * This method advances the simulation by one fixed step using the leapfrog (kick-drift-kick)
+     * integrator. Unlike Box2D's own integration, leapfrog doesn't slowly gain or lose energy, so
+     * orbits stay closed over long runs.
+     *
+     * kick: every velocity gets half a step of gravity
+     * drift: Box2D moves the bodies with those velocities and resolves any collisions. There are no
+     *        forces in Box2D, so its step is exactly the leapfrog drift
+     * kick: gravity is recalculated at the new positions and the other half step is added
+     *
+     * The accelerations from the end of one step are reused at the start of the next, so gravity is
+     * only calculated once per step.
+     *
+     * When block timesteps are on, the BlockTimestepIntegrator does the same thing but lets bodies in
+     * close encounters take several smaller steps inside this one. In double precision mode the
+     * PreciseIntegrator does the same thing on the registry's doubles instead. When one body holds most
+     * of the mass of a small scene the WisdomHolmanIntegrator is used instead of all of these, since it
+     * follows the orbits around that body exactly. It isn't used while two other bodies are in a close
+     * encounter, since it can't regularize them (see WisdomHolmanIntegrator.findStar).
+     *
+     * Pairs of bodies in a close encounter drift along their two body orbit instead of in a straight
+     * line, and the kicks leave out their pull on each other (see CloseEncounterRegularizer). That keeps
+     * tight binaries and close flybys accurate without making the step smaller. This is only done with
+     * exact gravity (see findEncounterPairs).
+     *
+     * Test particles take the same kick-drift-kick step. They don't pull on the bodies, so they can be
+     * kicked and drifted before the bodies move and given their second kick afterwards.
+     *
+     * Every SORT_INTERVAL steps the bodies are sorted by position so that nearby bodies sit next to each
+     * other in memory. The accelerations are sorted along with them, so they stay valid.
+     * @param step the amount of time to advance by
+     * @param star the slot of the star to use the Wisdom-Holman integrator around, or -1 to not use it
+     */
+    private void stepSimulation(float step, int star) {
+        motionVersion++; //every step moves the bodies
+
+        if (++stepsSinceSort >= SORT_INTERVAL) {
+            stepsSinceSort = 0;
+            bodies.sortByPosition();
+            barnesHutSolver.invalidateInteractionLists(); //the lists are stored by slot
+        }
+
+        if (!accelerationsValid) {
+            //the Wisdom-Holman step doesn't use the registry's accelerations
+            if (star < 0) {
+                computeGravity();
+            }
+            testParticles.computeAccelerations(bodies);
+        }
+
+        testParticles.kick(step / 2);
+        testParticles.drift(step);
+
+        if (star >= 0 || doublePrecision) {
+            //the double integrators carry on from the doubles, so they need to be caught up after a float step
+            if (!preciseStateCurrent) {
+                bodies.copyToPrecise();
+                preciseStateCurrent = true;
+            }
+            if (star >= 0) {
+                //no close pairs apart from ones with the star, which the Kepler drift already handles
+                wisdomHolman.step(step, star);
+            } else {
+                preciseIntegrator.step(step);
+            }
+        } else if (blockTimesteps) {
+            preciseStateCurrent = false;
+            blockIntegrator.step(step);
+        } else {
+            preciseStateCurrent = false;
+            findEncounterPairs(step, false);
+            bodies.kick(step / 2);
+            encounters.kickPairs(bodies, -step / 2);
+            encounters.computeDrift(bodies, step);
+            encounters.setLineVelocities(bodies, step);
+            bodies.pushVelocities();
+
+            world.step(step, 6, 2);
+
+            bodies.pullFromWorld(); //copy the new positions and velocities (after collisions) into the registry
+            encounters.finishLineDrift(bodies);
+
+            //bodies absorbed in a collision are removed right away so they don't take part in the next step
+            deleteScheduledBodies();
+            encounters.updateSlots(bodies);
+
+            computeGravity();
+            bodies.kick(step / 2);
+            encounters.kickPairs(bodies, -step / 2);
+        }
+
+        testParticles.computeAccelerations(bodies);
+        testParticles.kick(step / 2);
+        testParticles.removeAbsorbed(); //particles that hit a body disappear
+    }
+
+    public boolean isBlockTimestepsOn() {
+        return blockTimesteps;
+    }
+
+    /**
+     * Turns hierarchical block timesteps on or off. With them on, bodies in close encounters take
+     * smaller steps while the rest of the scene keeps using physicsStep.
+     * @param bool true to turn block timesteps on
+     */
+    public void setBlockTimestepsOn(boolean bool) {
+        if (bool && !blockTimesteps) {
+            blockIntegrator.resetLevels();
+        }
+        blockTimesteps = bool;
+    }
+
+    public boolean isDoublePrecisionOn() {
+        return doublePrecision;
+    }
+
+    /**
+     * Turns double precision mode on or off. In double precision mode positions, velocities and exact
+     * gravity are worked out in doubles, which keeps orbits stable far from the origin but costs more
+     * per step (see PreciseIntegrator). Block timesteps aren't used while it is on.
+     * @param bool true to simulate in double precision
+     */
+    public void setDoublePrecisionOn(boolean bool) {
+        doublePrecision = bool;
+        invalidateAccelerations();
+    }
+
+    public boolean isWisdomHolmanOn() {
+        return wisdomHolmanOn;
+    }
+
+    /**
+     * Turns the Wisdom-Holman integrator on or off. When it is on it is used automatically whenever one
+     * body holds most of the mass (see WisdomHolmanIntegrator), and the other integrators are used for
+     * every other scene.
+     * @param bool true to allow the Wisdom-Holman integrator
+     */
+    public void setWisdomHolmanOn(boolean bool) {
+        wisdomHolmanOn = bool;
+        invalidateAccelerations();
+    }
+
+    /**
+     * This method picks the close pairs for the next leapfrog step (see CloseEncounterRegularizer). The
+     * kicks take the exact pull between a pair's bodies back out, which only cancels what the gravity mode
+     * put in when gravity is exact. In the other modes there are no pairs and every body is kicked and
+     * drifted normally.
+     * @param step the length of the step
+     * @param precise true to work on the registry's doubles (double precision mode)
+     */
+    void findEncounterPairs(float step, boolean precise) {
+        if (gravityMode == GravityMode.PAIRWISE) {
+            encounters.findPairs(bodies, step, precise);
+        } else {
+            encounters.clearPairs();
+        }
+    }
 
+    public boolean isEncounterRegularizationOn() {
+        return encounters.isEnabled();
+    }
+
+    /**
+     * Turns close encounter regularization on or off (see CloseEncounterRegularizer). It only has an effect
+     * with exact gravity (see findEncounterPairs)
+     * @param bool true to solve close pairs exactly
+     */
+    public void setEncounterRegularizationOn(boolean bool) {
+        encounters.setEnabled(bool);
+    }
+
+    public int getTimeWarp() {
+        return timeWarp;
+    }
+
+    /**
+     * Sets how many times faster than real time the simulation runs
+     * @param warp the speed up, from 1 to MAX_TIME_WARP
+     */
+    public void setTimeWarp(int warp) {
+        timeWarp = Math.max(1, Math.min(warp, MAX_TIME_WARP));
+    }
+
+    public int getPhysicsSubsteps() {
+        return physicsSubsteps;
+    }
+
+    /**
+     * Sets how many physics steps are taken per TIMESTEP. More steps make orbits more accurate but
+     * cost more per frame.
+     * @param substeps number of steps per TIMESTEP
+     */
+    public void setPhysicsSubsteps(int substeps) {
+        substeps = Math.max(1, Math.min(substeps, MAX_PHYSICS_SUBSTEPS));
+        physicsSubsteps = substeps;
+        physicsStep = TIMESTEP / substeps;
     }
 
     /**
      * This method selects a body so that it can be launched, scaled in size, followed with the camera, or given an orbit.
-     * @param bodyIndex the index corresponding to the body in the bodies arraylist. -1 = no body selected
+     * @param bodyId the ID of the body in the bodies registry. -1 = no body selected
      */
-    public void setSelectedBody(int bodyIndex) {
-        if(selectedBody >= 0)
-            sprites.get(selectedBody).setSelected(false);
+    public void setSelectedBody(int bodyId) {
+        if(bodies.contains(selectedBody))
+            bodies.getSprite(selectedBody).setSelected(false);
 
-        selectedBody = bodyIndex;
+        selectedBody = bodyId;
 
         if(selectedBody >= 0) {
-            float mass = getSelectedBody().getMass();
+            float mass = getBodyMass(getSelectedBody());
             float radius = getCircleRadius(mass);
             hud.scaleSlider.setDisabled(false);
             hud.scaleSlider.setValue(radius);
-            sprites.get(selectedBody).setSelected(true);
+            bodies.getSprite(selectedBody).setSelected(true);
             hud.bodyInfoWindow.fillInfo(getDynamicSprite(getSelectedBody()));
             hud.messageOverlay.showBodyName(getDynamicSprite(getSelectedBody()).getName());
 
@@ -729,12 +1171,10 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      * @return
      */
     public Body getSelectedBody() {
-        try {
-            return bodies.get(selectedBody);
-        } catch (IndexOutOfBoundsException ex) {
-            ex.printStackTrace();
+        if(!bodies.contains(selectedBody)) {
             return null;
         }
+        return bodies.getBody(selectedBody);
     }
 
     /**
@@ -743,7 +1183,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
      */
     private void setLaunching(boolean bool) {
         launching = bool;
-        if(bool && !getDynamicSprite(getSelectedBody()).isMovable()) {
+        if(bool && !isSelectedBodyMovable()) {
             hud.messageOverlay.showTip(hud.getSelectedBodyName() + " is locked. Unlock to launch");
         }
         if(!bool && !hud.isMenuOpen())
@@ -789,27 +1229,225 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
     }
 
     /**
-     * This method applies gravity the gravity from body1 to body2. It uses newton's law with G = 1.
-     * @param body1
-     * @param body2
+     * This method calculates the gravitational acceleration of every movable body using the current
+     * gravity mode. The solver reads the positions and masses in the body registry and writes the
+     * accelerations back into it, so Box2D isn't touched at all. The solver only sees the movable bodies
+     * (slots 0..movableSize()-1). The pull of the locked bodies is added on top by the locked field.
+     */
+    void computeGravity() {
+        int movable = bodies.movableSize();
+        if (doublePrecision && gravityMode == GravityMode.PAIRWISE) {
+            //exact gravity in double precision mode works on the doubles and includes the locked bodies
+            precisePairwiseSolver.computeAccelerations(movable, bodies.size(), bodies.preciseX, bodies.preciseY,
+                    bodies.mass, bodies.ax, bodies.ay);
+            accelerationsValid = true;
+            return;
+        }
+        getGravitySolver().computeAccelerations(movable, bodies.x, bodies.y, bodies.mass, bodies.ax, bodies.ay);
+        lockedField.addAccelerations(bodies);
+        accelerationsValid = true;
+    }
+
+    /**
+     * This method calculates the gravitational acceleration of only the given bodies. Every body still
+     * pulls on them. Used by block timesteps, where only the bodies finishing a step need new gravity.
+     * @param slots the slots of the movable bodies to update
+     * @param count the number of entries used in slots
+     */
+    void computeGravity(int[] slots, int count) {
+        int movable = bodies.movableSize();
+        if (count == movable) {
+            //every body is updating, so use the full calculation which can share work between pairs
+            computeGravity();
+            return;
+        }
+        getGravitySolver().computeAccelerations(movable, bodies.x, bodies.y, bodies.mass, slots, count,
+                bodies.ax, bodies.ay);
+        lockedField.addAccelerations(bodies, slots, count);
+    }
+
+    /**
+     * @return the solver for the current gravity mode and thread count
+     */
+    private GravitySolver getGravitySolver() {
+        if (gravityMode == GravityMode.BARNES_HUT) {
+            return barnesHutSolver;
+        } else if (gravityMode == GravityMode.FAST_MULTIPOLE) {
+            return fastMultipoleSolver;
+        } else if (gravityMode == GravityMode.PARTICLE_MESH) {
+            return particleMeshSolver;
+        } else if (physicsThreads > 1) {
+            return parallelPairwiseSolver;
+        } else {
+            return pairwiseSolver;
+        }
+    }
+
+    public GravityMode getGravityMode() {
+        return gravityMode;
+    }
+
+    /**
+     * Sets how gravity is calculated. PAIRWISE is exact, BARNES_HUT and FAST_MULTIPOLE approximate far
+     * away groups of bodies so that big scenes can run in real time. PARTICLE_MESH solves gravity on a
+     * grid, which is fastest for huge scenes with smoothly spread out mass. Approximate modes are
+     * checked against exact gravity when they are turned on.
+     * @param mode the gravity mode
+     */
+    public void setGravityMode(GravityMode mode) {
+        gravityMode = mode;
+        invalidateAccelerations();
+        if (mode != GravityMode.PAIRWISE) {
+            logGravityError();
+        }
+    }
+
+    public int getMultipoleOrder() {
+        return fastMultipoleSolver.getOrder();
+    }
+
+    /**
+     * Sets the expansion order of the fast multipole solver. Higher is more accurate, lower is faster.
+     * @param order the expansion order
+     */
+    public void setMultipoleOrder(int order) {
+        if (order == fastMultipoleSolver.getOrder()) {
+            return;
+        }
+        fastMultipoleSolver.setOrder(order);
+        invalidateAccelerations();
+        if (gravityMode == GravityMode.FAST_MULTIPOLE) {
+            logGravityError();
+        }
+    }
+
+    public int getMeshSize() {
+        return particleMeshSolver.getGridSize();
+    }
+
+    /**
+     * Sets the resolution of the particle-mesh grid. Finer grids resolve closer bodies but cost more.
+     * @param size cells along each side of the grid (rounded up to a power of two)
+     */
+    public void setMeshSize(int size) {
+        if (size == particleMeshSolver.getGridSize()) {
+            return;
+        }
+        particleMeshSolver.setGridSize(size);
+        invalidateAccelerations();
+        if (gravityMode == GravityMode.PARTICLE_MESH) {
+            logGravityError();
+        }
+    }
+
+    public float getMeshPadding() {
+        return particleMeshSolver.getPadding();
+    }
+
+    /**
+     * Sets how much empty space the particle-mesh grid leaves around the bodies
+     * @param padding space on each side as a fraction of the size of the scene
      */
-    public void applyGravityBetweenBodies(Body body1, Body body2) {
-        float m1 = body1.getMass();
-        float m2 = body2.getMass();
-        Vector2 r = body1.getWorldCenter().sub(body2.getWorldCenter());
+    public void setMeshPadding(float padding) {
+        particleMeshSolver.setPadding(padding);
+        invalidateAccelerations();
+    }
 
-        //get r magnitude. It is important to get this before getting r_hat because calling r.nor() will actually normalize the r vector, not just return r_hat
-        float r_mag = r.len() / (float)Math.sqrt(SIZE_ADJUSTMENT_FACTOR);
+    /**
+     * This method checks the current gravity mode against exact gravity (the sum over every pair, done by
+     * the pairwise solver) on the current scene and logs the relative error of the accelerations. The RMS
+     * error is taken over all movable bodies and the max error is the worst single body.
+     */
+    public void logGravityError() {
+        int count = bodies.size();
+        int movable = bodies.movableSize();
+        if (count < 2 || count > MAX_GRAVITY_CHECK_BODIES) {
+            return;
+        }
+        if (exactAx.length < count) {
+            exactAx = new float[count * 2];
+            exactAy = new float[count * 2];
+        }
 
-        //get r unit vector
-        Vector2 r_hat = r.nor();
+        pairwiseSolver.computeAccelerations(count, bodies.x, bodies.y, bodies.mass, exactAx, exactAy);
+        computeGravity();
+
+        double errorSum = 0, exactSum = 0, maxError = 0;
+        for (int i = 0; i < movable; i++) {
+            double dx = bodies.ax[i] - exactAx[i];
+            double dy = bodies.ay[i] - exactAy[i];
+            double error2 = dx * dx + dy * dy;
+            double exact2 = exactAx[i] * exactAx[i] + exactAy[i] * exactAy[i];
+            errorSum += error2;
+            exactSum += exact2;
+            if (exact2 > 0) {
+                maxError = Math.max(maxError, Math.sqrt(error2 / exact2));
+            }
+        }
+        double rmsError = exactSum > 0 ? Math.sqrt(errorSum / exactSum) : 0;
 
-        //F = G(m1)(m2) / ||r||^2 * r_hat
-        Vector2 f = r_hat.scl((float)(GRAVITY_CONSTANT * m1 * m2 / Math.pow(r_mag, 2)));
+        Gdx.app.log("GameScreen", gravityMode + " gravity error over " + movable + " bodies: rms = " + rmsError
+                + ", max = " + maxError);
+    }
 
-        //apply the force to body2
-        body2.applyForceToCenter(f.x, f.y, true);
+    /**
+     * This method runs MultipoleOrderCheck, which sweeps the fast multipole solver through every expansion
+     * order on a fixed scene, and logs the errors and whether they fell as fast as they should.
+     */
+    public void logMultipoleOrderCheck() {
+        MultipoleOrderCheck check = new MultipoleOrderCheck();
+        check.run();
+        Gdx.app.log("GameScreen", "Fast multipole order check:\n" + check.getReport());
+    }
+
+    /**
+     * Sets the Barnes-Hut opening angle. Smaller is more accurate, bigger is faster.
+     * @param angle theta
+     */
+    public void setBarnesHutOpeningAngle(float angle) {
+        barnesHutSolver.setOpeningAngle(angle);
+    }
+
+    public float getBarnesHutOpeningAngle() {
+        return barnesHutSolver.getOpeningAngle();
+    }
 
+    public int getBarnesHutReuseSteps() {
+        return barnesHutSolver.getReuseSteps();
+    }
+
+    /**
+     * Sets how many steps the Barnes-Hut interaction lists are reused for before the tree is rebuilt
+     * @param steps the number of steps. 1 rebuilds the tree every step
+     */
+    public void setBarnesHutReuseSteps(int steps) {
+        barnesHutSolver.setReuseSteps(steps);
+    }
+
+    /**
+     * @return the most physics threads this platform supports
+     */
+    public int getMaxPhysicsThreads() {
+        return game.taskRunner.getMaxThreads();
+    }
+
+    public int getPhysicsThreads() {
+        return physicsThreads;
+    }
+
+    /**
+     * Sets how many threads the gravity calculation is split across. Results are exactly the same
+     * from step to step for a given thread count.
+     * @param threads the number of threads
+     */
+    public void setPhysicsThreads(int threads) {
+        threads = Math.max(1, Math.min(threads, getMaxPhysicsThreads()));
+        physicsThreads = threads;
+        parallelPairwiseSolver.setThreadCount(threads);
+        barnesHutSolver.setThreadCount(threads);
+        particleMeshSolver.setThreadCount(threads);
+        testParticles.setThreadCount(threads);
+        lockedField.setThreadCount(threads);
     }
 
     /**
@@ -880,26 +1518,17 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
 
         //make camera follow selected planet if chaseCamOn
-        if(isBodySelected() && chaseCamOn)
-            centerCamera(bodies.get(selectedBody).getWorldCenter());
+        if(isBodySelected() && chaseCamOn) {
+            int slot = bodies.getSlot(selectedBody);
+            centerCamera(bodies.x[slot], bodies.y[slot]);
+        }
+
+        //keep the camera near the origin so floats stay precise around whatever is on screen
+        updateFloatingOrigin();
 
         // tell the camera to update its matrices.
         camera.update();
 
-        //if the game is running
-        if(running) {
-            //for every body, apply gravity between itself and all the other bodies
-            for (Body body1 : bodies) {
-
-                    for (Body body2 : bodies) {
-                        if (body1 != body2 && getDynamicSprite(body2).isMovable()) { //don't apply a body's own gravity to itself.
-                            applyGravityBetweenBodies(body1, body2);
-                        }
-                    }
-
-            }
-        }
-
         //debugRenderer.render(world, camera.combined);
 
         //Gdx.app.log("GameScreen", "delta = " + delta);
@@ -907,22 +1536,31 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
         //update all the sprites
         batch.begin();
         batch.setProjectionMatrix(camera.combined);
-        for(DynamicSprite sprite : sprites) {
-            sprite.update();
+        //particles go under the bodies. Only the ones on screen are drawn
+        float halfWidth = camera.viewportWidth * camera.zoom / 2;
+        float halfHeight = camera.viewportHeight * camera.zoom / 2;
+        testParticles.draw(batch, bodyHighlight, PARTICLE_SIZE * camera.zoom, camera.position.x - halfWidth,
+                camera.position.y - halfHeight, camera.position.x + halfWidth, camera.position.y + halfHeight);
+        for(int i = 0; i < bodies.size(); i++) {
+            DynamicSprite sprite = bodies.getSpriteAt(i);
+            sprite.update(bodies.x[i], bodies.y[i], bodies.radius[i], bodies.angle[i]);
             sprite.draw(batch);
             sprite.highlight.draw(batch);
         }
         batch.end();
 
 
-        //advance world by TIMESTEP (1/60 second)
-        doPhysicsStep(timeStep);
+        //advance the simulation by the time since the last frame. Gravity is applied on every physics step
+        if(running) {
+            doPhysicsStep(delta);
+        }
 
 
         //update launch simulation
         if(launching && isBodySelected()) {
             dragForLaunchSimulation();
         }
+        launchSimulation.showPrediction();
         launchSimulation.draw();
 
         //update HUD
@@ -988,6 +1626,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         earth.dispose();
         bodyHighlight.dispose();
+        launchSimulation.dispose();
         hud.uiSkin.dispose();
     }
 
@@ -1057,6 +1696,18 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
             toggleSelectedBodyMovable();
         }
 
+        if (keycode == Input.Keys.B) {
+            //If the B key is pressed, put an asteroid belt around the selected body
+
+            createAsteroidBelt();
+        }
+
+        if (keycode == Input.Keys.G) {
+            //If the G key is pressed, check the fast multipole solver's accuracy at every order
+
+            logMultipoleOrderCheck();
+        }
+
 
         return false;
     }
@@ -1097,14 +1748,12 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
         int tappedBody = -1;
         //check to see if any of the bodies were tapped.
         for(int i = 0; i < bodies.size(); i++) {
-            Body body = bodies.get(i);
-            Vector2 bodyCenter = body.getWorldCenter();
-            float bodyRadius = body.getFixtureList().get(0).getShape().getRadius();
-            float touchDistanceFromBodyCenter = Math.abs(bodyCenter.dst(touchLocation)); //get touch distance from the center of the body
+            float bodyRadius = bodies.radius[i];
+            float touchDistanceFromBodyCenter = touchLocation.dst(bodies.x[i], bodies.y[i]); //get touch distance from the center of the body
             //the tap is considered to be inside the body if it is within the radius or 50 world units
             boolean tapInsideBody = touchDistanceFromBodyCenter < bodyRadius || touchDistanceFromBodyCenter < 10 * getZoom();
             if(tapInsideBody && touchDistanceFromBodyCenter < shortestDistance) { //we want to find the closest body to our tap in case multiple bodies are in range
-                tappedBody = i;
+                tappedBody = bodies.getIdAt(i);
                 shortestDistance = touchDistanceFromBodyCenter;
             }
         }
@@ -1129,7 +1778,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         //if the user is currently launching a planet (their touch down was on a planet), launch the planet
         if(launching && isBodySelected()) {
-            Body body = bodies.get(selectedBody);
+            Body body = getSelectedBody();
             Vector2 releaseLocation = new Vector2(x, y);
             releaseLocation = getWorldPosition(releaseLocation); //convert release location to world coords
 
@@ -1144,14 +1793,15 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
             launchVector.scl(-1); //invert it so that the body launches away from the direction pulled. It's like pulling back a slingshot
 
-            if(body.getMass() > STANDARD_MASS) {
+            if(getBodyMass(body) > STANDARD_MASS) {
                 // scale the acceleration so that bigger bodies have lower accelerations for the same pull
-                float scaleFactor = (float)(Math.pow(STANDARD_MASS/body.getMass(), 1/7.0));
+                float scaleFactor = (float)(Math.pow(STANDARD_MASS/getBodyMass(body), 1/7.0));
                 launchVector = launchVector.scl(scaleFactor);
             }
 
             //assign launch vector as new velocity for the body
             body.setLinearVelocity(launchVector);
+            syncEditedBody(body);
 
             doLaunchSimulation(launchVector);
 
@@ -1197,15 +1847,15 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
 
         if(isBodySelected()) {
 
-            Body body = bodies.get(selectedBody);
+            Body body = getSelectedBody();
 
-            float scaled_amount = (float) Math.sqrt(body.getMass()) * amount;
+            float scaled_amount = (float) Math.sqrt(getBodyMass(body)) * amount;
 
             scaled_amount *= 10;
 
             changeBodyMass(body, scaled_amount);
 
-            Gdx.app.log("GameScreen", "Mass adjusted - mass = " + body.getMass());
+            Gdx.app.log("GameScreen", "Mass adjusted - mass = " + getBodyMass(body));
         } else {
 
             setZoom(getZoom() + amount * 0.1f);
@@ -1235,22 +1885,20 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
         if(addingBody || addingBodyMatrix) {
             //check to see if any of the current bodies were tapped.
             for (int i = 0; i < bodies.size(); i++) {
-                Body body = bodies.get(i);
-                Vector2 bodyCenter = body.getWorldCenter();
-                float bodyRadius = body.getFixtureList().get(0).getShape().getRadius();
-                float touchDistanceFromBodyCenter = Math.abs(bodyCenter.dst(touchLocation)); //get touch distance from the center of the body
+                float bodyRadius = bodies.radius[i];
+                float touchDistanceFromBodyCenter = touchLocation.dst(bodies.x[i], bodies.y[i]); //get touch distance from the center of the body
                 //the tap is considered to be inside the body if it is within the radius
                 if(touchDistanceFromBodyCenter < bodyRadius) {
-                    tappedBody = i;
+                    tappedBody = bodies.getIdAt(i);
                     break;
                 }
             }
-            //if a body was tapped, tappedBody is the index of the tapped body in the bodies arraylist
+            //if a body was tapped, tappedBody is the ID of the tapped body
             if (tappedBody < 0) { //if not tappedBody = -1
                 if(addingBody) {
                     //add new body at the tap location with STANDARD_MASS
-                    createBody(STANDARD_MASS, touchLocation.x, touchLocation.y);
-                    setSelectedBody(bodies.size() - 1); //select the new body
+                    Body newBody = createBody(STANDARD_MASS, touchLocation.x, touchLocation.y);
+                    setSelectedBody(bodies.getId(newBody)); //select the new body
                 } else if (addingBodyMatrix) {
                     //add new body at the tap location with STANDARD_MASS
                     createBodyMatrix(STANDARD_MASS, touchLocation.x, touchLocation.y, bodyMatrixN);
@@ -1260,25 +1908,23 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
         } else {
             //check to see if any of the bodies were tapped.
             for (int i = 0; i < bodies.size(); i++) {
-                Body body = bodies.get(i);
-                Vector2 bodyCenter = body.getWorldCenter();
-                float bodyRadius = body.getFixtureList().get(0).getShape().getRadius();
-                float touchDistanceFromBodyCenter = Math.abs(bodyCenter.dst(touchLocation)); //get touch distance from the center of the body
+                float bodyRadius = bodies.radius[i];
+                float touchDistanceFromBodyCenter = touchLocation.dst(bodies.x[i], bodies.y[i]); //get touch distance from the center of the body
                 //the tap is considered to be inside the body if it is within the radius or 50 world units
                 boolean tapInsideBody = touchDistanceFromBodyCenter < bodyRadius || touchDistanceFromBodyCenter < 10 * getZoom();
                 if (tapInsideBody && touchDistanceFromBodyCenter < shortestDistance) { //we want to find the closest body to our tap in case multiple bodies are in range
-                    tappedBody = i;
+                    tappedBody = bodies.getIdAt(i);
                     shortestDistance = touchDistanceFromBodyCenter;
                 }
             }
-            //if a body was tapped, tappedBody is the index of the tapped body in the bodies arraylist
+            //if a body was tapped, tappedBody is the ID of the tapped body
             if (tappedBody >= 0) {
                 //if the user is selecting an orbit for the already selected planet
                 if (pickingOrbit) {
                     //if they didn't tap the body already selected
                     if (tappedBody != selectedBody) {
                         //make that selected planet orbit the tapped body
-                        orbit(getSelectedBody(), bodies.get(tappedBody));
+                        orbit(getSelectedBody(), bodies.getBody(tappedBody));
                         doLaunchSimulation(getSelectedBody().getLinearVelocity());
                         if(hud.getCurrentClickFunction() == HUD.ClickFunction.ORBIT)
                             hud.deactivateClickFunction(HUD.ClickFunction.ORBIT);
@@ -1387,7 +2033,7 @@ public class GameScreen implements Screen, GestureDetector.GestureListener, Inpu
             if (isBodySelected()) { //scale body
 
                 float changeInDistance = finalDistance - initialDistance;
-                float changeInMass = changeInDistance * (float)Math.sqrt(getSelectedBody().getMass()) / 20; //scale delta mass based on current mass
+                float changeInMass = changeInDistance * (float)Math.sqrt(getBodyMass(getSelectedBody())) / 20; //scale delta mass based on current mass
                 changeBodyMass(getSelectedBody(), changeInMass); //add delta mass to current body mass
 
             } else { //zoom
@@ -0,0 +1,209 @@
+package com.application.orbit;
+
+/**
+ * The inner loop of direct (body by body) gravity on a single point. It works on plain position and mass
+ * arrays, so there are no Vector2 objects and no Math.pow calls. The pull of a body at distance r is
+ * m r / |r|^3, which only needs one square root and one division per pair.
+ *
+ * The loop is split into simple passes so that the JIT can turn them into SIMD instructions. The first
+ * pass works out the pull of every body into a scratch array. It has no branches and every body is
+ * independent, so the JIT handles a whole vector of bodies (8 or 16 on AVX2/AVX-512) per instruction.
+ * The second pass adds the pulls up using LANES separate running sums, so each addition doesn't have to
+ * wait for the one before it.
+ *
+ * A body at exactly the same position as the point would give infinity times zero in the first pass.
+ * That is so rare that the passes don't check for it. Instead the total is checked at the end, and if it
+ * isn't a finite number the range is done again with the plain loop, which skips those pairs.
+ *
+ * addRowPulls does the same for one row of the pair triangle, where the point is itself a body and
+ * every body it is paired with also gets pulled back towards it. That is done in tiles of TILE bodies so
+ * the scratch stays in the L1 cache: the pulls of a tile without the masses go to scratch without
+ * branches, the masses are multiplied in while adding them up, and only once the tile's total is known
+ * to be finite are they taken off the other bodies. The scratch arrays are indexed by body like x and y
+ * (not from 0 for each tile), since the JIT only vectorizes loops where all the arrays line up.
+ *
+ * None of the results include G. A kernel holds its own scratch arrays, so every thread needs its own.
+ */
+final class GravityKernel {
+
+    static final int LANES = 8;
+    static final int TILE = 256; //bodies per tile in addRowPulls
+
+    float[] pullX, pullY; //scratch arrays holding the pull of each body
+    final float[] sum = new float[2]; //can be passed to addPull by the kernel's owner
+
+    GravityKernel() {
+        allocate(16);
+    }
+
+    /**
+     * Adds the pull of the bodies start..end-1 on a point to sum. Nothing is skipped, so to leave out a
+     * body call this once for the bodies before it and once for the bodies after it.
+     * @param px the x position of the point
+     * @param py the y position of the point
+     * @param start the first body
+     * @param end one past the last body
+     * @param x body x positions
+     * @param y body y positions
+     * @param mass body masses
+     * @param sum sum[0] and sum[1] get the x and y pull added to them
+     */
+    void addPull(float px, float py, int start, int end, float[] x, float[] y, float[] mass, float[] sum) {
+        if (pullX.length < end) {
+            allocate(end * 2);
+        }
+        float[] pullX = this.pullX, pullY = this.pullY;
+
+        for (int j = start; j < end; j++) {
+            float dx = x[j] - px;
+            float dy = y[j] - py;
+            float r2 = dx * dx + dy * dy;
+            float f = mass[j] / (r2 * (float) Math.sqrt(r2));
+            pullX[j] = f * dx;
+            pullY[j] = f * dy;
+        }
+
+        float sumX = sum(pullX, start, end);
+        float sumY = sum(pullY, start, end);
+
+        if (!isFinite(sumX + sumY)) {
+            //some body is right on top of the point
+            sumX = 0;
+            sumY = 0;
+            for (int j = start; j < end; j++) {
+                float dx = x[j] - px;
+                float dy = y[j] - py;
+                float r2 = dx * dx + dy * dy;
+                if (r2 > 0) {
+                    float f = mass[j] / (r2 * (float) Math.sqrt(r2));
+                    sumX += f * dx;
+                    sumY += f * dy;
+                }
+            }
+        }
+
+        sum[0] += sumX;
+        sum[1] += sumY;
+    }
+
+    /**
+     * Adds the pull between body i and each of the bodies start..end-1 (which must not include i). The pull
+     * on body i goes into sum, and the opposite pull on each other body is taken off its ax and ay.
+     * @param i the body the row belongs to
+     * @param start the first body to pair with
+     * @param end one past the last body to pair with
+     * @param x body x positions
+     * @param y body y positions
+     * @param mass body masses
+     * @param ax x accelerations of the bodies, without G
+     * @param ay y accelerations of the bodies, without G
+     * @param sum sum[0] and sum[1] get the x and y pull on body i added to them
+     */
+    void addRowPulls(int i, int start, int end, float[] x, float[] y, float[] mass, float[] ax, float[] ay,
+                     float[] sum) {
+        if (pullX.length < end) {
+            allocate(end * 2);
+        }
+        float[] pullX = this.pullX, pullY = this.pullY;
+        float px = x[i], py = y[i], pm = mass[i];
+        float sumX = 0, sumY = 0;
+
+        for (int tileStart = start; tileStart < end; tileStart += TILE) {
+            int tileEnd = Math.min(tileStart + TILE, end);
+
+            for (int j = tileStart; j < tileEnd; j++) {
+                float dx = x[j] - px;
+                float dy = y[j] - py;
+                float r2 = dx * dx + dy * dy;
+                float f = 1 / (r2 * (float) Math.sqrt(r2));
+                pullX[j] = f * dx;
+                pullY[j] = f * dy;
+            }
+
+            float tileSumX = sum(mass, pullX, tileStart, tileEnd);
+            float tileSumY = sum(mass, pullY, tileStart, tileEnd);
+
+            if (isFinite(tileSumX + tileSumY)) {
+                for (int j = tileStart; j < tileEnd; j++) {
+                    ax[j] -= pm * pullX[j];
+                    ay[j] -= pm * pullY[j];
+                }
+            } else {
+                //some body in the tile is right on top of body i. Nothing has been written yet, so the
+                //tile can just be done again with the plain loop, which skips that pair
+                tileSumX = 0;
+                tileSumY = 0;
+                for (int j = tileStart; j < tileEnd; j++) {
+                    float dx = x[j] - px;
+                    float dy = y[j] - py;
+                    float r2 = dx * dx + dy * dy;
+                    if (r2 > 0) {
+                        float f = 1 / (r2 * (float) Math.sqrt(r2));
+                        tileSumX += mass[j] * f * dx;
+                        tileSumY += mass[j] * f * dy;
+                        ax[j] -= pm * f * dx;
+                        ay[j] -= pm * f * dy;
+                    }
+                }
+            }
+            sumX += tileSumX;
+            sumY += tileSumY;
+        }
+
+        sum[0] += sumX;
+        sum[1] += sumY;
+    }
+
+    /**
+     * Adds up weights[j] * values[j] for j = start..end-1 using LANES running sums
+     */
+    private static float sum(float[] weights, float[] values, int start, int end) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+        int j = start;
+        for (; j + LANES <= end; j += LANES) {
+            s0 += weights[j] * values[j];
+            s1 += weights[j + 1] * values[j + 1];
+            s2 += weights[j + 2] * values[j + 2];
+            s3 += weights[j + 3] * values[j + 3];
+            s4 += weights[j + 4] * values[j + 4];
+            s5 += weights[j + 5] * values[j + 5];
+            s6 += weights[j + 6] * values[j + 6];
+            s7 += weights[j + 7] * values[j + 7];
+        }
+        for (; j < end; j++) {
+            s0 += weights[j] * values[j];
+        }
+        return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+    }
+
+    /**
+     * Adds up values start..end-1 using LANES running sums
+     */
+    private static float sum(float[] values, int start, int end) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+        int j = start;
+        for (; j + LANES <= end; j += LANES) {
+            s0 += values[j];
+            s1 += values[j + 1];
+            s2 += values[j + 2];
+            s3 += values[j + 3];
+            s4 += values[j + 4];
+            s5 += values[j + 5];
+            s6 += values[j + 6];
+            s7 += values[j + 7];
+        }
+        for (; j < end; j++) {
+            s0 += values[j];
+        }
+        return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    private void allocate(int capacity) {
+        pullX = new float[capacity];
+        pullY = new float[capacity];
+    }
+}
@@ -0,0 +1,35 @@
+package com.application.orbit;
+
+/**
+ * A GravitySolver calculates the gravitational acceleration every body feels due to all of the other
+ * bodies in the simulation. Solvers work on plain float arrays (positions and masses) instead of Box2D
+ * bodies so that they don't need to call into Box2D for every pair of bodies.
+ */
+public interface GravitySolver {
+
+    /**
+     * Calculates the acceleration of every body due to the gravity of all the other bodies.
+     * @param count the number of bodies. Only the first count entries of each array are used
+     * @param x the x positions of the bodies in world coordinates
+     * @param y the y positions of the bodies in world coordinates
+     * @param mass the masses of the bodies
+     * @param ax filled with the x component of each body's acceleration
+     * @param ay filled with the y component of each body's acceleration
+     */
+    void computeAccelerations(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay);
+
+    /**
+     * Calculates the acceleration of only some of the bodies (the targets). Every body still pulls on
+     * the targets. The accelerations of bodies that aren't targets are left alone.
+     * @param count the number of bodies. Only the first count entries of each array are used
+     * @param x the x positions of the bodies in world coordinates
+     * @param y the y positions of the bodies in world coordinates
+     * @param mass the masses of the bodies
+     * @param targets the indices of the bodies whose acceleration is needed
+     * @param targetCount the number of entries used in targets
+     * @param ax the x component of each target's acceleration is written here
+     * @param ay the y component of each target's acceleration is written here
+     */
+    void computeAccelerations(int count, float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                              float[] ax, float[] ay);
+}
@@ -36,7 +36,7 @@ public class HUD extends Stage {
     static final int BODY_INFO_WINDOW_WIDTH = 600;
     static final int BODY_INFO_WINDOW_HEIGHT = 700;
     static final int SETTINGS_WINDOW_WIDTH = 600;
-    static final int SETTINGS_WINDOW_HEIGHT = 700;
+    static final int SETTINGS_WINDOW_HEIGHT = 900;
     static final int HELP_WINDOW_WIDTH = 1200;
     static final int HELP_WINDOW_HEIGHT = 700;
 
@@ -575,7 +575,7 @@ public class HUD extends Stage {
             case SCALE:
                 scaleSliderTable.setPosition(0, sliderYDisplacement);
                 if (gameScreen.isBodySelected()) {
-                    float mass = gameScreen.getSelectedBody().getMass();
+                    float mass = gameScreen.getBodyMass(gameScreen.getSelectedBody());
                     float radius = gameScreen.getCircleRadius(mass);
                     scaleSlider.setValue(radius);
                 }
@@ -853,7 +853,7 @@ public class HUD extends Stage {
                 if(!gameScreen.isBodySelected()) {
                     messageOverlay.showTip("Body must be selected to lock");
                 } else {
-                    boolean sticky = !gameScreen.getDynamicSprite(gameScreen.getSelectedBody()).isMovable();
+                    boolean sticky = !gameScreen.isSelectedBodyMovable();
                     if(sticky) {
                         messageOverlay.showTip(getSelectedBodyName() + " locked");
                     } else {
@@ -876,7 +876,7 @@ public class HUD extends Stage {
 
             public void touchUp(InputEvent event, float x, float y, int pointer, int button) {
                 if(gameScreen.isBodySelected()) {
-                    if (gameScreen.getDynamicSprite(gameScreen.getSelectedBody()).isMovable()) {
+                    if (gameScreen.isSelectedBodyMovable()) {
                         clickFunction(ClickFunction.ORBIT);
                         messageOverlay.showTip("Select a body to orbit around");
                     } else {
@@ -1072,7 +1072,7 @@ public class HUD extends Stage {
 
     public void updateStickyIcon() {
         if(gameScreen.isBodySelected()) {
-            boolean sticky = !gameScreen.getDynamicSprite(gameScreen.getSelectedBody()).isMovable();
+            boolean sticky = !gameScreen.isSelectedBodyMovable();
             if(sticky) {
                 stickyButton.setStyle(textButtonStyles.get(LOCK_ICON_INDEX));
             } else {
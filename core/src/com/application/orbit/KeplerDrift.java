@@ -0,0 +1,136 @@
+package com.application.orbit;
+
+/**
+ * Moves a body along its two body (Kepler) orbit around a fixed mass by any amount of time, without
+ * stepping. Works for circles, ellipses, parabolas and hyperbolas alike by using the universal variable
+ * form of Kepler's equation:
+ *     sqrt(mu) dt = r0 vr0 / sqrt(mu) chi^2 C(z) + (1 - alpha r0) chi^3 S(z) + r0 chi,   z = alpha chi^2
+ * where alpha = 1 / semi-major axis and C and S are the Stumpff functions. Kepler's equation is solved for
+ * chi with Laguerre's method, which converges from a rough guess even for very eccentric orbits. The new
+ * position and velocity then come from the f and g functions.
+ *
+ * Everything is done in doubles. The state is a double[4] holding x, y, vx, vy relative to the fixed
+ * mass, so nothing is allocated.
+ */
+final class KeplerDrift {
+
+    static final int MAX_ITERATIONS = 50;
+    static final double TOLERANCE = 1e-13;
+    static final int SERIES_TERMS = 10; //enough for the Stumpff series to reach double precision when |z| <= 1
+
+    private KeplerDrift() {
+    }
+
+    /**
+     * Moves a body along its orbit
+     * @param mu G times the mass being orbited
+     * @param dt the amount of time to move by. Can be negative
+     * @param state x, y, vx, vy relative to the mass being orbited. Replaced with the new state
+     * @return false if Kepler's equation couldn't be solved (the state is left alone)
+     */
+    static boolean drift(double mu, double dt, double[] state) {
+        double x = state[0], y = state[1], vx = state[2], vy = state[3];
+        double r0 = Math.sqrt(x * x + y * y);
+        if (r0 <= 0 || mu <= 0) {
+            return false;
+        }
+        double sqrtMu = Math.sqrt(mu);
+        double v2 = vx * vx + vy * vy;
+        double alpha = 2 / r0 - v2 / mu;
+        double sigma0 = (x * vx + y * vy) / sqrtMu; //r0 * vr0 / sqrt(mu)
+
+        //an ellipse repeats every period, so only the time into the current orbit matters
+        if (alpha > 0) {
+            double period = 2 * Math.PI / (sqrtMu * alpha * Math.sqrt(alpha));
+            dt = dt % period;
+        }
+
+        //solve Kepler's equation for chi
+        double target = sqrtMu * dt;
+        double chi = alpha > 0 ? target * alpha : target / r0;
+        double c = 0.5, s = 1 / 6.0;
+        boolean converged = false;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double chi2 = chi * chi;
+            double z = alpha * chi2;
+            c = stumpffC(z);
+            s = stumpffS(z);
+            double f = sigma0 * chi2 * c + (1 - alpha * r0) * chi2 * chi * s + r0 * chi - target;
+            double df = sigma0 * chi * (1 - z * s) + (1 - alpha * r0) * chi2 * c + r0; //this is r
+            double ddf = sigma0 * (1 - z * c) + (1 - alpha * r0) * chi * (1 - z * s);
+
+            //Laguerre step with n = 5
+            double root = Math.sqrt(Math.abs(16 * df * df - 20 * f * ddf));
+            double delta = 5 * f / (df + (df >= 0 ? root : -root));
+            chi -= delta;
+            if (Math.abs(delta) <= TOLERANCE * Math.max(1, Math.abs(chi))) {
+                converged = true;
+                break;
+            }
+        }
+        if (!converged || Double.isNaN(chi)) {
+            return false;
+        }
+        double chi2 = chi * chi;
+        double z = alpha * chi2;
+        c = stumpffC(z);
+        s = stumpffS(z);
+
+        //f and g functions
+        double f = 1 - chi2 / r0 * c;
+        double g = dt - chi2 * chi / sqrtMu * s;
+        double newX = f * x + g * vx;
+        double newY = f * y + g * vy;
+        double r = Math.sqrt(newX * newX + newY * newY);
+        double fDot = sqrtMu / (r * r0) * (z * chi * s - chi);
+        double gDot = 1 - chi2 / r * c;
+
+        state[0] = newX;
+        state[1] = newY;
+        state[2] = fDot * x + gDot * vx;
+        state[3] = fDot * y + gDot * vy;
+        return true;
+    }
+
+    /**
+     * @return the Stumpff function C(z) = (1 - cos(sqrt(z))) / z
+     */
+    static double stumpffC(double z) {
+        if (z > 1) {
+            double half = Math.sin(Math.sqrt(z) / 2);
+            return 2 * half * half / z; //same as the definition but without subtracting nearly equal numbers
+        } else if (z < -1) {
+            double half = Math.sinh(Math.sqrt(-z) / 2);
+            return 2 * half * half / -z;
+        }
+        //near 0 use the series 1/2! - z/4! + z^2/6! - ...
+        double term = 0.5;
+        double sum = term;
+        for (int k = 1; k < SERIES_TERMS; k++) {
+            term *= -z / ((2 * k + 1) * (2 * k + 2));
+            sum += term;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the Stumpff function S(z) = (sqrt(z) - sin(sqrt(z))) / sqrt(z)^3
+     */
+    static double stumpffS(double z) {
+        if (z > 1) {
+            double root = Math.sqrt(z);
+            return (root - Math.sin(root)) / (root * z);
+        } else if (z < -1) {
+            double root = Math.sqrt(-z);
+            return (Math.sinh(root) - root) / (root * -z);
+        }
+        //near 0 use the series 1/3! - z/5! + z^2/7! - ...
+        double term = 1 / 6.0;
+        double sum = term;
+        for (int k = 1; k < SERIES_TERMS; k++) {
+            term *= -z / ((2 * k + 2) * (2 * k + 3));
+            sum += term;
+        }
+        return sum;
+    }
+}
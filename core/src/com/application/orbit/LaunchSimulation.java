@@ -1,33 +1,52 @@
 package com.application.orbit;
 
+import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
-import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
 /**
- * This class simulates an expected launch trajectory of a body by mapping it out with dots.
+ * This class simulates an expected launch trajectory of a body and draws it as a line.
  * Created by Nick on 4/28/2016.
  */
-public class LaunchSimulation extends Stage {
+public class LaunchSimulation implements AccelerationField {
 
     /*The user is allowed to adjust the length of the launch simulation (i.e. number of dots)
       Shorter simulations run faster but reveal less to the user about the projected launch path
-      of the body
+      of the body. The length is still counted in dots, sections of STEPS_BETWEEN_DOTS positions,
+      from when the path was drawn as a dot at the start of every section
      */
     final static int MAX_NUM_DOTS = 30; //max length
     final static int MIN_NUM_DOTS = 1; //min length
     final static int DEFAULT_NUM_DOTS = 10; //default length
     final float STEP_SIZE = 0.05f; //the length of time elapsed between simulated positions
-    final int STEPS_BETWEEN_DOTS = 2; //how many positions to simulate before placing a visual for the user (dot)
+    final int STEPS_BETWEEN_DOTS = 64; //how many positions to simulate for each dot of length
+    final float LINE_WIDTH = 0.6f; //the width of the path in world units at zoom 1
+    static final int FRAME_INTERACTIONS = 200000; //pairs of bodies looked at per frame when predicting here
 
     GameScreen gameScreen; //the core file runnning the logic in the app
-    Dot[] dots; //the dots graphics the user sees. See @Dot
-    int numDots; //the number of dots the user has selected to display in the simulation
+    TrajectoryLine line; //the path the user sees. See @TrajectoryLine
+    Camera camera; //the world camera the line is drawn with
+    int numDots; //the length of the simulation the user has selected, in dots
     Vector2 releaseLocation; //the position the user released their finger from the screen
-    boolean visible; //whether or not the dots should be visible to the user
+    boolean visible; //whether or not the path should be visible to the user
     boolean dynamicLaunchActivated; //whether the launch simulation is activated and this class should operate
     Body simulatingBody; //The body whose launch is being simulated
+    int simulatingId; //the registry ID of simulatingBody
+    float[] pathX, pathY; //the simulated positions. STEPS_BETWEEN_DOTS of them for each dot
+    int pathLength; //how many positions the whole simulation has
+    int pathPoints; //how many of the simulated positions are worked out so far
+    DormandPrinceIntegrator integrator; //predicts on the render thread when there is no background thread
+    boolean integrating; //true while integrator still has positions to work out
+    double[] startX, startY, startVx, startVy; //the launched body's state handed to the integrator
+    TrajectoryPredictor predictor; //predicts with every body moving, in the background where the platform can
+    int shownPrediction; //the publishedVersion of the background prediction the line is showing
+
+    //what the line was worked out from. If none of it changes, the line doesn't need to be worked out again
+    boolean keyValid; //false when the line doesn't match the key (e.g. it was hidden)
+    int keyBodyId, keySceneVersion, keyNumDots, keyMotionVersion;
+    float keyReleaseX, keyReleaseY;
+    float lineZoom; //the zoom the line was last built at, for its width
 
     /**
      * Constructor for the LaunchSimulation class. This should be instantiated one time inside the
@@ -38,21 +57,26 @@ public class LaunchSimulation extends Stage {
      * @param viewport libGDX object that determines what the unit boundaries of the screen are
      */
     public LaunchSimulation(final GameScreen gameScreen, Viewport viewport) {
-        super(viewport); //Call the super constructor from the Stage parent class
-
         this.gameScreen = gameScreen;
+        camera = viewport.getCamera();
 
         numDots = DEFAULT_NUM_DOTS; //on initial load, set to default. user can change later
 
-        dots = new Dot[MAX_NUM_DOTS]; //create a Dot array with enough space for the max number of dots
-        for(int i = 0; i < dots.length; i++) { //fill the array
-            dots[i] = new Dot(gameScreen.bodyHighlight); //bodyHighlight is the graphic used for the dot
-            addActor(dots[i]); //add Dot (Actor) to LaunchSimulation (Stage)
-            dots[i].setVisible(false); //make the dot invisible to start
-        }
+        line = new TrajectoryLine(MAX_NUM_DOTS * STEPS_BETWEEN_DOTS); //enough room for the longest path
 
         dynamicLaunchActivated = true; //dynamic launch is activated by default
 
+        integrator = new DormandPrinceIntegrator();
+        startX = new double[1];
+        startY = new double[1];
+        startVx = new double[1];
+        startVy = new double[1];
+        pathX = new float[MAX_NUM_DOTS * STEPS_BETWEEN_DOTS];
+        pathY = new float[MAX_NUM_DOTS * STEPS_BETWEEN_DOTS];
+        predictor = new TrajectoryPredictor(gameScreen.game.taskRunner,
+                gameScreen.GRAVITY_CONSTANT * gameScreen.SIZE_ADJUSTMENT_FACTOR);
+        shownPrediction = -1;
+
     }
 
     /**
@@ -114,7 +138,7 @@ public class LaunchSimulation extends Stage {
     }
 
     /**
-     * @return true = launch simulation (dots) is visible
+     * @return true = launch simulation (path) is visible
      */
     public boolean isVisible() {
         return visible;
@@ -128,150 +152,216 @@ public class LaunchSimulation extends Stage {
     }
 
     /**
-     * This method simulates the orbit for "body" given "velocity". It uses the 4th order Runge Kutta
-     * method (RK4) to simulate where the body will be at each iteration. It assumes that none of the other
-     * bodies on the screen will move. It uses numDots Dot objects (basically just an image of a dot)
-     * to map out where the body will be over time.
+     * This method simulates the orbit for "body" given "velocity" and maps out where the body will be
+     * over time with a line (see TrajectoryLine). There are STEPS_BETWEEN_DOTS simulated positions for
+     * every dot of length the user picked, so the path covers several orbits.
+     *
+     * Where the platform has a background thread, the TrajectoryPredictor is asked. It moves every body,
+     * not just this one, and the line is updated by showPrediction as the path comes in. Until then the
+     * line keeps showing the last prediction. Otherwise the path is worked out here with adaptive steps
+     * (see DormandPrinceIntegrator), assuming that none of the other bodies will move. That is spread
+     * over frames by showPrediction, so a long path in a big scene doesn't hold up a frame.
+     *
+     * This runs every frame while the user drags, so nothing is allocated here. The simulated positions
+     * go into pathX and pathY, which are made once for the largest simulation.
      * @param body the body to simulate
      * @param velocity0 The velocity as a Vector2 object
      */
     public void doSimulation(Body body, Vector2 velocity0) {
         simulatingBody = body; //set instance variable simulating body to the body param
-        visible = true; //dots should now be visible
+        visible = true; //the path should now be visible
+        integrating = false;
         if(numDots <= 1) {
             return; //don't do the simulation if the user set the launch simulation size to 0
         }
-        if(gameScreen.getDynamicSprite(body).isMovable()) { //if the body is locked in place, it won't move
-            Vector2[] positions = new Vector2[numDots * STEPS_BETWEEN_DOTS]; //there will STEPS_BETWEEN_DOTS position steps in between each dot
-            Vector2[] velocities = new Vector2[positions.length]; //velocity will be recalculated at each step
-            positions[0] = body.getWorldCenter(); //the starting position for the simulation will be the current location of the body
-            velocities[0] = velocity0; //starting velocity will be current velocity
-
-            for (int i = 1; i < positions.length; i++) { //now actually run the simulation
-
-                if(dynamicLaunchActivated) { //dynamic launch predicts path of body due to gravity
-
-                    //use RK4 to find the next step's velocity and position
-                    velocities[i] = getVelocity(STEP_SIZE, positions[i-1], velocities[i-1]);
-                    positions[i]  = getPosition(STEP_SIZE, positions[i-1], velocities[i-1]);
-
-                } else { //if dynamic launch simulation is off, just go STRAIGHT
-                    //update position: x1 = x0 + v0t , x2 = x1 + v0t, x(n) = x(n-1) + v0*t
-                    positions[i] = new Vector2(positions[i - 1].x + velocity0.x * STEP_SIZE, positions[i - 1].y + velocity0.y * STEP_SIZE);
-
+        if(gameScreen.isBodyMovable(body)) { //if the body is locked in place, it won't move
+            int steps = (numDots - 1) * STEPS_BETWEEN_DOTS + 1; //there will STEPS_BETWEEN_DOTS position steps in between each dot
+            pathLength = steps;
+            BodyRegistry bodies = gameScreen.bodies;
+            simulatingId = bodies.getId(body);
+            int slot = bodies.getSlot(simulatingId);
+
+            if (!dynamicLaunchActivated) {
+                //if dynamic launch simulation is off, just go STRAIGHT: x(n) = x(n-1) + v0*t
+                Vector2 start = body.getWorldCenter();
+                pathX[0] = start.x;
+                pathY[0] = start.y;
+                for (int i = 1; i < steps; i++) {
+                    pathX[i] = pathX[i - 1] + velocity0.x * STEP_SIZE;
+                    pathY[i] = pathY[i - 1] + velocity0.y * STEP_SIZE;
                 }
-            }
-
-            //now update the positions, visibility, and sizes of the dots
-            for (int i = 0; i < numDots; i++) {
-                dots[i].setVisible(true);
-                float length = 2 * gameScreen.getZoom();
-                dots[i].setSize(length, length);
-                Vector2 position = positions[STEPS_BETWEEN_DOTS * i];
-                dots[i].setPositionCenter(position.x, position.y);
+                pathPoints = steps;
+                updateLine();
+            } else if (!predictor.request(bodies, slot, velocity0.x, velocity0.y, steps, STEP_SIZE,
+                    gameScreen.isDoublePrecisionOn())) {
+                //no background thread. start from the doubles in double precision mode
+                boolean precise = gameScreen.isDoublePrecisionOn();
+                startX[0] = precise ? bodies.preciseX[slot] : bodies.x[slot];
+                startY[0] = precise ? bodies.preciseY[slot] : bodies.y[slot];
+                startVx[0] = velocity0.x;
+                startVy[0] = velocity0.y;
+                integrator.start(1, 1, startX, startY, startVx, startVy, 0, STEP_SIZE, steps);
+                integrating = true;
             }
         }
 
 
     }
 
-
     /**
-     * This method calculates the acceleration a body feels at a certain position based on the body's
-     * mass and the masses and positions of the other bodies in the simulation. Uses Newton's Universal
-     * Law of Gravitation to find force and then F=ma to get acceleration.
-     * @param body the body to find the acceleration of
-     * @param pos the position of the body
-     * @return a Vector2 object representing the acceleration of the body (a_x, a_y)
+     * This method calculates the acceleration the simulated body feels at a certain position based on
+     * the masses and positions of the other bodies in the simulation, which stay where they are. Uses
+     * Newton's Universal Law of Gravitation to find force and then F=ma to get acceleration. Reads the
+     * registry's doubles in double precision mode.
+     * @param moving always 1, the simulated body
+     * @param count always 1. The other bodies are read from the registry
+     * @param x the x position of the simulated body
+     * @param y the y position of the simulated body
+     * @param ax gets the x acceleration
+     * @param ay gets the y acceleration
      */
-    public Vector2 getAcceleration(Body body, Vector2 pos) {
-        Vector2 acceleration = new Vector2(0,0); //create a zero vector for the total acceleration
-
-        /*
-            loop through all of the bodies on the screen and sum up the component acceleration vectors
-            due to each of the bodies
-        */
-        for (Body body2 : gameScreen.bodies) {
-            if (body != body2) { //don't apply gravity between a body and itself
-                float m1 = body.getMass();
-                float m2 = body2.getMass();
-
-                Vector2 r = new Vector2(body2.getWorldCenter()).sub(pos); //radius vector between the body and the latest simulated position
-
-                //get r magnitude. It is important to get this before getting r_hat because calling r.nor() will actually normalize the r vector, not just return r_hat
-                float r_mag = r.len() / (float) Math.sqrt(gameScreen.SIZE_ADJUSTMENT_FACTOR);
-
-                //get r unit vector
-                Vector2 r_hat = r.nor();
-
-                //Use Newton's Universal Law of Gravitation... F = G(m1)(m2) / ||r||^2 * r_hat
-                Vector2 f = r_hat.scl((float) (gameScreen.GRAVITY_CONSTANT * m1 * m2 / Math.pow(r_mag, 2)));
-
-                //get acceleration from f
-                Vector2 a = f.scl(1 / body.getMass()); // a = f/m
-
-                acceleration.add(a); //add this component to the total
+    @Override
+    public void computeAccelerations(int moving, int count, double[] x, double[] y, double[] ax, double[] ay) {
+        BodyRegistry bodies = gameScreen.bodies;
+        int slot = bodies.getSlot(simulatingId);
+        boolean precise = gameScreen.isDoublePrecisionOn();
+        double px = x[0], py = y[0];
+        double sumX = 0, sumY = 0;
+        for (int j = 0; j < bodies.size(); j++) {
+            //a body doesn't pull on itself
+            if (j == slot) {
+                continue;
+            }
+            double dx = (precise ? bodies.preciseX[j] : bodies.x[j]) - px;
+            double dy = (precise ? bodies.preciseY[j] : bodies.y[j]) - py;
+            double r2 = dx * dx + dy * dy;
+            if (r2 <= 0) {
+                continue;
+            }
+            double f = bodies.mass[j] / (r2 * Math.sqrt(r2));
+            sumX += f * dx;
+            sumY += f * dy;
+        }
+        //a = G m r / |r|^3. The body's own mass cancels out of F = ma
+        double gravityConstant = gameScreen.GRAVITY_CONSTANT * gameScreen.SIZE_ADJUSTMENT_FACTOR;
+        ax[0] = sumX * gravityConstant;
+        ay[0] = sumY * gravityConstant;
+    }
 
+    /**
+     * @return true if the simulated body at (x[0], y[0]) is touching another body
+     */
+    @Override
+    public boolean hasCrashed(int count, double[] x, double[] y) {
+        BodyRegistry bodies = gameScreen.bodies;
+        int slot = bodies.getSlot(simulatingId);
+        boolean precise = gameScreen.isDoublePrecisionOn();
+        for (int j = 0; j < bodies.size(); j++) {
+            double dx = (precise ? bodies.preciseX[j] : bodies.x[j]) - x[0];
+            double dy = (precise ? bodies.preciseY[j] : bodies.y[j]) - y[0];
+            double reach = bodies.radius[j] + bodies.radius[slot];
+            if (j != slot && dx * dx + dy * dy < reach * reach) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * This method checks whether the line already shows the launch the user is dragging out, so it doesn't
+     * have to be simulated again every frame. The launch itself is the release location, the body, the
+     * number of dots and the scene (GameScreen.sceneVersion moves on when bodies are added, removed or
+     * edited). A change to any of those starts a new prediction straight away.
+     *
+     * While the game runs the bodies move every frame (GameScreen.motionVersion). A prediction of a big
+     * scene takes longer than a frame, so restarting it for that would mean it never gets anywhere. The
+     * prediction that is running is kept instead (see isPredicting), and a new one is started from where
+     * the bodies are now once it is done. The zoom isn't part of this. showPrediction rebuilds the line
+     * when it changes.
+     *
+     * The key is remembered, so the next call compares against this one.
+     * @param body the body being launched
+     * @param releaseLocation the user's finger location in world dimensions
+     * @param sceneVersion GameScreen.sceneVersion
+     * @param motionVersion GameScreen.motionVersion
+     * @return true if the line is still showing this launch and doesn't need a new prediction
+     */
+    public boolean isUpToDate(Body body, Vector2 releaseLocation, int sceneVersion, int motionVersion) {
+        int bodyId = gameScreen.bodies.getId(body);
+        boolean sameLaunch = keyValid && visible && keyBodyId == bodyId && keySceneVersion == sceneVersion
+                && keyNumDots == numDots && keyReleaseX == releaseLocation.x && keyReleaseY == releaseLocation.y;
+        if (sameLaunch && (keyMotionVersion == motionVersion || isPredicting())) {
+            return true;
+        }
+        keyValid = true;
+        keyBodyId = bodyId;
+        keySceneVersion = sceneVersion;
+        keyMotionVersion = motionVersion;
+        keyNumDots = numDots;
+        keyReleaseX = releaseLocation.x;
+        keyReleaseY = releaseLocation.y;
+        return false;
+    }
 
-        return acceleration;
+    /**
+     * @return true while a prediction is still being worked out, either here a bit every frame or in the
+     * background
+     */
+    public boolean isPredicting() {
+        return integrating || predictor.isBusy();
     }
 
+    /**
+     * This method updates the line as the prediction comes in. Called every frame before the line is
+     * drawn. A prediction on the render thread gets FRAME_INTERACTIONS of work per frame, and a background
+     * prediction is picked up whenever more of it has been published. If neither has anything new but
+     * the zoom changed, the line is rebuilt so it keeps the same width on screen.
+     */
+    public void showPrediction() {
+        if (!visible) {
+            return;
+        }
+        if (integrating) {
+            int bodyCount = Math.max(1, gameScreen.bodies.size());
+            int budget = Math.max(DormandPrinceIntegrator.STAGES, FRAME_INTERACTIONS / bodyCount);
+            pathPoints = integrator.advance(this, budget, pathX, pathY);
+            integrating = !integrator.isFinished();
+            updateLine();
+        } else if (predictor.hasNewPath(shownPrediction)) {
+            shownPrediction = predictor.publishedVersion;
+            pathPoints = predictor.copyPath(pathX, pathY);
+            updateLine();
+        } else if (lineZoom != gameScreen.getZoom()) {
+            updateLine();
+        }
+    }
 
     /**
-     * This method uses RK4 to find the next velocity based on the previous position and velocity
-     * @param step the time step
-     * @param pos0 the previous position as a Vector2 object (x,y)
-     * @param vel0 the previous velocity as a Vector2 object (v_x, v_y)
-     * @return the next velocity as a Vector2 object (v_x, v_y)
+     * This method rebuilds the line from the positions in pathX and pathY worked out so far
      */
-    public Vector2 getVelocity(float step, Vector2 pos0, Vector2 vel0) {
-        Vector2 a = new Vector2(pos0);
-        Vector2 A = getAcceleration(simulatingBody, a); //dv_dt0(x0)
-        Vector2 b = new Vector2(vel0).add(new Vector2(A).scl(step / 2)).scl(step / 2).add(pos0);
-        Vector2 B = getAcceleration(simulatingBody, b); //dv_dt0(x0 + dt/2 * (v0 + dt/2 * A))
-        Vector2 c = new Vector2(vel0).add(new Vector2(B).scl(step / 2)).scl(step / 2).add(pos0);
-        Vector2 C = getAcceleration(simulatingBody, c); //dv_dt0(x0 + dt/2 * (v0 + dt/2 * B))
-        Vector2 d = new Vector2(vel0).add(new Vector2(C).scl(step    )).scl(step    ).add(pos0);
-        Vector2 D = getAcceleration(simulatingBody, d); //dv_dt0(x0 + dt   * (v0 + dt   * C))
-
-        Vector2 dv_dt = A.add(B.scl(2)).add(C.scl(2)).add(D);
-        dv_dt.scl(1/6f); // (A + 2*B + 2*C + D) / 6
-
-        return dv_dt.scl(step).add(vel0); // velocity = v0 + dv_dt * dt
+    private void updateLine() {
+        lineZoom = gameScreen.getZoom();
+        line.update(pathX, pathY, Math.min(pathPoints, pathLength), pathLength, LINE_WIDTH * lineZoom);
     }
 
     /**
-     * This method uses RK4 to find the next position based on the previous position and velocity
-     * @param step the time step
-     * @param pos0 the previous position as a Vector2 object (x,y)
-     * @param vel0 the previous velocity as a Vector2 object (v_x, v_y)
-     * @return the next position as a Vector2 object (x, y)
+     * This method draws the path. The whole line is one draw call
      */
-    public Vector2 getPosition(float step, Vector2 pos0, Vector2 vel0) {
-        Vector2 e = new Vector2(pos0);
-        Vector2 E = getVelocity(0, e, vel0);        //dx_dt0(x0)
-        Vector2 f = new Vector2(pos0).add(new Vector2(E).scl(step/2));
-        Vector2 F = getVelocity(step / 2, f, vel0);   //dx_dt0(x0 + (dt/2 * E))
-        Vector2 g = new Vector2(pos0).add(new Vector2(F).scl(step/2));
-        Vector2 G = getVelocity(step / 2, g, vel0); //dx_dt0(x0 + (dt/2 * F))
-        Vector2 h = new Vector2(pos0).add(new Vector2(G).scl(step  ));
-        Vector2 H = getVelocity(step, h, vel0);     //dx_dt0(x0 + (dt   * G))
-
-        Vector2 dx_dt = E.add(F.scl(2)).add(G.scl(2)).add(H);
-        dx_dt.scl(1/6f);  // (E + 2*F + 2*G + H) / 6
-
-        return dx_dt.scl(step).add(pos0); // position = x0 + dx_dt * dt
+    public void draw() {
+        if (visible) {
+            line.draw(camera.combined);
+        }
     }
 
     /**
-     * This method stops the simulation by hiding all of the dots
+     * This method stops the simulation by hiding the path. A background prediction still running is
+     * dropped.
      */
     public void stopSimulation() {
-        for(int i = 0; i < dots.length; i++) { //loop through all the dots and set them all to invisible
-            dots[i].setVisible(false);
-        }
+        predictor.cancel();
+        integrating = false;
+        keyValid = false; //the next drag has to simulate again
+        line.clear();
         visible = false;
     }
 
@@ -286,4 +376,7 @@ public class LaunchSimulation extends Stage {
         }
     }
 
+    public void dispose() {
+        line.dispose();
+    }
 }
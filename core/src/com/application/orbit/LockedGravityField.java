@@ -0,0 +1,430 @@
+package com.application.orbit;
+
+/**
+ * This class caches the gravity of every locked body. Locked bodies never move, so they don't need to
+ * be part of the gravity solver at all: nothing pulls on them, and the pull between two locked bodies
+ * doesn't matter. The solver only has to handle the movable bodies, and the pull of the locked bodies is
+ * added on top from this cache.
+ *
+ * The cache is only rebuilt when the registry's lockedVersion changes, which happens when a locked body
+ * is added, removed, moved or resized. It holds a packed copy of the position and mass of each locked
+ * body and, once there are at least MIN_GRID_BODIES of them, a grid of their acceleration:
+ *
+ * 1. The grid is GRID_CELLS by GRID_CELLS cells over the locked bodies, with GRID_MARGIN of their extent
+ *    added on each side. The acceleration of every locked body is worked out at every grid corner.
+ * 2. A bilinear lookup of 1/r^2 is only good a few cells away from the body, so the locked bodies within
+ *    NEAR_CELLS cells of a cell are left out of that cell's corners and summed directly instead. Every
+ *    cell keeps its own four corner values (the full value minus its near bodies) and a packed list of
+ *    its near bodies.
+ * 3. A movable body in a cell gets the bilinear mix of the cell's corners plus the direct pull of the
+ *    cell's near bodies. Movable bodies outside the grid get the direct pull of every locked body.
+ *
+ * That way the grid only ever carries the smooth part of the field. The lookup is off by well under a
+ * percent of the pull (about 1e-5 on average), while the work per movable body is a lookup plus a few
+ * near bodies instead of every locked body. With fewer than MIN_GRID_BODIES locked bodies (like the
+ * usual single sun) the direct sum is cheaper than the lookup and exact, so no grid is built. Only the
+ * acceleration is cached, since nothing in the game reads the potential.
+ *
+ * Building the grid costs every locked body at every corner, which is about a second on one thread for
+ * a few thousand locked bodies, so it is only worth it because locked bodies hardly ever change.
+ *
+ * Building the grid and adding the pull to the movable bodies are both split into ranges and done on
+ * several threads with a TaskRunner, like the gravity solvers.
+ */
+public class LockedGravityField {
+
+    static final int MIN_GRID_BODIES = 32; //with fewer locked bodies than this, every pull is summed directly
+    static final int GRID_CELLS = 128; //cells along each side of the grid
+    static final int NEAR_CELLS = 4; //locked bodies this many cells away or closer are summed directly
+    static final float GRID_MARGIN = 0.5f; //space around the locked bodies, as a fraction of their extent
+
+    float gravityConstant; //G already scaled to world units
+
+    int count; //number of locked bodies in the cache
+    float[] x, y, mass; //packed copy of the locked bodies
+
+    int builtVersion = -1; //the registry's lockedVersion when the cache was last built
+
+    //the grid. Only used when gridBuilt is true
+    boolean gridBuilt;
+    float originX, originY, cellSize;
+    double[] nodeAx, nodeAy; //acceleration of every locked body at each corner, (GRID_CELLS + 1)^2 row major
+    //per cell, its 4 corners without its near bodies: bottom left, bottom right, top left, top right
+    float[] cornerAx, cornerAy;
+    int[] bodyCell; //the cell each locked body is in
+    int[] cellStart, cellBodies; //locked bodies by cell. cellBodies[cellStart[c]..cellStart[c + 1]-1]
+    int[] nearStart; //near bodies by cell. nearX[nearStart[c]..nearStart[c + 1]-1]
+    float[] nearX, nearY, nearMass;
+
+    TaskRunner taskRunner;
+    int threadCount;
+    Runnable[] nodeTasks, rangeTasks, targetTasks;
+    GravityKernel[] kernels; //one per thread
+
+    //read by the tasks while they run
+    BodyRegistry bodies;
+    int[] targets;
+    int targetCount;
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     * @param taskRunner runs the ranges of grid rows and movable bodies, possibly on several threads
+     */
+    public LockedGravityField(float gravityConstant, TaskRunner taskRunner) {
+        this.gravityConstant = gravityConstant;
+        this.taskRunner = taskRunner;
+        x = new float[4];
+        y = new float[4];
+        mass = new float[4];
+        bodyCell = new int[4];
+        int corners = (GRID_CELLS + 1) * (GRID_CELLS + 1);
+        nodeAx = new double[corners];
+        nodeAy = new double[corners];
+        cornerAx = new float[GRID_CELLS * GRID_CELLS * 4];
+        cornerAy = new float[GRID_CELLS * GRID_CELLS * 4];
+        cellStart = new int[GRID_CELLS * GRID_CELLS + 1];
+        nearStart = new int[GRID_CELLS * GRID_CELLS + 1];
+        cellBodies = new int[4];
+        nearX = new float[16];
+        nearY = new float[16];
+        nearMass = new float[16];
+        setThreadCount(1);
+    }
+
+    /**
+     * Sets how many ranges of grid rows and movable bodies the work is split into
+     * @param threads the number of threads to use
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        threadCount = threads;
+        nodeTasks = new Runnable[threads];
+        rangeTasks = new Runnable[threads];
+        targetTasks = new Runnable[threads];
+        kernels = new GravityKernel[threads];
+        for (int t = 0; t < threads; t++) {
+            nodeTasks[t] = new NodeTask(t);
+            rangeTasks[t] = new RangeTask(t);
+            targetTasks[t] = new TargetTask(t);
+            kernels[t] = new GravityKernel();
+        }
+    }
+
+    /**
+     * Rebuilds the cache if any locked body has changed since it was last built
+     * @param bodies the body registry
+     * @return true if the cache was rebuilt
+     */
+    public boolean update(BodyRegistry bodies) {
+        if (bodies.lockedVersion == builtVersion) {
+            return false;
+        }
+        int first = bodies.movableSize();
+        count = bodies.size() - first;
+        if (x.length < count) {
+            x = new float[count * 2];
+            y = new float[count * 2];
+            mass = new float[count * 2];
+            bodyCell = new int[count * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            x[i] = bodies.x[first + i];
+            y[i] = bodies.y[first + i];
+            mass[i] = bodies.mass[first + i];
+        }
+        gridBuilt = count >= MIN_GRID_BODIES;
+        if (gridBuilt) {
+            buildGrid();
+        }
+        builtVersion = bodies.lockedVersion;
+        return true;
+    }
+
+    /**
+     * @return the number of locked bodies in the cache
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Places the grid over the locked bodies, works out the full acceleration at every corner, sorts the
+     * locked bodies into cells and then gives every cell its near bodies and its own corner values
+     */
+    private void buildGrid() {
+        float minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < count; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        float extent = Math.max(Math.max(maxX - minX, maxY - minY), 0.001f);
+        cellSize = extent * (1 + 2 * GRID_MARGIN) / GRID_CELLS;
+        originX = (minX + maxX) / 2 - GRID_CELLS / 2 * cellSize;
+        originY = (minY + maxY) / 2 - GRID_CELLS / 2 * cellSize;
+
+        taskRunner.runAll(nodeTasks, threadCount);
+
+        //locked bodies by cell
+        int cells = GRID_CELLS * GRID_CELLS;
+        for (int c = 0; c <= cells; c++) {
+            cellStart[c] = 0;
+        }
+        for (int b = 0; b < count; b++) {
+            int i = clampCell((int) Math.floor((x[b] - originX) / cellSize));
+            int j = clampCell((int) Math.floor((y[b] - originY) / cellSize));
+            bodyCell[b] = j * GRID_CELLS + i;
+            cellStart[bodyCell[b] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        if (cellBodies.length < count) {
+            cellBodies = new int[count * 2];
+        }
+        for (int b = 0; b < count; b++) {
+            //cellStart is used as a cursor here and moved back afterwards
+            cellBodies[cellStart[bodyCell[b]]++] = b;
+        }
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+
+        //near bodies and corner values of every cell
+        int near = 0;
+        for (int j = 0; j < GRID_CELLS; j++) {
+            for (int i = 0; i < GRID_CELLS; i++) {
+                int cell = j * GRID_CELLS + i;
+                nearStart[cell] = near;
+                double ax00 = nodeAx[node(i, j)], ay00 = nodeAy[node(i, j)];
+                double ax10 = nodeAx[node(i + 1, j)], ay10 = nodeAy[node(i + 1, j)];
+                double ax01 = nodeAx[node(i, j + 1)], ay01 = nodeAy[node(i, j + 1)];
+                double ax11 = nodeAx[node(i + 1, j + 1)], ay11 = nodeAy[node(i + 1, j + 1)];
+                int lastJ = Math.min(GRID_CELLS - 1, j + NEAR_CELLS);
+                int lastI = Math.min(GRID_CELLS - 1, i + NEAR_CELLS);
+                for (int nj = Math.max(0, j - NEAR_CELLS); nj <= lastJ; nj++) {
+                    for (int ni = Math.max(0, i - NEAR_CELLS); ni <= lastI; ni++) {
+                        int other = nj * GRID_CELLS + ni;
+                        for (int k = cellStart[other]; k < cellStart[other + 1]; k++) {
+                            int b = cellBodies[k];
+                            if (near == nearX.length) {
+                                growNear();
+                            }
+                            nearX[near] = x[b];
+                            nearY[near] = y[b];
+                            nearMass[near] = mass[b];
+                            near++;
+                            //take the near body back out of the corners, at exactly the same points the
+                            //corners were summed at so that a body right next to a corner cancels out
+                            ax00 -= pullX(b, i, j);
+                            ay00 -= pullY(b, i, j);
+                            ax10 -= pullX(b, i + 1, j);
+                            ay10 -= pullY(b, i + 1, j);
+                            ax01 -= pullX(b, i, j + 1);
+                            ay01 -= pullY(b, i, j + 1);
+                            ax11 -= pullX(b, i + 1, j + 1);
+                            ay11 -= pullY(b, i + 1, j + 1);
+                        }
+                    }
+                }
+                int base = cell * 4;
+                cornerAx[base] = (float) ax00;
+                cornerAy[base] = (float) ay00;
+                cornerAx[base + 1] = (float) ax10;
+                cornerAy[base + 1] = (float) ay10;
+                cornerAx[base + 2] = (float) ax01;
+                cornerAy[base + 2] = (float) ay01;
+                cornerAx[base + 3] = (float) ax11;
+                cornerAy[base + 3] = (float) ay11;
+            }
+        }
+        nearStart[cells] = near;
+    }
+
+    private static int clampCell(int index) {
+        return Math.max(0, Math.min(index, GRID_CELLS - 1));
+    }
+
+    private static int node(int i, int j) {
+        return j * (GRID_CELLS + 1) + i;
+    }
+
+    private double nodeX(int i) {
+        return originX + (double) i * cellSize;
+    }
+
+    private double nodeY(int j) {
+        return originY + (double) j * cellSize;
+    }
+
+    /**
+     * @return the x pull of locked body b at corner i, j, without G. A body right on the corner doesn't
+     * pull, the same as in the corner sums
+     */
+    private double pullX(int b, int i, int j) {
+        double dx = x[b] - nodeX(i), dy = y[b] - nodeY(j);
+        double r2 = dx * dx + dy * dy;
+        return r2 > 0 ? mass[b] * dx / (r2 * Math.sqrt(r2)) : 0;
+    }
+
+    private double pullY(int b, int i, int j) {
+        double dx = x[b] - nodeX(i), dy = y[b] - nodeY(j);
+        double r2 = dx * dx + dy * dy;
+        return r2 > 0 ? mass[b] * dy / (r2 * Math.sqrt(r2)) : 0;
+    }
+
+    private void growNear() {
+        int capacity = nearX.length * 2;
+        float[] newX = new float[capacity], newY = new float[capacity], newMass = new float[capacity];
+        System.arraycopy(nearX, 0, newX, 0, nearX.length);
+        System.arraycopy(nearY, 0, newY, 0, nearY.length);
+        System.arraycopy(nearMass, 0, newMass, 0, nearMass.length);
+        nearX = newX;
+        nearY = newY;
+        nearMass = newMass;
+    }
+
+    /**
+     * Adds the pull of the locked bodies to the acceleration of every movable body in the registry
+     * @param bodies the body registry
+     */
+    public void addAccelerations(BodyRegistry bodies) {
+        update(bodies);
+        if (count == 0 || bodies.movableSize() == 0) {
+            return;
+        }
+        this.bodies = bodies;
+        taskRunner.runAll(rangeTasks, threadCount);
+        this.bodies = null;
+    }
+
+    /**
+     * Adds the pull of the locked bodies to the acceleration of only the given movable bodies
+     * @param bodies the body registry
+     * @param targets the slots to update
+     * @param targetCount the number of entries used in targets
+     */
+    public void addAccelerations(BodyRegistry bodies, int[] targets, int targetCount) {
+        update(bodies);
+        if (count == 0 || targetCount == 0) {
+            return;
+        }
+        this.bodies = bodies;
+        this.targets = targets;
+        this.targetCount = targetCount;
+        taskRunner.runAll(targetTasks, threadCount);
+        this.bodies = null;
+        this.targets = null;
+    }
+
+    /**
+     * Adds the pull of the locked bodies to movable body i, from the grid where it can
+     */
+    private void addAcceleration(GravityKernel kernel, int i) {
+        float px = bodies.x[i], py = bodies.y[i];
+        float[] sum = kernel.sum;
+        sum[0] = 0;
+        sum[1] = 0;
+
+        float gx = (px - originX) / cellSize;
+        float gy = (py - originY) / cellSize;
+        if (!gridBuilt || !(gx >= 0 && gx < GRID_CELLS && gy >= 0 && gy < GRID_CELLS)) {
+            kernel.addPull(px, py, 0, count, x, y, mass, sum);
+        } else {
+            int ci = Math.min((int) gx, GRID_CELLS - 1);
+            int cj = Math.min((int) gy, GRID_CELLS - 1);
+            float tx = gx - ci, ty = gy - cj;
+            int cell = cj * GRID_CELLS + ci;
+            int base = cell * 4;
+            float w00 = (1 - tx) * (1 - ty), w10 = tx * (1 - ty), w01 = (1 - tx) * ty, w11 = tx * ty;
+            sum[0] = w00 * cornerAx[base] + w10 * cornerAx[base + 1] + w01 * cornerAx[base + 2]
+                    + w11 * cornerAx[base + 3];
+            sum[1] = w00 * cornerAy[base] + w10 * cornerAy[base + 1] + w01 * cornerAy[base + 2]
+                    + w11 * cornerAy[base + 3];
+            kernel.addPull(px, py, nearStart[cell], nearStart[cell + 1], nearX, nearY, nearMass, sum);
+        }
+        bodies.ax[i] += sum[0] * gravityConstant;
+        bodies.ay[i] += sum[1] * gravityConstant;
+    }
+
+    /**
+     * Works out the full acceleration of every locked body at the corners of one range of grid rows
+     */
+    private class NodeTask implements Runnable {
+        final int part;
+
+        NodeTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int rows = GRID_CELLS + 1;
+            int start = rows * part / threadCount;
+            int end = rows * (part + 1) / threadCount;
+            for (int j = start; j < end; j++) {
+                double py = nodeY(j);
+                for (int i = 0; i <= GRID_CELLS; i++) {
+                    double px = nodeX(i);
+                    double sumX = 0, sumY = 0;
+                    for (int b = 0; b < count; b++) {
+                        double dx = x[b] - px, dy = y[b] - py;
+                        double r2 = dx * dx + dy * dy;
+                        if (r2 > 0) {
+                            double f = mass[b] / (r2 * Math.sqrt(r2));
+                            sumX += dx * f;
+                            sumY += dy * f;
+                        }
+                    }
+                    nodeAx[node(i, j)] = sumX;
+                    nodeAy[node(i, j)] = sumY;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the pull of the locked bodies to one range of movable bodies
+     */
+    private class RangeTask implements Runnable {
+        final int part;
+
+        RangeTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int movable = bodies.movableSize();
+            int start = (int) ((long) movable * part / threadCount);
+            int end = (int) ((long) movable * (part + 1) / threadCount);
+            for (int i = start; i < end; i++) {
+                addAcceleration(kernels[part], i);
+            }
+        }
+    }
+
+    /**
+     * Adds the pull of the locked bodies to one range of the target list
+     */
+    private class TargetTask implements Runnable {
+        final int part;
+
+        TargetTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int start = (int) ((long) targetCount * part / threadCount);
+            int end = (int) ((long) targetCount * (part + 1) / threadCount);
+            for (int k = start; k < end; k++) {
+                addAcceleration(kernels[part], targets[k]);
+            }
+        }
+    }
+}
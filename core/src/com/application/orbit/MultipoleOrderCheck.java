@@ -0,0 +1,144 @@
+package com.application.orbit;
+
+import java.util.Random;
+
+/**
+ * This class checks that the fast multipole solver gets more accurate with every expansion order the way
+ * FastMultipoleSolver.setOrder says it should. It builds the same scene every time (a big disk and three
+ * small clusters, from a fixed seed), works out exact gravity with the pairwise solver, and then runs the
+ * fast multipole solver at every order from MIN_ORDER to MAX_ORDER.
+ *
+ * For each order the RMS relative error (over all bodies) and the max relative error (the worst single
+ * body) are recorded. The check passes if, for both of them:
+ *
+ * 1. Every order is more accurate than the one before it.
+ * 2. On average each order makes the error at least SEPARATION times smaller.
+ *
+ * Everything is done in floats, so the error stops falling once it gets down to rounding noise. Orders
+ * that start out below PRECISION_FLOOR are left out of both tests.
+ *
+ * It only uses the solvers and plain arrays, so it can run headless (see MultipoleOrderCheckLauncher in
+ * the desktop module) as well as inside the game (the G key in GameScreen).
+ */
+public class MultipoleOrderCheck {
+
+    static final int BODIES = 2000;
+    static final long SEED = 42;
+    static final double PRECISION_FLOOR = 1e-5; //errors below this are float rounding, not the expansion
+
+    double[] rmsErrors, maxErrors; //by order
+    boolean passed;
+    StringBuilder report;
+
+    public MultipoleOrderCheck() {
+        rmsErrors = new double[FastMultipoleSolver.MAX_ORDER + 1];
+        maxErrors = new double[FastMultipoleSolver.MAX_ORDER + 1];
+        report = new StringBuilder();
+    }
+
+    /**
+     * This method runs the whole sweep and checks the results
+     * @return true if both errors fell by about SEPARATION per order
+     */
+    public boolean run() {
+        float[] x = new float[BODIES], y = new float[BODIES], mass = new float[BODIES];
+        float[] exactAx = new float[BODIES], exactAy = new float[BODIES];
+        float[] ax = new float[BODIES], ay = new float[BODIES];
+        makeScene(x, y, mass);
+
+        new PairwiseGravitySolver(1).computeAccelerations(BODIES, x, y, mass, exactAx, exactAy);
+
+        report.setLength(0);
+        FastMultipoleSolver solver = new FastMultipoleSolver(1);
+        for (int order = FastMultipoleSolver.MIN_ORDER; order <= FastMultipoleSolver.MAX_ORDER; order++) {
+            solver.setOrder(order);
+            solver.computeAccelerations(BODIES, x, y, mass, ax, ay);
+
+            double errorSum = 0, exactSum = 0, maxError = 0;
+            for (int i = 0; i < BODIES; i++) {
+                double dx = ax[i] - exactAx[i];
+                double dy = ay[i] - exactAy[i];
+                double error2 = dx * dx + dy * dy;
+                double exact2 = (double) exactAx[i] * exactAx[i] + (double) exactAy[i] * exactAy[i];
+                errorSum += error2;
+                exactSum += exact2;
+                if (exact2 > 0) {
+                    maxError = Math.max(maxError, Math.sqrt(error2 / exact2));
+                }
+            }
+            rmsErrors[order] = exactSum > 0 ? Math.sqrt(errorSum / exactSum) : 0;
+            maxErrors[order] = maxError;
+            report.append("order ").append(order).append(": rms = ").append(rmsErrors[order])
+                    .append(", max = ").append(maxErrors[order]).append('\n');
+        }
+
+        boolean rmsFalls = checkFalls("rms", rmsErrors);
+        boolean maxFalls = checkFalls("max", maxErrors);
+        passed = rmsFalls && maxFalls;
+        report.append(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /**
+     * Checks that errors fall with every order and by at least SEPARATION per order on average, and adds
+     * the outcome to the report
+     */
+    private boolean checkFalls(String name, double[] errors) {
+        boolean falls = true;
+        double logRatioSum = 0;
+        int steps = 0;
+        for (int order = FastMultipoleSolver.MIN_ORDER + 1; order <= FastMultipoleSolver.MAX_ORDER; order++) {
+            if (errors[order - 1] < PRECISION_FLOOR) {
+                break;
+            }
+            double ratio = errors[order] / errors[order - 1];
+            if (!(ratio < 1)) {
+                falls = false;
+                report.append(name).append(" error didn't fall from order ").append(order - 1).append(" to ")
+                        .append(order).append('\n');
+            }
+            logRatioSum += Math.log(ratio);
+            steps++;
+        }
+
+        double averageRatio = steps > 0 ? Math.exp(logRatioSum / steps) : 0;
+        report.append(name).append(" error falls by ").append(averageRatio).append(" per order over ")
+                .append(steps).append(" orders (should be at most ").append(FastMultipoleSolver.SEPARATION)
+                .append(")\n");
+        return falls && steps > 0 && averageRatio <= FastMultipoleSolver.SEPARATION;
+    }
+
+    /**
+     * Fills in the fixed scene: half the bodies in a big disk and the rest in three small clusters around
+     * it, so that the solver has both near and far cells to deal with
+     */
+    private static void makeScene(float[] x, float[] y, float[] mass) {
+        Random random = new Random(SEED);
+        float[] centerX = {0, 300, -200, 50};
+        float[] centerY = {0, 100, 250, -300};
+        float[] radius = {150, 40, 40, 40};
+        for (int i = 0; i < BODIES; i++) {
+            //every other body goes in the disk
+            int cluster = i % 2 == 0 ? 0 : 1 + (i / 2) % 3;
+            double r = radius[cluster] * Math.sqrt(random.nextDouble());
+            double angle = random.nextDouble() * 2 * Math.PI;
+            x[i] = (float) (centerX[cluster] + r * Math.cos(angle));
+            y[i] = (float) (centerY[cluster] + r * Math.sin(angle));
+            mass[i] = 1 + random.nextInt(10);
+        }
+    }
+
+    /**
+     * @return true if the last run passed
+     */
+    public boolean hasPassed() {
+        return passed;
+    }
+
+    /**
+     * @return the errors of every order and the outcome of the last run, one line each
+     */
+    public String getReport() {
+        return report.toString();
+    }
+}
@@ -0,0 +1,262 @@
+package com.application.orbit;
+
+/**
+ * This class moves whole scenes forward in time without stepping, for time warp. When every body in a
+ * scene is on a clean orbit around one dominant body (the star), each body's position at any later time
+ * is given exactly by its Kepler orbit (see KeplerDrift). So a jump of any length costs the same as one
+ * step, and high time warp doesn't need thousands of steps per frame.
+ *
+ * A body is "on rails" when
+ * - its orbit around the star is an ellipse (it isn't escaping)
+ * - its closest approach to the star doesn't touch the star
+ * - the ring its orbit sweeps out (periapsis to apoapsis) stays HILL_RADII_GAP Hill radii away from the
+ *   ring of every other body, so no perturber can ever come close to it while it follows the rails
+ * Test particles have to pass the same checks against the bodies, but they don't pull on anything so
+ * they don't need to stay away from each other.
+ *
+ * If even one body or particle is off rails the scene is stepped normally instead (see
+ * GameScreen.doPhysicsStep), since the bodies off rails would need every step anyway. The checks are
+ * made again every frame, so a scene goes back to normal steps as soon as something is put on a crossing
+ * orbit, and back on rails once the orbits are clean again.
+ *
+ * The star's pull is the only force on rails. With a locked star each body follows its own orbit around
+ * it. A movable star is moved so that the centre of mass keeps moving in a straight line, and each body
+ * uses the two body orbit with G(star + body), which is exact for one planet. The pull of the bodies on
+ * each other is left out, which the Hill radius gap keeps small.
+ */
+public class OnRailsPropagator {
+
+    static final float HILL_RADII_GAP = 5; //how far apart orbits have to stay, in Hill radii of the heavier body
+
+    double gravityConstant; //G already scaled to world units
+
+    double[] periapsis, apoapsis, hillRadius; //the ring each body's orbit sweeps out
+    double[] qx, qy, ux, uy; //new positions and velocities relative to the star, kept until every drift worked
+    double[] state; //x, y, vx, vy handed to KeplerDrift
+
+    public OnRailsPropagator(float gravityConstant) {
+        this.gravityConstant = gravityConstant;
+        allocate(16);
+        state = new double[4];
+    }
+
+    /**
+     * This method checks whether every body and test particle is on rails around the star
+     * @param bodies the bodies in the scene. The doubles must be up to date
+     * @param particles the test particles in the scene
+     * @param star the slot of the dominant body (see WisdomHolmanIntegrator.findDominantBody)
+     * @return true if the whole scene can be moved by propagate
+     */
+    public boolean canPropagate(BodyRegistry bodies, TestParticles particles, int star) {
+        int count = bodies.size();
+        if (periapsis.length <= count) {
+            allocate(count * 2);
+        }
+        double[] px = bodies.preciseX, py = bodies.preciseY;
+        double[] pvx = bodies.preciseVx, pvy = bodies.preciseVy;
+        float[] mass = bodies.mass, radius = bodies.radius;
+        int movable = bodies.movableSize();
+        double starMass = mass[star];
+        double starVx = pvx[star], starVy = pvy[star];
+        if (star >= movable) {
+            starVx = 0;
+            starVy = 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (i == star) {
+                continue;
+            }
+            double dx = px[i] - px[star], dy = py[i] - py[star];
+            if (i >= movable) {
+                //a locked body never moves, so its ring is a circle
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                periapsis[i] = distance;
+                apoapsis[i] = distance;
+            } else {
+                double mu = gravityConstant * (star >= movable ? starMass : starMass + mass[i]);
+                if (!findRing(i, mu, dx, dy, pvx[i] - starVx, pvy[i] - starVy)) {
+                    return false;
+                }
+                if (periapsis[i] <= radius[star] + radius[i]) {
+                    return false; //it would hit the star
+                }
+            }
+            double semiMajorAxis = (periapsis[i] + apoapsis[i]) / 2;
+            hillRadius[i] = semiMajorAxis * Math.pow(mass[i] / (3 * starMass), 1 / 3.0);
+        }
+
+        //every pair of rings has to stay apart. pairs of locked bodies can't meet, so they aren't checked
+        for (int i = 0; i < movable; i++) {
+            if (i == star) {
+                continue;
+            }
+            for (int j = i + 1; j < count; j++) {
+                if (j == star) {
+                    continue;
+                }
+                double gap = Math.max(periapsis[j] - apoapsis[i], periapsis[i] - apoapsis[j]);
+                double needed = HILL_RADII_GAP * Math.max(hillRadius[i], hillRadius[j]) + radius[i] + radius[j];
+                if (gap < needed) {
+                    return false;
+                }
+            }
+        }
+
+        //test particles only have to stay away from the bodies
+        double particleMu = gravityConstant * starMass;
+        float[] x = particles.x, y = particles.y, vx = particles.vx, vy = particles.vy;
+        for (int p = 0; p < particles.size(); p++) {
+            if (!findRing(count, particleMu, x[p] - px[star], y[p] - py[star], vx[p] - starVx, vy[p] - starVy)) {
+                return false;
+            }
+            double particlePeriapsis = periapsis[count], particleApoapsis = apoapsis[count];
+            if (particlePeriapsis <= radius[star]) {
+                return false;
+            }
+            for (int j = 0; j < count; j++) {
+                if (j == star) {
+                    continue;
+                }
+                double gap = Math.max(periapsis[j] - particleApoapsis, particlePeriapsis - apoapsis[j]);
+                if (gap < HILL_RADII_GAP * hillRadius[j] + radius[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method works out the closest and furthest distance from the star of an orbit and stores them
+     * in periapsis[index] and apoapsis[index]
+     * @return false if the orbit isn't an ellipse
+     */
+    private boolean findRing(int index, double mu, double dx, double dy, double dvx, double dvy) {
+        double r = Math.sqrt(dx * dx + dy * dy);
+        if (r <= 0) {
+            return false;
+        }
+        double alpha = 2 / r - (dvx * dvx + dvy * dvy) / mu; //1 / semi-major axis
+        if (alpha <= 0) {
+            return false; //escaping
+        }
+        double semiMajorAxis = 1 / alpha;
+        double angularMomentum = dx * dvy - dy * dvx;
+        double eccentricity = Math.sqrt(Math.max(0, 1 - angularMomentum * angularMomentum * alpha / mu));
+        periapsis[index] = semiMajorAxis * (1 - eccentricity);
+        apoapsis[index] = semiMajorAxis * (1 + eccentricity);
+        return true;
+    }
+
+    /**
+     * This method moves every body and test particle along its orbit around the star. Call canPropagate
+     * first. Box2D is updated directly, so there are no collisions (the checks make sure there can't be
+     * any).
+     * @param bodies the bodies in the scene. The doubles must be up to date
+     * @param particles the test particles in the scene
+     * @param star the slot of the dominant body
+     * @param time the amount of time to move by
+     * @return false if an orbit couldn't be solved. Nothing is moved in that case
+     */
+    public boolean propagate(BodyRegistry bodies, TestParticles particles, int star, double time) {
+        int count = bodies.size();
+        int movable = bodies.movableSize();
+        if (qx.length < count) {
+            allocate(count * 2);
+        }
+        double[] px = bodies.preciseX, py = bodies.preciseY;
+        double[] pvx = bodies.preciseVx, pvy = bodies.preciseVy;
+        float[] mass = bodies.mass;
+        boolean lockedStar = star >= movable;
+        double starMass = mass[star];
+        double starX = px[star], starY = py[star];
+        double starVx = lockedStar ? 0 : pvx[star], starVy = lockedStar ? 0 : pvy[star];
+
+        //every orbit is solved before anything is changed
+        for (int i = 0; i < movable; i++) {
+            if (i == star) {
+                continue;
+            }
+            state[0] = px[i] - starX;
+            state[1] = py[i] - starY;
+            state[2] = pvx[i] - starVx;
+            state[3] = pvy[i] - starVy;
+            double mu = gravityConstant * (lockedStar ? starMass : starMass + mass[i]);
+            if (!KeplerDrift.drift(mu, time, state)) {
+                return false;
+            }
+            qx[i] = state[0];
+            qy[i] = state[1];
+            ux[i] = state[2];
+            uy[i] = state[3];
+        }
+
+        //a movable star goes wherever keeps the centre of mass moving in a straight line
+        double newStarX = starX, newStarY = starY, newStarVx = starVx, newStarVy = starVy;
+        if (!lockedStar) {
+            double totalMass = 0, centreX = 0, centreY = 0, centreVx = 0, centreVy = 0;
+            double sumQx = 0, sumQy = 0, sumUx = 0, sumUy = 0;
+            for (int i = 0; i < movable; i++) {
+                totalMass += mass[i];
+                centreX += mass[i] * px[i];
+                centreY += mass[i] * py[i];
+                centreVx += mass[i] * pvx[i];
+                centreVy += mass[i] * pvy[i];
+                if (i != star) {
+                    sumQx += mass[i] * qx[i];
+                    sumQy += mass[i] * qy[i];
+                    sumUx += mass[i] * ux[i];
+                    sumUy += mass[i] * uy[i];
+                }
+            }
+            centreVx /= totalMass;
+            centreVy /= totalMass;
+            newStarX = (centreX - sumQx) / totalMass + centreVx * time;
+            newStarY = (centreY - sumQy) / totalMass + centreVy * time;
+            newStarVx = centreVx - sumUx / totalMass;
+            newStarVy = centreVy - sumUy / totalMass;
+            px[star] = newStarX;
+            py[star] = newStarY;
+            pvx[star] = newStarVx;
+            pvy[star] = newStarVy;
+        }
+        for (int i = 0; i < movable; i++) {
+            if (i != star) {
+                px[i] = newStarX + qx[i];
+                py[i] = newStarY + qy[i];
+                pvx[i] = newStarVx + ux[i];
+                pvy[i] = newStarVy + uy[i];
+            }
+        }
+        bodies.pushPrecise();
+
+        //particles are massless, so they just orbit the star. one that can't be solved is left where it is
+        double particleMu = gravityConstant * starMass;
+        float[] x = particles.x, y = particles.y, vx = particles.vx, vy = particles.vy;
+        for (int p = 0; p < particles.size(); p++) {
+            state[0] = x[p] - starX;
+            state[1] = y[p] - starY;
+            state[2] = vx[p] - starVx;
+            state[3] = vy[p] - starVy;
+            if (KeplerDrift.drift(particleMu, time, state)) {
+                x[p] = (float) (newStarX + state[0]);
+                y[p] = (float) (newStarY + state[1]);
+                vx[p] = (float) (newStarVx + state[2]);
+                vy[p] = (float) (newStarVy + state[3]);
+            }
+        }
+        return true;
+    }
+
+    private void allocate(int capacity) {
+        //one extra entry is used for the test particle being checked
+        periapsis = new double[capacity + 1];
+        apoapsis = new double[capacity + 1];
+        hillRadius = new double[capacity + 1];
+        qx = new double[capacity];
+        qy = new double[capacity];
+        ux = new double[capacity];
+        uy = new double[capacity];
+    }
+}
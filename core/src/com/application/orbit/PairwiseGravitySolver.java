@@ -0,0 +1,80 @@
+package com.application.orbit;
+
+/**
+ * This class calculates exact gravity by looking at every pair of bodies. Each pair is only looked at
+ * once. Because of Newton's third law the force body i feels from body j is equal and opposite to the
+ * force body j feels from body i, so both accelerations are added from the same distance calculation.
+ */
+public class PairwiseGravitySolver implements GravitySolver {
+
+    float gravityConstant; //G already scaled to world units
+    GravityKernel kernel; //inner loops and their scratch arrays
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     */
+    public PairwiseGravitySolver(float gravityConstant) {
+        this.gravityConstant = gravityConstant;
+        kernel = new GravityKernel();
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        for (int i = 0; i < count; i++) {
+            ax[i] = 0;
+            ay[i] = 0;
+        }
+
+        accumulateRows(kernel, 0, count, count, x, y, mass, ax, ay);
+
+        for (int i = 0; i < count; i++) {
+            ax[i] *= gravityConstant;
+            ay[i] *= gravityConstant;
+        }
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                                     float[] ax, float[] ay) {
+        for (int t = 0; t < targetCount; t++) {
+            computeTarget(kernel, targets[t], count, x, y, mass, ax, ay, gravityConstant);
+        }
+    }
+
+    /**
+     * Calculates the acceleration of body i by adding the pull of every other body. This can't share the
+     * work between pairs, but only touches body i so it is used when only a few bodies need updating.
+     * @param kernel the kernel (and scratch arrays) to use. Each thread needs its own
+     */
+    static void computeTarget(GravityKernel kernel, int i, int count, float[] x, float[] y, float[] mass,
+                              float[] ax, float[] ay, float gravityConstant) {
+        float[] sum = kernel.sum;
+        sum[0] = 0;
+        sum[1] = 0;
+
+        //every body before and after body i
+        kernel.addPull(x[i], y[i], 0, i, x, y, mass, sum);
+        kernel.addPull(x[i], y[i], i + 1, count, x, y, mass, sum);
+
+        ax[i] = sum[0] * gravityConstant;
+        ay[i] = sum[1] * gravityConstant;
+    }
+
+    /**
+     * Adds the pull between body i and every body j > i for the rows rowStart <= i < rowEnd. The results
+     * are added to ax and ay without G so that different row ranges can be summed separately. Each row is
+     * done by the kernel in tiles that the JIT can turn into SIMD instructions.
+     * @param kernel the kernel (and scratch arrays) to use. Each thread needs its own
+     */
+    static void accumulateRows(GravityKernel kernel, int rowStart, int rowEnd, int count, float[] x,
+                               float[] y, float[] mass, float[] ax, float[] ay) {
+        float[] sum = kernel.sum;
+        for (int i = rowStart; i < rowEnd; i++) {
+            sum[0] = 0;
+            sum[1] = 0;
+            kernel.addRowPulls(i, i + 1, count, x, y, mass, ax, ay, sum);
+            ax[i] += sum[0];
+            ay[i] += sum[1];
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.application.orbit;
+
+/**
+ * This class calculates the same exact gravity as PairwiseGravitySolver but splits the work across
+ * several threads using a TaskRunner.
+ *
+ * The rows of the pair triangle are split into one chunk per thread so that each chunk has about the
+ * same number of pairs. Every chunk adds its results into its own buffer, so threads never write to
+ * the same memory. The buffers are then added together in chunk order. Since the split only depends on
+ * the number of bodies and the thread count, the result is exactly the same every time for a given
+ * thread count, no matter which thread finishes first.
+ */
+public class ParallelPairwiseSolver implements GravitySolver {
+
+    float gravityConstant; //G already scaled to world units
+    TaskRunner taskRunner;
+    int threadCount;
+
+    int[] chunkStart; //first row of each chunk. chunk c covers rows chunkStart[c]..chunkStart[c+1]-1
+    float[][] bufferX, bufferY; //one acceleration buffer per chunk
+    Runnable[] pairTasks, reduceTasks, targetTasks;
+
+    //arguments of the current computeAccelerations call, read by the tasks
+    int count;
+    float[] x, y, mass, ax, ay;
+    int[] targets;
+    int targetCount;
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     * @param taskRunner runs the chunks, possibly on several threads
+     */
+    public ParallelPairwiseSolver(float gravityConstant, TaskRunner taskRunner) {
+        this.gravityConstant = gravityConstant;
+        this.taskRunner = taskRunner;
+        setThreadCount(1);
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets how many chunks the work is split into. Results are identical for the same thread count.
+     * @param threads the number of threads to use
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        threadCount = threads;
+
+        chunkStart = new int[threads + 1];
+        bufferX = new float[threads][];
+        bufferY = new float[threads][];
+        pairTasks = new Runnable[threads];
+        reduceTasks = new Runnable[threads];
+        targetTasks = new Runnable[threads];
+        for (int c = 0; c < threads; c++) {
+            bufferX[c] = new float[0];
+            bufferY[c] = new float[0];
+            pairTasks[c] = new PairTask(c);
+            reduceTasks[c] = new ReduceTask(c);
+            targetTasks[c] = new TargetTask(c);
+        }
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        this.count = count;
+        this.x = x;
+        this.y = y;
+        this.mass = mass;
+        this.ax = ax;
+        this.ay = ay;
+
+        splitRows(count);
+
+        taskRunner.runAll(pairTasks, threadCount);
+        taskRunner.runAll(reduceTasks, threadCount);
+
+        //don't hold on to the caller's arrays
+        this.x = this.y = this.mass = this.ax = this.ay = null;
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                                     float[] ax, float[] ay) {
+        this.count = count;
+        this.x = x;
+        this.y = y;
+        this.mass = mass;
+        this.ax = ax;
+        this.ay = ay;
+        this.targets = targets;
+        this.targetCount = targetCount;
+
+        //each target is only written by the task that owns it, so no buffers are needed
+        taskRunner.runAll(targetTasks, threadCount);
+
+        this.x = this.y = this.mass = this.ax = this.ay = null;
+        this.targets = null;
+    }
+
+    /**
+     * Finds the chunk boundaries so that every chunk gets about the same number of pairs. Row i has
+     * count - 1 - i pairs, so early rows are longer than late rows.
+     */
+    private void splitRows(int count) {
+        long totalPairs = (long) count * (count - 1) / 2;
+        long pairs = 0;
+        int row = 0;
+        chunkStart[0] = 0;
+        for (int c = 1; c < threadCount; c++) {
+            long target = totalPairs * c / threadCount;
+            while (row < count && pairs < target) {
+                pairs += count - 1 - row;
+                row++;
+            }
+            chunkStart[c] = row;
+        }
+        chunkStart[threadCount] = count;
+    }
+
+    /**
+     * Adds up the pairs for one chunk of rows into that chunk's buffer
+     */
+    private class PairTask implements Runnable {
+        final int chunk;
+        final GravityKernel kernel = new GravityKernel();
+
+        PairTask(int chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void run() {
+            if (bufferX[chunk].length < count) {
+                bufferX[chunk] = new float[count * 2];
+                bufferY[chunk] = new float[count * 2];
+            }
+            float[] bx = bufferX[chunk];
+            float[] by = bufferY[chunk];
+
+            //rows only ever touch bodies at or after their own index
+            int first = chunkStart[chunk];
+            for (int i = first; i < count; i++) {
+                bx[i] = 0;
+                by[i] = 0;
+            }
+
+            PairwiseGravitySolver.accumulateRows(kernel, first, chunkStart[chunk + 1], count, x, y, mass,
+                    bx, by);
+        }
+    }
+
+    /**
+     * Calculates the acceleration of one range of the targets
+     */
+    private class TargetTask implements Runnable {
+        final int part;
+        final GravityKernel kernel = new GravityKernel();
+
+        TargetTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int start = (int) ((long) targetCount * part / threadCount);
+            int end = (int) ((long) targetCount * (part + 1) / threadCount);
+            for (int t = start; t < end; t++) {
+                PairwiseGravitySolver.computeTarget(kernel, targets[t], count, x, y, mass, ax, ay, gravityConstant);
+            }
+        }
+    }
+
+    /**
+     * Adds the chunk buffers together, always in the same order, for one range of bodies
+     */
+    private class ReduceTask implements Runnable {
+        final int part;
+
+        ReduceTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int start = (int) ((long) count * part / threadCount);
+            int end = (int) ((long) count * (part + 1) / threadCount);
+            for (int i = start; i < end; i++) {
+                float sumX = 0, sumY = 0;
+                for (int c = 0; c < threadCount && chunkStart[c] <= i; c++) {
+                    sumX += bufferX[c][i];
+                    sumY += bufferY[c][i];
+                }
+                ax[i] = sumX * gravityConstant;
+                ay[i] = sumY * gravityConstant;
+            }
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.application.orbit;
+
+/**
+ * This class approximates gravity with the particle-mesh (PM) method. It is meant for scenes where the
+ * mass is spread out smoothly over lots of bodies, like stacked body matrices or disks.
+ *
+ * 1. Every body's mass is spread over the 4 grid cells closest to it (cloud-in-cell).
+ * 2. The potential of the whole grid is found by convolving the mass grid with 1/r. This is done
+ *    with FFTs: transform the masses, multiply by the transform of 1/r, transform back. The grid is
+ *    padded with zeros to twice its size so that the FFT doesn't wrap the gravity of one edge around
+ *    to the other (this gives isolated gravity instead of a repeating universe).
+ * 3. The acceleration at every cell is the gradient of the potential (central differences).
+ * 4. Every body reads its acceleration from the same 4 cells it spread its mass onto.
+ *
+ * The cost is O(n + g^2 log g) for a g by g grid, so it barely depends on the number of bodies.
+ * Gravity is smoothed out over about two cells, so bodies closer together than that don't pull on each
+ * other properly. Exact or tree gravity is better for scenes with close encounters.
+ *
+ * The grid only covers the bulk of the bodies. On each side a few of the furthest bodies (at most
+ * OUTLIER_FRACTION of them and never more than MAX_OUTLIERS_PER_SIDE) can be left off the grid, so a
+ * single body flying away doesn't stretch the cells until the rest of the scene fits in a handful of
+ * them. Bodies off the grid get their gravity by direct summation: they feel every body, and every body
+ * on the grid feels them. There are only a few of them, so this costs about as much as the interpolation.
+ *
+ * The FFT passes over rows and columns are independent, so they are split across threads with a
+ * TaskRunner.
+ */
+public class ParticleMeshSolver implements GravitySolver {
+
+    static final int DEFAULT_GRID_SIZE = 256;
+    static final int MIN_GRID_SIZE = 32;
+    static final int MAX_GRID_SIZE = 1024;
+    static final float DEFAULT_PADDING = 0.1f;
+    static final float MAX_PADDING = 2f;
+    static final int EDGE_CELLS = 2; //empty cells kept around the bodies so the stencils never leave the grid
+    static final float SELF_POTENTIAL = 3.5255f; //average of 1/r over a square cell of size 1, seen from its center
+    static final float OUTLIER_FRACTION = 0.005f; //share of the bodies on each side that can be left off the grid
+    static final int MAX_OUTLIERS_PER_SIDE = 16;
+
+    float gravityConstant; //G already scaled to world units
+    int gridSize; //cells along each side of the grid the bodies are in
+    int fftSize; //twice gridSize, for the zero padding
+    float padding; //extra space around the bodies, as a fraction of their extent
+
+    Fft fft;
+    float[] greenTransform; //transform of 1/r in cell units. It is real because 1/r is symmetric
+    float[] re, im; //fftSize by fftSize work grid. Row major
+    float[] fieldX, fieldY; //gradient of the potential at every cell of the gridSize grid
+
+    //grid position for this step
+    float originX, originY, cellSize;
+
+    TaskRunner taskRunner;
+    int threadCount;
+    Runnable[] rowTasks, columnTasks, inverseRowTasks;
+    float[][] columnRe, columnIm; //one column buffer per thread
+
+    float[] allAx, allAy;
+
+    //bodies left off the grid this step
+    int[] outliers;
+    int outlierCount;
+    float[] outlierX, outlierY, outlierMass;
+    float[] sorted; //scratch for finding where the bulk of the bodies ends
+    GravityKernel kernel;
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     * @param taskRunner runs the FFT passes, possibly on several threads
+     */
+    public ParticleMeshSolver(float gravityConstant, TaskRunner taskRunner) {
+        this.gravityConstant = gravityConstant;
+        this.taskRunner = taskRunner;
+        padding = DEFAULT_PADDING;
+        allAx = new float[16];
+        allAy = new float[16];
+        outliers = new int[4 * MAX_OUTLIERS_PER_SIDE];
+        outlierX = new float[outliers.length];
+        outlierY = new float[outliers.length];
+        outlierMass = new float[outliers.length];
+        sorted = new float[16];
+        kernel = new GravityKernel();
+        setGridSize(DEFAULT_GRID_SIZE);
+        setThreadCount(1);
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Sets the resolution of the grid. Finer grids resolve smaller structures but cost more.
+     * @param size cells along each side. Rounded up to a power of two between MIN_GRID_SIZE and MAX_GRID_SIZE
+     */
+    public void setGridSize(int size) {
+        size = Math.max(MIN_GRID_SIZE, Math.min(size, MAX_GRID_SIZE));
+        int powerOfTwo = MIN_GRID_SIZE;
+        while (powerOfTwo < size) {
+            powerOfTwo *= 2;
+        }
+        if (powerOfTwo == gridSize) {
+            return;
+        }
+
+        gridSize = powerOfTwo;
+        fftSize = gridSize * 2;
+        fft = new Fft(fftSize);
+        re = new float[fftSize * fftSize];
+        im = new float[fftSize * fftSize];
+        fieldX = new float[gridSize * gridSize];
+        fieldY = new float[gridSize * gridSize];
+        buildGreenTransform();
+        if (threadCount > 0) {
+            setThreadCount(threadCount);
+        }
+    }
+
+    public float getPadding() {
+        return padding;
+    }
+
+    /**
+     * Sets how much empty space the grid keeps around the bodies. More padding leaves room for bodies to
+     * spread out but makes the cells bigger.
+     * @param padding extra space on each side as a fraction of the bodies' extent
+     */
+    public void setPadding(float padding) {
+        this.padding = Math.max(0, Math.min(padding, MAX_PADDING));
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets how many ranges of rows and columns the FFT passes are split into
+     * @param threads the number of threads to use
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        threadCount = threads;
+        rowTasks = new Runnable[threads];
+        columnTasks = new Runnable[threads];
+        inverseRowTasks = new Runnable[threads];
+        columnRe = new float[threads][fftSize];
+        columnIm = new float[threads][fftSize];
+        for (int t = 0; t < threads; t++) {
+            rowTasks[t] = new RowTask(t, false);
+            columnTasks[t] = new ColumnTask(t);
+            inverseRowTasks[t] = new RowTask(t, true);
+        }
+    }
+
+    /**
+     * Fills greenTransform with the 2D transform of 1/r, where r is measured in cells. Offsets past
+     * half the padded grid are negative offsets that wrapped around.
+     */
+    private void buildGreenTransform() {
+        for (int row = 0; row < fftSize; row++) {
+            int dy = row <= gridSize ? row : fftSize - row;
+            for (int column = 0; column < fftSize; column++) {
+                int dx = column <= gridSize ? column : fftSize - column;
+                int k = row * fftSize + column;
+                re[k] = dx == 0 && dy == 0 ? SELF_POTENTIAL : 1 / (float) Math.sqrt(dx * dx + dy * dy);
+                im[k] = 0;
+            }
+        }
+
+        float[] lineRe = new float[fftSize];
+        float[] lineIm = new float[fftSize];
+        for (int row = 0; row < fftSize; row++) {
+            transformRow(row, lineRe, lineIm, false);
+        }
+        for (int column = 0; column < fftSize; column++) {
+            transformColumn(column, lineRe, lineIm, false);
+        }
+
+        greenTransform = new float[fftSize * fftSize];
+        System.arraycopy(re, 0, greenTransform, 0, greenTransform.length);
+    }
+
+    private void transformRow(int row, float[] lineRe, float[] lineIm, boolean inverse) {
+        int base = row * fftSize;
+        System.arraycopy(re, base, lineRe, 0, fftSize);
+        System.arraycopy(im, base, lineIm, 0, fftSize);
+        fft.transform(lineRe, lineIm, inverse);
+        System.arraycopy(lineRe, 0, re, base, fftSize);
+        System.arraycopy(lineIm, 0, im, base, fftSize);
+    }
+
+    private void transformColumn(int column, float[] lineRe, float[] lineIm, boolean inverse) {
+        for (int row = 0; row < fftSize; row++) {
+            lineRe[row] = re[row * fftSize + column];
+            lineIm[row] = im[row * fftSize + column];
+        }
+        fft.transform(lineRe, lineIm, inverse);
+        for (int row = 0; row < fftSize; row++) {
+            re[row * fftSize + column] = lineRe[row];
+            im[row * fftSize + column] = lineIm[row];
+        }
+    }
+
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        if (count == 0) {
+            return;
+        }
+
+        placeGrid(count, x, y, mass);
+        assignMass(count, x, y, mass);
+
+        //potential = masses convolved with 1/r
+        taskRunner.runAll(rowTasks, threadCount);
+        taskRunner.runAll(columnTasks, threadCount);
+        taskRunner.runAll(inverseRowTasks, threadCount);
+
+        computeField();
+        interpolateField(count, x, y, ax, ay);
+        addOutlierGravity(count, x, y, mass, ax, ay);
+    }
+
+    /**
+     * The whole grid has to be solved no matter how many bodies are needed, so everyone is calculated
+     * and only the targets are copied out
+     */
+    @Override
+    public void computeAccelerations(int count, float[] x, float[] y, float[] mass, int[] targets, int targetCount,
+                                     float[] ax, float[] ay) {
+        if (allAx.length < count) {
+            allAx = new float[count * 2];
+            allAy = new float[count * 2];
+        }
+        computeAccelerations(count, x, y, mass, allAx, allAy);
+        for (int t = 0; t < targetCount; t++) {
+            int i = targets[t];
+            ax[i] = allAx[i];
+            ay[i] = allAy[i];
+        }
+    }
+
+    /**
+     * Fits the grid around the bulk of the bodies with the padding on each side plus EDGE_CELLS empty
+     * cells, then makes a list of the bodies that didn't fit
+     */
+    private void placeGrid(int count, float[] x, float[] y, float[] mass) {
+        int skip = Math.min((int) (count * OUTLIER_FRACTION), MAX_OUTLIERS_PER_SIDE);
+        if (sorted.length < count) {
+            sorted = new float[count * 2];
+        }
+        System.arraycopy(x, 0, sorted, 0, count);
+        float minX = select(sorted, count, skip);
+        float maxX = select(sorted, count, count - 1 - skip);
+        System.arraycopy(y, 0, sorted, 0, count);
+        float minY = select(sorted, count, skip);
+        float maxY = select(sorted, count, count - 1 - skip);
+
+        float extent = Math.max(Math.max(maxX - minX, maxY - minY), 0.001f) * (1 + 2 * padding);
+        cellSize = extent / (gridSize - 2 * EDGE_CELLS - 1);
+        originX = (minX + maxX) / 2 - gridSize / 2 * cellSize;
+        originY = (minY + maxY) / 2 - gridSize / 2 * cellSize;
+
+        //the padding can still take in some of the skipped bodies
+        outlierCount = 0;
+        for (int b = 0; b < count; b++) {
+            if (!isOnGrid(x[b], y[b])) {
+                if (outlierCount == outliers.length) {
+                    growOutliers();
+                }
+                outliers[outlierCount] = b;
+                outlierX[outlierCount] = x[b];
+                outlierY[outlierCount] = y[b];
+                outlierMass[outlierCount] = mass[b];
+                outlierCount++;
+            }
+        }
+    }
+
+    /**
+     * @return true if the point is far enough inside the grid that its 4 cells and their neighbours are on it
+     */
+    private boolean isOnGrid(float x, float y) {
+        float gx = (x - originX) / cellSize;
+        float gy = (y - originY) / cellSize;
+        return gx >= EDGE_CELLS && gx <= gridSize - EDGE_CELLS && gy >= EDGE_CELLS && gy <= gridSize - EDGE_CELLS;
+    }
+
+    /**
+     * Finds the k-th smallest of the first count values (quickselect). The values are reordered.
+     */
+    private static float select(float[] values, int count, int k) {
+        int low = 0, high = count - 1;
+        while (low < high) {
+            float pivot = values[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    float swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            //everything up to j is <= pivot and everything from i on is >= pivot
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+
+    private void growOutliers() {
+        int capacity = outliers.length * 2;
+        int[] newOutliers = new int[capacity];
+        float[] newX = new float[capacity], newY = new float[capacity], newMass = new float[capacity];
+        System.arraycopy(outliers, 0, newOutliers, 0, outlierCount);
+        System.arraycopy(outlierX, 0, newX, 0, outlierCount);
+        System.arraycopy(outlierY, 0, newY, 0, outlierCount);
+        System.arraycopy(outlierMass, 0, newMass, 0, outlierCount);
+        outliers = newOutliers;
+        outlierX = newX;
+        outlierY = newY;
+        outlierMass = newMass;
+    }
+
+    /**
+     * Clears the work grid and spreads every body's mass over its 4 closest cells. Cell (i, j) has its
+     * center at origin + (i + 0.5, j + 0.5) * cellSize.
+     */
+    private void assignMass(int count, float[] x, float[] y, float[] mass) {
+        for (int k = 0; k < re.length; k++) {
+            re[k] = 0;
+            im[k] = 0;
+        }
+
+        for (int b = 0; b < count; b++) {
+            if (!isOnGrid(x[b], y[b])) {
+                continue;
+            }
+            float gx = (x[b] - originX) / cellSize - 0.5f;
+            float gy = (y[b] - originY) / cellSize - 0.5f;
+            int i = (int) Math.floor(gx);
+            int j = (int) Math.floor(gy);
+            float tx = gx - i;
+            float ty = gy - j;
+            int k = j * fftSize + i;
+            float m = mass[b];
+            re[k] += m * (1 - tx) * (1 - ty);
+            re[k + 1] += m * tx * (1 - ty);
+            re[k + fftSize] += m * (1 - tx) * ty;
+            re[k + fftSize + 1] += m * tx * ty;
+        }
+    }
+
+    /**
+     * Transforms one range of rows. Only the first gridSize rows can hold mass (and only those rows of
+     * the potential are needed), so the padding rows are skipped.
+     */
+    private class RowTask implements Runnable {
+        final int part;
+        final boolean inverse;
+
+        RowTask(int part, boolean inverse) {
+            this.part = part;
+            this.inverse = inverse;
+        }
+
+        @Override
+        public void run() {
+            int start = gridSize * part / threadCount;
+            int end = gridSize * (part + 1) / threadCount;
+            for (int row = start; row < end; row++) {
+                transformRow(row, columnRe[part], columnIm[part], inverse);
+            }
+        }
+    }
+
+    /**
+     * For one range of columns: forward transform, multiply by the transform of 1/r, then inverse
+     * transform. Doing all three while the column is loaded saves going over the grid twice more.
+     */
+    private class ColumnTask implements Runnable {
+        final int part;
+
+        ColumnTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            float[] lineRe = columnRe[part];
+            float[] lineIm = columnIm[part];
+            int start = fftSize * part / threadCount;
+            int end = fftSize * (part + 1) / threadCount;
+            for (int column = start; column < end; column++) {
+                for (int row = 0; row < fftSize; row++) {
+                    lineRe[row] = re[row * fftSize + column];
+                    lineIm[row] = im[row * fftSize + column];
+                }
+                fft.transform(lineRe, lineIm, false);
+                for (int row = 0; row < fftSize; row++) {
+                    float g = greenTransform[row * fftSize + column];
+                    lineRe[row] *= g;
+                    lineIm[row] *= g;
+                }
+                fft.transform(lineRe, lineIm, true);
+                //only the unpadded rows are needed from here on
+                for (int row = 0; row < gridSize; row++) {
+                    re[row * fftSize + column] = lineRe[row];
+                    im[row * fftSize + column] = lineIm[row];
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the gradient of the potential at every cell with central differences (one sided at the
+     * edges of the grid). The potential is in re, in cell units and not yet divided by the fftSize^2
+     * that the inverse transform multiplies by.
+     */
+    private void computeField() {
+        float scale = 1 / ((float) fftSize * fftSize * cellSize * cellSize);
+        int last = gridSize - 1;
+        for (int j = 0; j < gridSize; j++) {
+            int row = j * fftSize;
+            int up = Math.min(j + 1, last) * fftSize;
+            int down = Math.max(j - 1, 0) * fftSize;
+            float ySpan = Math.min(j + 1, last) - Math.max(j - 1, 0);
+            for (int i = 0; i < gridSize; i++) {
+                int right = Math.min(i + 1, last);
+                int left = Math.max(i - 1, 0);
+                int cell = j * gridSize + i;
+                fieldX[cell] = (re[row + right] - re[row + left]) / (right - left) * scale;
+                fieldY[cell] = (re[up + i] - re[down + i]) / ySpan * scale;
+            }
+        }
+    }
+
+    /**
+     * Reads every body's acceleration out of the 4 cells it spread its mass onto, using the same weights.
+     * Bodies off the grid are left for addOutlierGravity.
+     */
+    private void interpolateField(int count, float[] x, float[] y, float[] ax, float[] ay) {
+        for (int b = 0; b < count; b++) {
+            if (!isOnGrid(x[b], y[b])) {
+                continue;
+            }
+            float gx = (x[b] - originX) / cellSize - 0.5f;
+            float gy = (y[b] - originY) / cellSize - 0.5f;
+            int i = (int) Math.floor(gx);
+            int j = (int) Math.floor(gy);
+            float tx = gx - i;
+            float ty = gy - j;
+            int k = j * gridSize + i;
+            float w00 = (1 - tx) * (1 - ty);
+            float w10 = tx * (1 - ty);
+            float w01 = (1 - tx) * ty;
+            float w11 = tx * ty;
+            ax[b] = gravityConstant * (w00 * fieldX[k] + w10 * fieldX[k + 1]
+                    + w01 * fieldX[k + gridSize] + w11 * fieldX[k + gridSize + 1]);
+            ay[b] = gravityConstant * (w00 * fieldY[k] + w10 * fieldY[k + 1]
+                    + w01 * fieldY[k + gridSize] + w11 * fieldY[k + gridSize + 1]);
+        }
+    }
+
+    /**
+     * Adds the direct pull of the bodies off the grid to every body on it, and works out the full direct
+     * sum for the bodies off the grid
+     */
+    private void addOutlierGravity(int count, float[] x, float[] y, float[] mass, float[] ax, float[] ay) {
+        if (outlierCount == 0) {
+            return;
+        }
+        float[] sum = kernel.sum;
+        for (int b = 0; b < count; b++) {
+            sum[0] = 0;
+            sum[1] = 0;
+            if (isOnGrid(x[b], y[b])) {
+                kernel.addPull(x[b], y[b], 0, outlierCount, outlierX, outlierY, outlierMass, sum);
+                ax[b] += gravityConstant * sum[0];
+                ay[b] += gravityConstant * sum[1];
+            } else {
+                kernel.addPull(x[b], y[b], 0, b, x, y, mass, sum);
+                kernel.addPull(x[b], y[b], b + 1, count, x, y, mass, sum);
+                ax[b] = gravityConstant * sum[0];
+                ay[b] = gravityConstant * sum[1];
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.application.orbit;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+
+/**
+ * This class advances the simulation in double precision. Box2D only works in floats, so in float mode
+ * a body far from the origin can only be placed on a coarse grid of positions, and small velocity
+ * changes from gravity get rounded away. That shows up as orbits slowly decaying or drifting.
+ *
+ * Here the real position and velocity of every body are the doubles in the registry (preciseX and
+ * friends). The kick-drift-kick leapfrog is done on those doubles, and the floats are only rounded
+ * copies. Box2D still gets one world step per step so that collisions work: every body is given the
+ * straight line velocity from where Box2D has it to where the double position says it should be. If
+ * Box2D changes that velocity, the body hit something, so the change is added to the real velocity and
+ * the body's position is taken from Box2D. Otherwise Box2D's position is ignored.
+ *
+ * In exact gravity mode the forces come from PrecisePairwiseSolver. The approximate modes still work on
+ * the rounded float positions, since their own error is far bigger than float rounding.
+ *
+ * Cost compared with float mode: the per body loops do about twice the work, and exact gravity takes
+ * about 15% longer than the float pairwise solver on one thread, without the locked field cache or
+ * extra threads (see PrecisePairwiseSolver). Block timesteps aren't used in this mode. In a test with a
+ * planet orbiting 20,000 units from the origin, float mode let the orbit radius wander by 1% over three
+ * minutes while double mode kept it the same as at the origin.
+ */
+public class PreciseIntegrator {
+
+    GameScreen gameScreen;
+    BodyRegistry bodies;
+
+    static final float MAX_BOX2D_TRANSLATION = 2f; //Box2D won't move a body further than this in one world step
+
+    float[] lineVx, lineVy; //the velocity Box2D is given to get each body to its new position
+
+    public PreciseIntegrator(GameScreen gameScreen, BodyRegistry bodies) {
+        this.gameScreen = gameScreen;
+        this.bodies = bodies;
+        lineVx = new float[16];
+        lineVy = new float[16];
+    }
+
+    /**
+     * This method advances every body by one step with the kick-drift-kick leapfrog in double precision
+     * @param step the amount of time to advance by
+     */
+    public void step(float step) {
+        if (!gameScreen.accelerationsValid) {
+            gameScreen.computeGravity();
+        }
+
+        CloseEncounterRegularizer encounters = gameScreen.encounters;
+        gameScreen.findEncounterPairs(step, true);
+        bodies.kickPrecise(step / 2.0);
+        encounters.kickPairs(bodies, -step / 2.0);
+        encounters.computeDrift(bodies, step);
+        bodies.driftPrecise(step);
+        encounters.applyDrift(bodies); //close pairs follow their two body orbit instead of a straight line
+        moveBodies(step);
+        encounters.updateSlots(bodies);
+
+        gameScreen.computeGravity();
+        bodies.kickPrecise(step / 2.0);
+        encounters.kickPairs(bodies, -step / 2.0);
+    }
+
+    /**
+     * This method moves the Box2D bodies to the registry's new double positions with a world step, so
+     * that collisions are still found. Every body is moved in a straight line from where Box2D has it.
+     * Bodies that collide keep Box2D's position and get its velocity change. Afterwards the floats in the
+     * registry are rounded from the doubles and bodies absorbed in a collision are removed. Also used by
+     * the WisdomHolmanIntegrator.
+     * @param step the length of the step the bodies were moved by
+     */
+    void moveBodies(float step) {
+        int count = bodies.movableSize();
+        if (lineVx.length < count) {
+            lineVx = new float[count * 2];
+            lineVy = new float[count * 2];
+        }
+
+        //Box2D moves every body in a straight line to its new position, checking for collisions
+        float maxSpeed2 = 0;
+        for (int i = 0; i < count; i++) {
+            Vector2 position = bodies.get(i).getWorldCenter();
+            lineVx[i] = (float) ((bodies.preciseX[i] - position.x) / step);
+            lineVy[i] = (float) ((bodies.preciseY[i] - position.y) / step);
+            bodies.get(i).setLinearVelocity(lineVx[i], lineVy[i]);
+            maxSpeed2 = Math.max(maxSpeed2, lineVx[i] * lineVx[i] + lineVy[i] * lineVy[i]);
+        }
+
+        //Box2D would slow down a body that moves too far in one world step, which would look like a
+        //collision. long steps (see WisdomHolmanIntegrator) are split into several world steps instead
+        int worldSteps = (int) Math.ceil(Math.sqrt(maxSpeed2) * step / MAX_BOX2D_TRANSLATION);
+        worldSteps = Math.max(worldSteps, 1);
+        for (int k = 0; k < worldSteps; k++) {
+            gameScreen.world.step(step / worldSteps, 6, 2);
+        }
+
+        for (int i = 0; i < count; i++) {
+            Body body = bodies.get(i);
+            Vector2 velocity = body.getLinearVelocity();
+            if (velocity.x != lineVx[i] || velocity.y != lineVy[i]) {
+                //a collision. give the same velocity change to the real velocity and trust Box2D's position
+                bodies.preciseVx[i] += velocity.x - lineVx[i];
+                bodies.preciseVy[i] += velocity.y - lineVy[i];
+                Vector2 position = body.getWorldCenter();
+                bodies.preciseX[i] = position.x;
+                bodies.preciseY[i] = position.y;
+            }
+            bodies.vx[i] = (float) bodies.preciseVx[i];
+            bodies.vy[i] = (float) bodies.preciseVy[i];
+            body.setLinearVelocity(bodies.vx[i], bodies.vy[i]);
+            bodies.x[i] = (float) bodies.preciseX[i];
+            bodies.y[i] = (float) bodies.preciseY[i];
+            bodies.angle[i] = body.getAngle();
+        }
+
+        //bodies absorbed in a collision are removed right away so they don't take part in the next step
+        gameScreen.deleteScheduledBodies();
+    }
+}
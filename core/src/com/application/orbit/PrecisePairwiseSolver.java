@@ -0,0 +1,116 @@
+package com.application.orbit;
+
+/**
+ * This class calculates exact gravity in double precision. It is the gravity used by the double
+ * precision mode (see PreciseIntegrator) when the gravity mode is exact.
+ *
+ * In float mode the distance between two bodies is worked out from float positions, so when bodies are
+ * far from the origin most of the digits are spent on the position and only a few are left for the
+ * distance. Here the positions are doubles and the distances, forces and sums are all worked out in
+ * doubles. Only the finished accelerations are rounded to floats, which costs very little accuracy since
+ * an acceleration is small compared to a position.
+ *
+ * Like PairwiseGravitySolver, pairs of movable bodies are only looked at once. Locked bodies are
+ * included as well (there is no double precision locked field cache), but only pull on the movable
+ * bodies. With 2000 bodies on desktop a step takes about 15% longer than the float pairwise solver on
+ * one thread. It doesn't use several threads.
+ */
+public class PrecisePairwiseSolver {
+
+    double gravityConstant; //G already scaled to world units
+    double[] sumX, sumY; //accelerations are added up in doubles before being rounded
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     */
+    public PrecisePairwiseSolver(float gravityConstant) {
+        this.gravityConstant = gravityConstant;
+        sumX = new double[16];
+        sumY = new double[16];
+    }
+
+    /**
+     * Calculates the acceleration of every movable body
+     * @param movable the number of movable bodies. These are in slots 0..movable-1
+     * @param count the number of bodies, including the locked ones after the movable ones
+     * @param x double precision x positions
+     * @param y double precision y positions
+     * @param mass body masses
+     * @param ax gets the x accelerations of the movable bodies
+     * @param ay gets the y accelerations of the movable bodies
+     */
+    public void computeAccelerations(int movable, int count, double[] x, double[] y, float[] mass,
+                                     float[] ax, float[] ay) {
+        accumulate(movable, count, x, y, mass, -1);
+        for (int i = 0; i < movable; i++) {
+            ax[i] = (float) (sumX[i] * gravityConstant);
+            ay[i] = (float) (sumY[i] * gravityConstant);
+        }
+    }
+
+    /**
+     * Adds up the pull on every movable body into sumX and sumY, without G
+     * @param skip a body that is left out completely (it doesn't pull and isn't pulled), or -1. Used by
+     *             the WisdomHolmanIntegrator, which handles the pull of the star separately
+     */
+    void accumulate(int movable, int count, double[] x, double[] y, float[] mass, int skip) {
+        if (sumX.length < movable) {
+            sumX = new double[movable * 2];
+            sumY = new double[movable * 2];
+        }
+        double[] sumX = this.sumX, sumY = this.sumY;
+        for (int i = 0; i < movable; i++) {
+            sumX[i] = 0;
+            sumY[i] = 0;
+        }
+
+        for (int i = 0; i < movable; i++) {
+            if (i == skip) {
+                continue;
+            }
+            double xi = x[i];
+            double yi = y[i];
+            double mi = mass[i];
+            double rowX = 0, rowY = 0;
+
+            //other movable bodies. both sides of the pair are updated
+            for (int j = i + 1; j < movable; j++) {
+                if (j == skip) {
+                    continue;
+                }
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double r2 = dx * dx + dy * dy;
+                if (r2 <= 0) {
+                    continue; //bodies on top of each other. there is no direction to pull in
+                }
+                double invR3 = 1 / (r2 * Math.sqrt(r2));
+                double fj = mass[j] * invR3;
+                double fi = mi * invR3;
+                rowX += fj * dx;
+                rowY += fj * dy;
+                sumX[j] -= fi * dx;
+                sumY[j] -= fi * dy;
+            }
+
+            //locked bodies only pull
+            for (int j = movable; j < count; j++) {
+                if (j == skip) {
+                    continue;
+                }
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double r2 = dx * dx + dy * dy;
+                if (r2 <= 0) {
+                    continue;
+                }
+                double f = mass[j] / (r2 * Math.sqrt(r2));
+                rowX += f * dx;
+                rowY += f * dy;
+            }
+
+            sumX[i] += rowX;
+            sumY[i] += rowY;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.application.orbit;
+
+/**
+ * This TaskRunner runs every task one after the other on the calling thread. It is used on platforms
+ * that don't provide a multi-threaded runner.
+ */
+public class SequentialTaskRunner implements TaskRunner {
+
+    @Override
+    public int getMaxThreads() {
+        return 1;
+    }
+
+    @Override
+    public void runAll(Runnable[] tasks, int count) {
+        for (int i = 0; i < count; i++) {
+            tasks[i].run();
+        }
+    }
+
+    @Override
+    public boolean runInBackground(Runnable task) {
+        return false; //running it here would make the caller wait for it
+    }
+}
@@ -5,8 +5,11 @@ import com.badlogic.gdx.scenes.scene2d.InputEvent;
 import com.badlogic.gdx.scenes.scene2d.InputListener;
 import com.badlogic.gdx.scenes.scene2d.ui.CheckBox;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.ScrollPane;
+import com.badlogic.gdx.scenes.scene2d.ui.SelectBox;
 import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.scenes.scene2d.ui.Slider;
+import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
 import com.badlogic.gdx.scenes.scene2d.ui.Window;
 import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
@@ -16,9 +19,16 @@ import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
  */
 public class SettingsWindow extends Window {
 
-    Slider launchSimulationSlider, matrixSizeSlider;
-    CheckBox dynamicLaunchSimulatorCheckBox, bodyFusionCheckBox;
-    TextButton exitButton, saveButton;
+    //names shown in the gravity mode box, in the same order as GameScreen.GravityMode
+    static final String[] GRAVITY_MODE_NAMES = {"Exact", "Barnes-Hut", "Fast Multipole", "Particle Mesh"};
+
+    Slider launchSimulationSlider, matrixSizeSlider, openingAngleSlider, physicsThreadsSlider, substepsSlider,
+            treeReuseSlider, multipoleOrderSlider, meshSizeSlider, meshPaddingSlider, beltSizeSlider, timeWarpSlider;
+    CheckBox dynamicLaunchSimulatorCheckBox, bodyFusionCheckBox, blockTimestepsCheckBox, doublePrecisionCheckBox,
+            wisdomHolmanCheckBox, encounterCheckBox;
+    SelectBox<String> gravityModeSelectBox;
+    ScrollPane scroll;
+    TextButton exitButton, saveButton, addBeltButton;
     GameScreen gameScreen;
     DigitFilter digitFilter;
 
@@ -73,6 +83,161 @@ public class SettingsWindow extends Window {
             }
         });
 
+        final Label gravityModeLabel = new Label("Gravity: ", skin);
+        gravityModeSelectBox = new SelectBox<String>(skin);
+        gravityModeSelectBox.setItems(GRAVITY_MODE_NAMES);
+        gravityModeSelectBox.setSelectedIndex(gameScreen.getGravityMode().ordinal());
+        gravityModeSelectBox.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                updateGravityMode();
+            }
+        });
+
+        final Label openingAngleLabel = new Label("Barnes-Hut Opening Angle: ", skin);
+        openingAngleSlider = new Slider(BarnesHutSolver.MIN_OPENING_ANGLE, BarnesHutSolver.MAX_OPENING_ANGLE, 0.1f, false, skin);
+        openingAngleSlider.setDebug(false);
+        openingAngleSlider.setValue(gameScreen.getBarnesHutOpeningAngle());
+        openingAngleSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setBarnesHutOpeningAngle(openingAngleSlider.getValue());
+            }
+        });
+
+        final Label treeReuseLabel = new Label("Barnes-Hut Tree Reuse Steps: ", skin);
+        treeReuseSlider = new Slider(1, BarnesHutSolver.MAX_REUSE_STEPS, 1, false, skin);
+        treeReuseSlider.setDebug(false);
+        treeReuseSlider.setValue(gameScreen.getBarnesHutReuseSteps());
+        treeReuseSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setBarnesHutReuseSteps((int) treeReuseSlider.getValue());
+            }
+        });
+
+        final Label multipoleOrderLabel = new Label("Multipole Order: ", skin);
+        multipoleOrderSlider = new Slider(FastMultipoleSolver.MIN_ORDER, FastMultipoleSolver.MAX_ORDER, 1, false, skin);
+        multipoleOrderSlider.setDebug(false);
+        multipoleOrderSlider.setValue(gameScreen.getMultipoleOrder());
+        multipoleOrderSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setMultipoleOrder((int) multipoleOrderSlider.getValue());
+            }
+        });
+
+        //the mesh size slider picks the power of two, so each notch doubles the resolution
+        final Label meshSizeLabel = new Label("Particle Mesh Size: " + gameScreen.getMeshSize(), skin);
+        meshSizeSlider = new Slider(log2(ParticleMeshSolver.MIN_GRID_SIZE), log2(ParticleMeshSolver.MAX_GRID_SIZE), 1,
+                false, skin);
+        meshSizeSlider.setDebug(false);
+        meshSizeSlider.setValue(log2(gameScreen.getMeshSize()));
+        meshSizeSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setMeshSize(1 << (int) meshSizeSlider.getValue());
+                meshSizeLabel.setText("Particle Mesh Size: " + gameScreen.getMeshSize());
+            }
+        });
+
+        final Label meshPaddingLabel = new Label("Particle Mesh Padding: ", skin);
+        meshPaddingSlider = new Slider(0, ParticleMeshSolver.MAX_PADDING, 0.1f, false, skin);
+        meshPaddingSlider.setDebug(false);
+        meshPaddingSlider.setValue(gameScreen.getMeshPadding());
+        meshPaddingSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setMeshPadding(meshPaddingSlider.getValue());
+            }
+        });
+
+        final Label substepsLabel = new Label("Physics Steps Per Frame: ", skin);
+        substepsSlider = new Slider(1, GameScreen.MAX_PHYSICS_SUBSTEPS, 1, false, skin);
+        substepsSlider.setDebug(false);
+        substepsSlider.setValue(gameScreen.getPhysicsSubsteps());
+        substepsSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setPhysicsSubsteps((int) substepsSlider.getValue());
+            }
+        });
+
+        //the time warp slider picks the power of ten, so each notch is ten times faster
+        final Label timeWarpLabel = new Label("Time Warp: " + gameScreen.getTimeWarp() + "x", skin);
+        timeWarpSlider = new Slider(0, log10(GameScreen.MAX_TIME_WARP), 1, false, skin);
+        timeWarpSlider.setDebug(false);
+        timeWarpSlider.setValue(log10(gameScreen.getTimeWarp()));
+        timeWarpSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setTimeWarp(pow10((int) timeWarpSlider.getValue()));
+                timeWarpLabel.setText("Time Warp: " + gameScreen.getTimeWarp() + "x");
+            }
+        });
+
+        blockTimestepsCheckBox = new CheckBox(" Adaptive Body Time Steps", skin);
+        blockTimestepsCheckBox.setChecked(gameScreen.isBlockTimestepsOn());
+        blockTimestepsCheckBox.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setBlockTimestepsOn(blockTimestepsCheckBox.isChecked());
+            }
+        });
+
+        doublePrecisionCheckBox = new CheckBox(" Double Precision (Slower)", skin);
+        doublePrecisionCheckBox.setChecked(gameScreen.isDoublePrecisionOn());
+        doublePrecisionCheckBox.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setDoublePrecisionOn(doublePrecisionCheckBox.isChecked());
+            }
+        });
+
+        wisdomHolmanCheckBox = new CheckBox(" Exact Orbits Around Stars", skin);
+        wisdomHolmanCheckBox.setChecked(gameScreen.isWisdomHolmanOn());
+        wisdomHolmanCheckBox.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setWisdomHolmanOn(wisdomHolmanCheckBox.isChecked());
+            }
+        });
+
+        encounterCheckBox = new CheckBox(" Exact Close Encounters (Exact Gravity Only)", skin);
+        encounterCheckBox.setChecked(gameScreen.isEncounterRegularizationOn());
+        encounterCheckBox.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setEncounterRegularizationOn(encounterCheckBox.isChecked());
+            }
+        });
+
+        //only platforms that can run threads get a thread slider
+        final Label physicsThreadsLabel = new Label("Physics Threads: ", skin);
+        int maxThreads = gameScreen.getMaxPhysicsThreads();
+        if (maxThreads > 1) {
+            physicsThreadsSlider = new Slider(1, maxThreads, 1, false, skin);
+            physicsThreadsSlider.setDebug(false);
+            physicsThreadsSlider.setValue(gameScreen.getPhysicsThreads());
+            physicsThreadsSlider.addListener(new ChangeListener() {
+                public void changed(ChangeEvent event, Actor actor) {
+                    gameScreen.setPhysicsThreads((int) physicsThreadsSlider.getValue());
+                }
+            });
+        }
+
+        final Label beltSizeLabel = new Label("Asteroids Per Belt: " + gameScreen.getBeltParticles(), skin);
+        beltSizeSlider = new Slider(1000, 100000, 1000, false, skin);
+        beltSizeSlider.setDebug(false);
+        beltSizeSlider.setValue(gameScreen.getBeltParticles());
+        beltSizeSlider.addListener(new ChangeListener() {
+            public void changed(ChangeEvent event, Actor actor) {
+                gameScreen.setBeltParticles((int) beltSizeSlider.getValue());
+                beltSizeLabel.setText("Asteroids Per Belt: " + gameScreen.getBeltParticles());
+            }
+        });
+
+        //puts a belt around the selected body. The B key does the same thing
+        addBeltButton = new TextButton("Add Asteroid Belt", skin);
+        addBeltButton.addListener(new InputListener() {
+            public boolean touchDown(InputEvent event, float x, float y, int pointer, int button) {
+
+                return true;
+            }
+
+            public void touchUp(InputEvent event, float x, float y, int pointer, int button) {
+                gameScreen.createAsteroidBelt();
+            }
+        });
+
         final Label matrixSizeLabel = new Label("Body Matrix Size: ", skin);
         int minSize = GameScreen.MIN_BODY_MATRIX_N;
         int maxSize = GameScreen.MAX_BODY_MATRIX_N;
@@ -100,18 +265,77 @@ public class SettingsWindow extends Window {
 
         getTitleTable().add(exitButton).height(getPadTop());
 
+        //the settings are in a scroll pane since there are more than fit on a small screen
+        Table scrollTable = new Table();
+        scrollTable.defaults().spaceBottom(10);
+        scrollTable.add(launchSimulationLabel).right();
+        scrollTable.row();
+        scrollTable.add(launchSimulationSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(dynamicLaunchSimulatorCheckBox);
+        scrollTable.row();
+        scrollTable.add(bodyFusionCheckBox);
+        scrollTable.row();
+        scrollTable.add(gravityModeLabel);
+        scrollTable.row();
+        scrollTable.add(gravityModeSelectBox).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(openingAngleLabel);
+        scrollTable.row();
+        scrollTable.add(openingAngleSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(treeReuseLabel);
+        scrollTable.row();
+        scrollTable.add(treeReuseSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(multipoleOrderLabel);
+        scrollTable.row();
+        scrollTable.add(multipoleOrderSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(meshSizeLabel);
+        scrollTable.row();
+        scrollTable.add(meshSizeSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(meshPaddingLabel);
+        scrollTable.row();
+        scrollTable.add(meshPaddingSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(substepsLabel);
+        scrollTable.row();
+        scrollTable.add(substepsSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(timeWarpLabel);
+        scrollTable.row();
+        scrollTable.add(timeWarpSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(blockTimestepsCheckBox);
+        scrollTable.row();
+        scrollTable.add(doublePrecisionCheckBox);
+        scrollTable.row();
+        scrollTable.add(wisdomHolmanCheckBox);
+        scrollTable.row();
+        scrollTable.add(encounterCheckBox);
+        scrollTable.row();
+        if (physicsThreadsSlider != null) {
+            scrollTable.add(physicsThreadsLabel);
+            scrollTable.row();
+            scrollTable.add(physicsThreadsSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+            scrollTable.row();
+        }
+        scrollTable.add(matrixSizeLabel);
+        scrollTable.row();
+        scrollTable.add(matrixSizeSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(beltSizeLabel);
+        scrollTable.row();
+        scrollTable.add(beltSizeSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        scrollTable.row();
+        scrollTable.add(addBeltButton);
+
+        scroll = new ScrollPane(scrollTable, skin);
+        scroll.setScrollingDisabled(true, false);
         row();
-        add(launchSimulationLabel).right();
-        row();
-        add(launchSimulationSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
-        row();
-        add(dynamicLaunchSimulatorCheckBox);
-        row();
-        add(bodyFusionCheckBox);
-        row();
-        add(matrixSizeLabel);
-        row();
-        add(matrixSizeSlider).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 50);
+        add(scroll).minWidth(HUD.SETTINGS_WINDOW_WIDTH - 30).expandY().fillY();
         row();
         add(saveButton).minWidth(200).colspan(4).center();
 
@@ -133,6 +357,34 @@ public class SettingsWindow extends Window {
         gameScreen.launchSimulation.updateSimulation();
     }
 
+    private static int log2(int powerOfTwo) {
+        int bits = 0;
+        while ((1 << bits) < powerOfTwo) {
+            bits++;
+        }
+        return bits;
+    }
+
+    private static int log10(int powerOfTen) {
+        int digits = 0;
+        while (pow10(digits) < powerOfTen) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int pow10(int exponent) {
+        int value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    public void updateGravityMode() {
+        gameScreen.setGravityMode(GameScreen.GravityMode.values()[gravityModeSelectBox.getSelectedIndex()]);
+    }
+
     public void updateMatrixSize() {
         gameScreen.setBodyMatrixN((int)matrixSizeSlider.getValue());
     }
@@ -0,0 +1,28 @@
+package com.application.orbit;
+
+/**
+ * A TaskRunner runs a batch of tasks and waits for all of them to finish. The core project can't
+ * create threads itself because the html version doesn't support them, so each platform launcher can
+ * hand GameActivity a runner that uses threads. Platforms without one use SequentialTaskRunner.
+ */
+public interface TaskRunner {
+
+    /**
+     * @return the most tasks this runner can run at the same time
+     */
+    int getMaxThreads();
+
+    /**
+     * Runs tasks[0..count-1] and returns once every one of them has finished
+     * @param tasks the tasks to run
+     * @param count the number of tasks to run
+     */
+    void runAll(Runnable[] tasks, int count);
+
+    /**
+     * Starts a task on a background thread and returns right away without waiting for it
+     * @param task the task to run
+     * @return false if this runner has no background thread. The task isn't run in that case
+     */
+    boolean runInBackground(Runnable task);
+}
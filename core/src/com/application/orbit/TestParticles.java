@@ -0,0 +1,233 @@
+package com.application.orbit;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+
+/**
+ * This class holds test particles. These are massless bodies (like asteroids or ring debris) that feel
+ * the gravity of the bodies in the BodyRegistry but don't pull on anything themselves. Because of
+ * that, the cost of a step is (number of bodies) x (number of particles) instead of growing with the
+ * square of the particle count.
+ *
+ * Particles aren't Box2D bodies and don't have a sprite each. Their state is kept in plain arrays and
+ * they are all drawn with the same texture. A particle that ends up inside a body is absorbed (removed)
+ * instead of colliding.
+ *
+ * The accelerations of different particles don't depend on each other, so they are split into ranges
+ * and can be calculated on several threads with a TaskRunner.
+ */
+public class TestParticles {
+
+    static final int MAX_PARTICLES = 200000;
+
+    float gravityConstant; //G already scaled to world units
+
+    int count;
+    float[] x, y, vx, vy, ax, ay;
+    boolean[] absorbed; //set when a particle is found inside a body
+
+    TaskRunner taskRunner;
+    int threadCount;
+    Runnable[] accelerationTasks;
+
+    //bodies read by the acceleration tasks
+    BodyRegistry bodies;
+
+    /**
+     * @param gravityConstant the gravitational constant scaled to world units
+     * @param taskRunner runs the acceleration ranges, possibly on several threads
+     */
+    public TestParticles(float gravityConstant, TaskRunner taskRunner) {
+        this.gravityConstant = gravityConstant;
+        this.taskRunner = taskRunner;
+        allocate(1024);
+        setThreadCount(1);
+    }
+
+    /**
+     * Sets how many ranges of particles the acceleration calculation is split into
+     * @param threads the number of threads to use
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        threadCount = threads;
+        accelerationTasks = new Runnable[threads];
+        for (int t = 0; t < threads; t++) {
+            accelerationTasks[t] = new AccelerationTask(t);
+        }
+    }
+
+    /**
+     * Adds a particle. Its acceleration is zero until computeAccelerations is called.
+     * @return false if there is no room for another particle
+     */
+    public boolean add(float px, float py, float pvx, float pvy) {
+        if (count == MAX_PARTICLES) {
+            return false;
+        }
+        if (count == x.length) {
+            allocate(Math.min(count * 2, MAX_PARTICLES));
+        }
+        x[count] = px;
+        y[count] = py;
+        vx[count] = pvx;
+        vy[count] = pvy;
+        ax[count] = 0;
+        ay[count] = 0;
+        absorbed[count] = false;
+        count++;
+        return true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Removes every particle
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Changes the velocity of every particle by its acceleration times dt (leapfrog kick)
+     * @param dt the amount of time to kick by
+     */
+    public void kick(float dt) {
+        for (int i = 0; i < count; i++) {
+            vx[i] += ax[i] * dt;
+            vy[i] += ay[i] * dt;
+        }
+    }
+
+    /**
+     * Moves every particle by its velocity times dt (leapfrog drift)
+     * @param dt the amount of time to drift by
+     */
+    public void drift(float dt) {
+        for (int i = 0; i < count; i++) {
+            x[i] += vx[i] * dt;
+            y[i] += vy[i] * dt;
+        }
+    }
+
+    /**
+     * Moves every particle by (-shiftX, -shiftY). Used when the world origin is moved.
+     */
+    public void shiftOrigin(float shiftX, float shiftY) {
+        for (int i = 0; i < count; i++) {
+            x[i] -= shiftX;
+            y[i] -= shiftY;
+        }
+    }
+
+    /**
+     * Calculates the acceleration of every particle due to every body in the registry. Particles inside
+     * a body are marked as absorbed and get removed by removeAbsorbed.
+     * @param bodies the bodies that pull on the particles
+     */
+    public void computeAccelerations(BodyRegistry bodies) {
+        if (count == 0) {
+            return;
+        }
+        this.bodies = bodies;
+        taskRunner.runAll(accelerationTasks, threadCount);
+        this.bodies = null;
+    }
+
+    /**
+     * Calculates the accelerations of one range of particles
+     */
+    private class AccelerationTask implements Runnable {
+        final int part;
+
+        AccelerationTask(int part) {
+            this.part = part;
+        }
+
+        @Override
+        public void run() {
+            int start = (int) ((long) count * part / threadCount);
+            int end = (int) ((long) count * (part + 1) / threadCount);
+            int bodyCount = bodies.size();
+            float[] bx = bodies.x, by = bodies.y, bm = bodies.mass, br = bodies.radius;
+
+            for (int i = start; i < end; i++) {
+                float px = x[i];
+                float py = y[i];
+                float sumX = 0, sumY = 0;
+                for (int j = 0; j < bodyCount; j++) {
+                    float dx = bx[j] - px;
+                    float dy = by[j] - py;
+                    float r2 = dx * dx + dy * dy;
+                    if (r2 <= br[j] * br[j]) {
+                        absorbed[i] = true;
+                        continue;
+                    }
+                    float f = bm[j] / (r2 * (float) Math.sqrt(r2));
+                    sumX += f * dx;
+                    sumY += f * dy;
+                }
+                ax[i] = sumX * gravityConstant;
+                ay[i] = sumY * gravityConstant;
+            }
+        }
+    }
+
+    /**
+     * Removes every particle that ended up inside a body. The last particle is moved into each hole.
+     */
+    public void removeAbsorbed() {
+        for (int i = count - 1; i >= 0; i--) {
+            if (absorbed[i]) {
+                int last = --count;
+                x[i] = x[last];
+                y[i] = y[last];
+                vx[i] = vx[last];
+                vy[i] = vy[last];
+                ax[i] = ax[last];
+                ay[i] = ay[last];
+                absorbed[i] = absorbed[last];
+            }
+        }
+    }
+
+    /**
+     * Draws every particle that is inside the given rectangle. The batch must already be started.
+     * @param batch the batch to draw with
+     * @param texture the texture used for every particle
+     * @param size the width and height of a particle in world units
+     * @param left the left edge of the visible area
+     * @param bottom the bottom edge of the visible area
+     * @param right the right edge of the visible area
+     * @param top the top edge of the visible area
+     */
+    public void draw(SpriteBatch batch, Texture texture, float size, float left, float bottom, float right, float top) {
+        float half = size / 2;
+        for (int i = 0; i < count; i++) {
+            float px = x[i];
+            float py = y[i];
+            if (px + half < left || px - half > right || py + half < bottom || py - half > top) {
+                continue;
+            }
+            batch.draw(texture, px - half, py - half, size, size);
+        }
+    }
+
+    private void allocate(int capacity) {
+        x = ArrayUtils.grow(x, capacity);
+        y = ArrayUtils.grow(y, capacity);
+        vx = ArrayUtils.grow(vx, capacity);
+        vy = ArrayUtils.grow(vy, capacity);
+        ax = ArrayUtils.grow(ax, capacity);
+        ay = ArrayUtils.grow(ay, capacity);
+        boolean[] newAbsorbed = new boolean[capacity];
+        if (absorbed != null) {
+            System.arraycopy(absorbed, 0, newAbsorbed, 0, count);
+        }
+        absorbed = newAbsorbed;
+    }
+}
@@ -0,0 +1,110 @@
+package com.application.orbit;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes.Usage;
+import com.badlogic.gdx.graphics.glutils.ImmediateModeRenderer20;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+
+/**
+ * This class draws a predicted path as one line. The path is turned into a triangle strip with two
+ * vertices for every position, one on each side of the path, and uploaded to a mesh whenever the path
+ * changes. Drawing it is a single draw call however many positions there are, so paths with thousands
+ * of positions cost the same to draw as short ones. The line fades out along its length, so the near
+ * part of the path stands out.
+ */
+public class TrajectoryLine {
+
+    static final int FLOATS_PER_VERTEX = 3; //x, y and a packed color
+    static final float END_ALPHA = 0.1f; //how visible the far end of the full length is
+
+    Mesh mesh;
+    ShaderProgram shader;
+    float[] vertices;
+    int vertexCount; //0 when there is nothing to draw
+
+    /**
+     * @param maxPoints the most positions a path can have
+     */
+    public TrajectoryLine(int maxPoints) {
+        mesh = new Mesh(false, maxPoints * 2, 0,
+                new VertexAttribute(Usage.Position, 2, ShaderProgram.POSITION_ATTRIBUTE),
+                new VertexAttribute(Usage.ColorPacked, 4, ShaderProgram.COLOR_ATTRIBUTE));
+        shader = ImmediateModeRenderer20.createDefaultShader(false, true, 0);
+        vertices = new float[maxPoints * 2 * FLOATS_PER_VERTEX];
+    }
+
+    /**
+     * This method rebuilds the line from a path and uploads it
+     * @param pathX the x position of each point on the path
+     * @param pathY the y position of each point on the path
+     * @param points the number of points worked out so far
+     * @param length the number of points the whole path will have. The fade is spread over this, so the
+     *               line doesn't change color as the path grows
+     * @param width the width of the line in world units
+     */
+    public void update(float[] pathX, float[] pathY, int points, int length, float width) {
+        vertexCount = 0;
+        if (points < 2) {
+            return;
+        }
+        float half = width / 2;
+        float normalX = 0, normalY = half; //kept from the last point if the path stops moving
+        float[] vertices = this.vertices;
+        int v = 0;
+        for (int i = 0; i < points; i++) {
+            //the line's sides are square to the direction between the points on either side
+            int before = Math.max(i - 1, 0), after = Math.min(i + 1, points - 1);
+            float tangentX = pathX[after] - pathX[before];
+            float tangentY = pathY[after] - pathY[before];
+            float tangentLength = (float) Math.sqrt(tangentX * tangentX + tangentY * tangentY);
+            if (tangentLength > 0) {
+                normalX = -tangentY / tangentLength * half;
+                normalY = tangentX / tangentLength * half;
+            }
+            float alpha = 1 - (1 - END_ALPHA) * i / Math.max(1, length - 1);
+            float color = Color.toFloatBits(1f, 1f, 1f, alpha);
+
+            vertices[v++] = pathX[i] - normalX;
+            vertices[v++] = pathY[i] - normalY;
+            vertices[v++] = color;
+            vertices[v++] = pathX[i] + normalX;
+            vertices[v++] = pathY[i] + normalY;
+            vertices[v++] = color;
+        }
+        vertexCount = points * 2;
+        mesh.setVertices(vertices, 0, v);
+    }
+
+    /**
+     * This method forgets the line, so nothing is drawn until the next update
+     */
+    public void clear() {
+        vertexCount = 0;
+    }
+
+    /**
+     * @param projection the camera's combined matrix
+     */
+    public void draw(Matrix4 projection) {
+        if (vertexCount == 0) {
+            return;
+        }
+        Gdx.gl.glEnable(GL20.GL_BLEND);
+        Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+        shader.begin();
+        shader.setUniformMatrix("u_projModelView", projection);
+        mesh.render(shader, GL20.GL_TRIANGLE_STRIP, 0, vertexCount);
+        shader.end();
+        Gdx.gl.glDisable(GL20.GL_BLEND);
+    }
+
+    public void dispose() {
+        mesh.dispose();
+        shader.dispose();
+    }
+}
@@ -0,0 +1,291 @@
+package com.application.orbit;
+
+/**
+ * This class predicts the path of a launched body in the background, with every other body moving too.
+ * The predictor in LaunchSimulation treats the other bodies as frozen, which is wrong whenever the body
+ * is aimed at something that moves (like a planet), and it runs on the render thread.
+ *
+ * When a prediction is requested, the render thread copies the positions, velocities, masses and radii
+ * out of the registry into a snapshot and hands it to a background task (see
+ * TaskRunner.runInBackground). In double precision mode the positions and velocities are copied from
+ * the registry's doubles. The task moves the whole snapshot forward with adaptive steps (see
+ * DormandPrinceIntegrator) and records where the launched body goes. The path ends early if the
+ * launched body hits something. Other collisions aren't simulated, so the other bodies pass through each
+ * other.
+ *
+ * The path is published a piece at a time as it grows, and LaunchSimulation picks up the newest piece
+ * the next time it is drawn. A prediction stops after MAX_INTERACTIONS pairs of bodies have been looked
+ * at, so in a big scene the path is cut short instead of taking forever.
+ *
+ * Every request or cancel gets a new number. The task checks between pieces whether its request is
+ * still the newest one and gives up as soon as it isn't, so dragging the launch point doesn't pile up
+ * work. Only the newest request is ever published. The render thread never waits for a prediction. It
+ * only holds the lock while it copies a snapshot in or a path out, and the task only holds it to swap
+ * snapshots or to publish a path.
+ */
+public class TrajectoryPredictor implements Runnable, AccelerationField {
+
+    static final long PIECE_INTERACTIONS = 1000000; //pairs of bodies looked at between publishing the path
+    static final long MAX_INTERACTIONS = 200000000; //pairs of bodies looked at before a prediction is cut short
+
+    final Object lock = new Object();
+    TaskRunner taskRunner;
+    boolean available; //false once the task runner turns out to have no background thread
+    double gravityConstant; //G already scaled to world units
+
+    //written by the render thread, read by the task. guarded by lock
+    Snapshot pending; //the newest request that hasn't been started yet
+    boolean pendingFresh; //whether pending holds a request the task hasn't taken
+    int pendingRequest;
+    boolean taskRunning;
+    volatile int latestRequest; //goes up with every request and cancel
+
+    //written by the task, read by the render thread. guarded by lock
+    float[] publishedX, publishedY;
+    int publishedPoints;
+    volatile int publishedRequest;
+    volatile int publishedVersion; //goes up every time a path is published
+
+    //only used by the task
+    Snapshot working;
+    int workingRequest;
+    DormandPrinceIntegrator integrator;
+    PrecisePairwiseSolver solver;
+    float[] pathX, pathY;
+
+    /**
+     * @param taskRunner runs the prediction in the background, if the platform can
+     * @param gravityConstant the gravitational constant scaled to world units
+     */
+    public TrajectoryPredictor(TaskRunner taskRunner, float gravityConstant) {
+        this.taskRunner = taskRunner;
+        this.gravityConstant = gravityConstant;
+        available = true;
+        pending = new Snapshot();
+        working = new Snapshot();
+        publishedX = new float[16];
+        publishedY = new float[16];
+        publishedRequest = -1;
+        integrator = new DormandPrinceIntegrator();
+        solver = new PrecisePairwiseSolver(gravityConstant);
+        pathX = new float[16];
+        pathY = new float[16];
+    }
+
+    /**
+     * This method asks for a new prediction. Any prediction still running is abandoned.
+     * @param bodies the bodies in the scene. Copied right away
+     * @param slot the slot of the launched body
+     * @param vx the launch velocity along x
+     * @param vy the launch velocity along y
+     * @param samples how many positions to record, including the start
+     * @param interval the time between recorded positions
+     * @param precise true to start from the registry's doubles (double precision mode)
+     * @return false if this platform can't predict in the background. Predict on the render thread instead
+     */
+    public boolean request(BodyRegistry bodies, int slot, float vx, float vy, int samples, float interval,
+                           boolean precise) {
+        if (!available) {
+            return false;
+        }
+        synchronized (lock) {
+            pending.copy(bodies, slot, vx, vy, samples, interval, precise);
+            pendingRequest = ++latestRequest;
+            pendingFresh = true;
+            if (taskRunning) {
+                return true; //the running task picks it up when it gives up on its current request
+            }
+            taskRunning = true;
+        }
+        if (!taskRunner.runInBackground(this)) {
+            synchronized (lock) {
+                taskRunning = false;
+                pendingFresh = false;
+            }
+            available = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * This method abandons any prediction that is running or waiting, so nothing more is published
+     * until the next request
+     */
+    public void cancel() {
+        synchronized (lock) {
+            latestRequest++;
+            pendingFresh = false;
+        }
+    }
+
+    /**
+     * @return true while a prediction is still being worked out
+     */
+    public boolean isBusy() {
+        synchronized (lock) {
+            return taskRunning;
+        }
+    }
+
+    /**
+     * @param lastShown the publishedVersion of the path already being shown
+     * @return true if a newer path has been published for the newest request
+     */
+    public boolean hasNewPath(int lastShown) {
+        return publishedVersion != lastShown && publishedRequest == latestRequest;
+    }
+
+    /**
+     * This method copies the newest published path. Read publishedVersion first, so that if another piece
+     * is published in between it is picked up next time.
+     * @param x gets the x positions. Needs room for the number of samples requested
+     * @param y gets the y positions
+     * @return the number of positions copied
+     */
+    public int copyPath(float[] x, float[] y) {
+        synchronized (lock) {
+            System.arraycopy(publishedX, 0, x, 0, publishedPoints);
+            System.arraycopy(publishedY, 0, y, 0, publishedPoints);
+            return publishedPoints;
+        }
+    }
+
+    /**
+     * The background task. Keeps taking the newest request until there are none left.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                if (!pendingFresh) {
+                    taskRunning = false;
+                    return;
+                }
+                Snapshot taken = pending;
+                pending = working;
+                working = taken;
+                workingRequest = pendingRequest;
+                pendingFresh = false;
+            }
+            predict(working);
+        }
+    }
+
+    /**
+     * This method moves the snapshot forward a piece at a time and publishes the launched body's path
+     * after every piece. It stops when the path is done, the budget runs out or a newer request comes in.
+     */
+    private void predict(Snapshot s) {
+        int count = s.count;
+        if (pathX.length < s.samples) {
+            pathX = new float[s.samples * 2];
+            pathY = new float[s.samples * 2];
+        }
+        integrator.start(s.movable, count, s.x, s.y, s.vx, s.vy, s.slot, s.interval, s.samples);
+
+        long perEvaluation = Math.max(1, (long) s.movable * count);
+        int piece = (int) Math.max(DormandPrinceIntegrator.STAGES, PIECE_INTERACTIONS / perEvaluation);
+        long budget = Math.max(piece, MAX_INTERACTIONS / perEvaluation);
+        while (latestRequest == workingRequest) {
+            int done = integrator.advance(this, piece, pathX, pathY);
+            boolean last = integrator.isFinished() || integrator.getEvaluations() >= budget;
+            synchronized (lock) {
+                if (latestRequest != workingRequest) {
+                    return; //the launch point moved on
+                }
+                if (publishedX.length < done) {
+                    publishedX = new float[s.samples * 2];
+                    publishedY = new float[s.samples * 2];
+                }
+                System.arraycopy(pathX, 0, publishedX, 0, done);
+                System.arraycopy(pathY, 0, publishedY, 0, done);
+                publishedPoints = done;
+                publishedRequest = workingRequest;
+                publishedVersion++;
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Calculates the acceleration of every movable body in the snapshot. Locked bodies only pull.
+     */
+    @Override
+    public void computeAccelerations(int moving, int count, double[] x, double[] y, double[] ax, double[] ay) {
+        solver.accumulate(moving, count, x, y, working.mass, -1);
+        double[] sumX = solver.sumX, sumY = solver.sumY;
+        for (int i = 0; i < moving; i++) {
+            ax[i] = sumX[i] * gravityConstant;
+            ay[i] = sumY[i] * gravityConstant;
+        }
+    }
+
+    /**
+     * @return true if the launched body is touching any other body
+     */
+    @Override
+    public boolean hasCrashed(int count, double[] x, double[] y) {
+        int slot = working.slot;
+        float[] radius = working.radius;
+        for (int j = 0; j < count; j++) {
+            double dx = x[j] - x[slot];
+            double dy = y[j] - y[slot];
+            double reach = radius[j] + radius[slot];
+            if (j != slot && dx * dx + dy * dy < reach * reach) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A copy of everything the prediction needs from the registry. Two of them are swapped back and forth
+     * between the render thread and the task, so nothing is allocated once they are big enough.
+     */
+    static class Snapshot {
+        int count, movable; //bodies, with the movable ones first like in the registry
+        int slot; //the launched body
+        int samples;
+        float interval;
+        double[] x = new double[16], y = new double[16], vx = new double[16], vy = new double[16];
+        float[] mass = new float[16], radius = new float[16];
+
+        void copy(BodyRegistry bodies, int slot, float launchVx, float launchVy, int samples, float interval,
+                  boolean precise) {
+            count = bodies.size();
+            movable = bodies.movableSize();
+            if (x.length < count) {
+                x = new double[count * 2];
+                y = new double[count * 2];
+                vx = new double[count * 2];
+                vy = new double[count * 2];
+                mass = new float[count * 2];
+                radius = new float[count * 2];
+            }
+            if (precise) {
+                //in double precision mode the doubles are the real state and the floats are rounded
+                System.arraycopy(bodies.preciseX, 0, x, 0, count);
+                System.arraycopy(bodies.preciseY, 0, y, 0, count);
+                System.arraycopy(bodies.preciseVx, 0, vx, 0, count);
+                System.arraycopy(bodies.preciseVy, 0, vy, 0, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    x[i] = bodies.x[i];
+                    y[i] = bodies.y[i];
+                    vx[i] = bodies.vx[i];
+                    vy[i] = bodies.vy[i];
+                }
+            }
+            System.arraycopy(bodies.mass, 0, mass, 0, count);
+            System.arraycopy(bodies.radius, 0, radius, 0, count);
+            vx[slot] = launchVx;
+            vy[slot] = launchVy;
+            this.slot = slot;
+            this.samples = samples;
+            this.interval = interval;
+        }
+    }
+}
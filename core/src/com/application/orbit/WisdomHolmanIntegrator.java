@@ -0,0 +1,269 @@
+package com.application.orbit;
+
+/**
+ * This class advances scenes where one body (the star) holds most of the mass, like the default scene
+ * of a sun with light planets around it. It uses the Wisdom-Holman map: the motion of every planet is
+ * split into its two body orbit around the star, which is solved exactly (see KeplerDrift), and the
+ * small pull of the planets on each other, which is the only part that is stepped numerically. Leapfrog
+ * has to follow the star's pull with small steps, but here that part has no step error at all, so the
+ * error of a step is only as big as the planet-planet forces. Orbits keep their shape with steps many
+ * times longer than leapfrog needs, and like leapfrog the energy doesn't drift over long runs.
+ *
+ * A movable star moves too, so the democratic heliocentric split is used: planet positions are relative
+ * to the star and planet velocities are relative to the centre of mass. This adds a "jump" where every
+ * planet is shifted by the total momentum of the planets divided by the star's mass. A locked star never
+ * moves, so planets just use positions and velocities relative to it, and the other locked bodies are
+ * included with the planet-planet forces.
+ *
+ * One step is drift(step/2) kick(step) drift(step/2), where
+ * drift: jump(h/2), every planet moves along its Kepler orbit around the star for h, jump(h/2)
+ * kick: every planet gets the pull of every body except the star for the whole step
+ * Only one gravity calculation is needed per step.
+ *
+ * Everything is done on the registry's doubles, and Box2D gets one world step per step for collisions
+ * in the same way as the PreciseIntegrator. The kick always uses exact gravity on one thread, so it is
+ * only used for scenes of up to MAX_BODIES bodies, where that is cheap. Bigger scenes are left to the
+ * gravity modes and the other integrators. Since the orbits around the star don't limit the step,
+ * GameScreen hands it several fixed physics steps at once when it has them (see STEP_MULTIPLE).
+ */
+public class WisdomHolmanIntegrator {
+
+    static final float DOMINANT_MASS_FRACTION = 0.9f; //the star needs at least this much of the total mass
+    static final int MAX_BODIES = 200; //bigger scenes are left to the gravity modes
+    static final int STEP_MULTIPLE = 10; //the most fixed physics steps taken as one step
+
+    GameScreen gameScreen;
+    BodyRegistry bodies;
+    PrecisePairwiseSolver interactionSolver; //the pull of everything except the star
+    double gravityConstant; //G already scaled to world units
+
+    double[] qx, qy; //positions relative to the star
+    double[] ux, uy; //planet velocities relative to the centre of mass (or to a locked star)
+    double[] state; //x, y, vx, vy handed to KeplerDrift
+
+    public WisdomHolmanIntegrator(GameScreen gameScreen, BodyRegistry bodies, float gravityConstant) {
+        this.gameScreen = gameScreen;
+        this.bodies = bodies;
+        this.gravityConstant = gravityConstant;
+        interactionSolver = new PrecisePairwiseSolver(gravityConstant);
+        qx = new double[16];
+        qy = new double[16];
+        ux = new double[16];
+        uy = new double[16];
+        state = new double[4];
+    }
+
+    /**
+     * This method decides whether the next step can be a Wisdom-Holman step. It can't if the scene isn't
+     * dominated by one body, has more than MAX_BODIES bodies, or has a close encounter that doesn't
+     * include the star. The kick would step straight through the pull of such a pair, so those steps are
+     * left to the integrators that regularize it (see CloseEncounterRegularizer).
+     * @param step the length of the next step
+     * @param precise true if the registry's doubles are the current state
+     * @return the slot of the star to step around, or -1 to use the other integrators
+     */
+    public int findStar(float step, boolean precise) {
+        if (bodies.size() > MAX_BODIES) {
+            return -1;
+        }
+        int star = findDominantBody();
+        if (star < 0) {
+            return -1;
+        }
+        CloseEncounterRegularizer encounters = gameScreen.encounters;
+        if (encounters.findPairs(bodies, step, precise) > 0 && encounters.hasPairWithout(star)) {
+            return -1;
+        }
+        return star;
+    }
+
+    /**
+     * This method looks for a body that holds at least DOMINANT_MASS_FRACTION of the total mass. A
+     * movable star can only be used when there are no locked bodies, since locked bodies would pull on
+     * it and it wouldn't be the centre of the planets' orbits anymore.
+     * @return the slot of the star, or -1 if the scene isn't dominated by one body
+     */
+    public int findDominantBody() {
+        int count = bodies.size();
+        if (count < 2) {
+            return -1;
+        }
+        float[] mass = bodies.mass;
+        double total = 0;
+        int heaviest = 0;
+        for (int i = 0; i < count; i++) {
+            total += mass[i];
+            if (mass[i] > mass[heaviest]) {
+                heaviest = i;
+            }
+        }
+        if (mass[heaviest] < DOMINANT_MASS_FRACTION * total) {
+            return -1;
+        }
+        if (heaviest < bodies.movableSize() && bodies.movableSize() < count) {
+            return -1;
+        }
+        return heaviest;
+    }
+
+    /**
+     * This method advances every body by one step of the Wisdom-Holman map
+     * @param step the amount of time to advance by
+     * @param star the slot of the dominant body (see findStar)
+     */
+    public void step(float step, int star) {
+        int movable = bodies.movableSize();
+        int count = bodies.size();
+        if (qx.length < count) {
+            qx = new double[count * 2];
+            qy = new double[count * 2];
+            ux = new double[count * 2];
+            uy = new double[count * 2];
+        }
+        double[] px = bodies.preciseX, py = bodies.preciseY;
+        double[] pvx = bodies.preciseVx, pvy = bodies.preciseVy;
+        float[] mass = bodies.mass;
+        boolean lockedStar = star >= movable;
+        double starMass = mass[star];
+
+        //centre of mass of the whole system. a locked star is the centre and never moves
+        double centreX = px[star], centreY = py[star];
+        double centreVx = 0, centreVy = 0;
+        double totalMass = starMass;
+        if (!lockedStar) {
+            double sumX = 0, sumY = 0, sumVx = 0, sumVy = 0;
+            totalMass = 0;
+            for (int i = 0; i < movable; i++) {
+                sumX += mass[i] * px[i];
+                sumY += mass[i] * py[i];
+                sumVx += mass[i] * pvx[i];
+                sumVy += mass[i] * pvy[i];
+                totalMass += mass[i];
+            }
+            centreX = sumX / totalMass;
+            centreY = sumY / totalMass;
+            centreVx = sumVx / totalMass;
+            centreVy = sumVy / totalMass;
+        }
+
+        //convert to positions relative to the star and velocities relative to the centre of mass
+        double starX = px[star], starY = py[star];
+        for (int i = 0; i < count; i++) {
+            qx[i] = px[i] - starX;
+            qy[i] = py[i] - starY;
+        }
+        for (int i = 0; i < movable; i++) {
+            ux[i] = pvx[i] - centreVx;
+            uy[i] = pvy[i] - centreVy;
+        }
+
+        double mu = gravityConstant * starMass;
+        drift(step / 2.0, star, movable, lockedStar, mu);
+        kick(step, star, movable, count);
+        drift(step / 2.0, star, movable, lockedStar, mu);
+
+        //convert back. the centre of mass moves in a straight line and the star goes wherever keeps it there
+        if (!lockedStar) {
+            centreX += centreVx * step;
+            centreY += centreVy * step;
+            double sumQx = 0, sumQy = 0, sumUx = 0, sumUy = 0;
+            for (int i = 0; i < movable; i++) {
+                if (i != star) {
+                    sumQx += mass[i] * qx[i];
+                    sumQy += mass[i] * qy[i];
+                    sumUx += mass[i] * ux[i];
+                    sumUy += mass[i] * uy[i];
+                }
+            }
+            starX = centreX - sumQx / totalMass;
+            starY = centreY - sumQy / totalMass;
+            px[star] = starX;
+            py[star] = starY;
+            pvx[star] = centreVx - sumUx / starMass;
+            pvy[star] = centreVy - sumUy / starMass;
+        }
+        for (int i = 0; i < movable; i++) {
+            if (i != star) {
+                px[i] = qx[i] + starX;
+                py[i] = qy[i] + starY;
+                pvx[i] = ux[i] + centreVx;
+                pvy[i] = uy[i] + centreVy;
+            }
+        }
+
+        gameScreen.preciseIntegrator.moveBodies(step);
+        //the registry accelerations weren't used, so they are out of date for the other integrators
+        gameScreen.accelerationsValid = false;
+    }
+
+    /**
+     * This method moves every planet along its Kepler orbit around the star, with half the jump before
+     * and after it when the star is movable
+     */
+    private void drift(double h, int star, int movable, boolean lockedStar, double mu) {
+        if (!lockedStar) {
+            jump(h / 2, star, movable);
+        }
+        for (int i = 0; i < movable; i++) {
+            if (i == star) {
+                continue;
+            }
+            state[0] = qx[i];
+            state[1] = qy[i];
+            state[2] = ux[i];
+            state[3] = uy[i];
+            if (KeplerDrift.drift(mu, h, state)) {
+                qx[i] = state[0];
+                qy[i] = state[1];
+                ux[i] = state[2];
+                uy[i] = state[3];
+            } else {
+                //only happens for a planet sitting right on the star. it is about to be absorbed anyway
+                qx[i] += ux[i] * h;
+                qy[i] += uy[i] * h;
+            }
+        }
+        if (!lockedStar) {
+            jump(h / 2, star, movable);
+        }
+    }
+
+    /**
+     * This method shifts every planet by the total planet momentum divided by the star's mass. This is
+     * the part of the star's own motion that the heliocentric positions don't include.
+     */
+    private void jump(double h, int star, int movable) {
+        float[] mass = bodies.mass;
+        double momentumX = 0, momentumY = 0;
+        for (int i = 0; i < movable; i++) {
+            if (i != star) {
+                momentumX += mass[i] * ux[i];
+                momentumY += mass[i] * uy[i];
+            }
+        }
+        double shiftX = momentumX / mass[star] * h;
+        double shiftY = momentumY / mass[star] * h;
+        for (int i = 0; i < movable; i++) {
+            if (i != star) {
+                qx[i] += shiftX;
+                qy[i] += shiftY;
+            }
+        }
+    }
+
+    /**
+     * This method gives every planet the pull of every body except the star. Only differences of the
+     * relative positions are used, so they work the same as real positions.
+     */
+    private void kick(double h, int star, int movable, int count) {
+        interactionSolver.accumulate(movable, count, qx, qy, bodies.mass, star);
+        double[] sumX = interactionSolver.sumX, sumY = interactionSolver.sumY;
+        double scale = gravityConstant * h;
+        for (int i = 0; i < movable; i++) {
+            if (i != star) {
+                ux[i] += sumX[i] * scale;
+                uy[i] += sumY[i] * scale;
+            }
+        }
+    }
+}
@@ -7,6 +7,6 @@ import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 public class DesktopLauncher {
 	public static void main (String[] arg) {
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
-		new LwjglApplication(new GameActivity(), config);
+		new LwjglApplication(new GameActivity(new ForkJoinTaskRunner()), config);
 	}
 }
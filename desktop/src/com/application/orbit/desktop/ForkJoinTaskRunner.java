@@ -0,0 +1,48 @@
+package com.application.orbit.desktop;
+
+import com.application.orbit.TaskRunner;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Desktop TaskRunner that spreads tasks over every core with a ForkJoinPool.
+ */
+public class ForkJoinTaskRunner implements TaskRunner {
+
+    final ForkJoinPool pool;
+
+    public ForkJoinTaskRunner() {
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public int getMaxThreads() {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public void runAll(final Runnable[] tasks, final int count) {
+        if (count == 1) {
+            tasks[0].run();
+            return;
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask<?>[] forks = new ForkJoinTask<?>[count];
+                for (int i = 0; i < count; i++) {
+                    forks[i] = ForkJoinTask.adapt(tasks[i]);
+                }
+                invokeAll(forks);
+            }
+        });
+    }
+
+    @Override
+    public boolean runInBackground(Runnable task) {
+        pool.execute(task);
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package com.application.orbit.desktop;
+
+import com.application.orbit.MultipoleOrderCheck;
+
+/**
+ * Runs MultipoleOrderCheck without starting the game, so it can be run from the command line with
+ * "gradlew desktop:checkMultipoleOrders". Exits with 1 if the check fails.
+ */
+public class MultipoleOrderCheckLauncher {
+	public static void main (String[] arg) {
+		MultipoleOrderCheck check = new MultipoleOrderCheck();
+		boolean passed = check.run();
+		System.out.println(check.getReport());
+		System.exit(passed ? 0 : 1);
+	}
+}